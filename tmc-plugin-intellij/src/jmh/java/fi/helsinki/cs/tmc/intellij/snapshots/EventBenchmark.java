@@ -0,0 +1,75 @@
+package fi.helsinki.cs.tmc.intellij.snapshots;
+
+import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+import fi.helsinki.cs.tmc.snapshots.EventSendBuffer;
+import fi.helsinki.cs.tmc.snapshots.EventStore;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds text events like {@link TextInputListener} does and hands them to the event send buffer
+ * of tmc-core. No course is selected, so the buffer never sends them anywhere.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EventBenchmark {
+
+    private static final String PATCHES =
+            "@@ -812,6 +812,31 @@\n  %7B%0A\n+        int typed = 42;%0A\n";
+
+    private final Exercise exercise = new Exercise("viikko1-Viikko1_001.Nimi", "benchmark");
+    private EventSendBuffer buffer;
+    private LoggableEvent event;
+
+    @Setup
+    public void setUp() {
+        buffer = new EventSendBuffer(new TmcServerCommunicationTaskFactory(), new EventStore());
+        event = makeEvent();
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.close();
+    }
+
+    @Benchmark
+    public String jsonMaker() {
+        return JsonMaker.create()
+                .add("file", "src/viikko1/Main.java")
+                .add("edit_count", 12)
+                .add("patches", PATCHES)
+                .add("full_document", false)
+                .toString();
+    }
+
+    @Benchmark
+    public LoggableEvent makeEvent() {
+        return new LoggableEvent(
+                exercise, "text_insert", jsonMaker().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void receiveEvent() {
+        buffer.receiveEvent(event);
+    }
+}
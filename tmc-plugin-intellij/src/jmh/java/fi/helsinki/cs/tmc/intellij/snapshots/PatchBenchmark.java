@@ -0,0 +1,85 @@
+package fi.helsinki.cs.tmc.intellij.snapshots;
+
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.SyntheticProject;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.TextChangeCoalescer;
+
+import name.fraser.neil.plaintext.DiffMatchPatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes the patches of a line typed in the middle of documents of different sizes, both the way
+ * {@link TextInputListener} does and by diffing the whole document for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PatchBenchmark {
+
+    private static final String TYPED = "        int typed = 42;\n";
+
+    /** The number of members of the edited class, about 120 bytes each. */
+    @Param({"10", "100", "1000"})
+    public int members;
+
+    private final DiffMatchPatch diff = new DiffMatchPatch();
+    private ScheduledExecutorService timer;
+    private String original;
+    private String modified;
+    private TextChangeCoalescer.CoalescedEdit<String> edit;
+
+    @Setup
+    public void setUp() {
+        original = SyntheticProject.source("Edited", members, new Random(members));
+        int offset = original.indexOf('\n', original.length() / 2) + 1;
+        modified = original.substring(0, offset) + TYPED + original.substring(offset);
+
+        List<TextChangeCoalescer.CoalescedEdit<String>> edits = new ArrayList<>();
+        timer = Executors.newSingleThreadScheduledExecutor();
+        TextChangeCoalescer<String> coalescer =
+                new TextChangeCoalescer<>(edits::add, timer, Long.MAX_VALUE, Integer.MAX_VALUE);
+        StringBuilder text = new StringBuilder(original);
+        for (int i = 0; i < TYPED.length(); i++) {
+            String typed = TYPED.substring(i, i + 1);
+            text.insert(offset + i, typed);
+            coalescer.add(this, "Edited.java", "text_insert", text, offset + i, "", typed);
+        }
+        coalescer.flush();
+        edit = edits.get(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Benchmark
+    public String coalescedRegion() {
+        return diff.patch_toText(TextInputListener.makePatches(edit));
+    }
+
+    @Benchmark
+    public String wholeDocument() {
+        return diff.patch_toText(diff.patch_make(original, modified));
+    }
+}
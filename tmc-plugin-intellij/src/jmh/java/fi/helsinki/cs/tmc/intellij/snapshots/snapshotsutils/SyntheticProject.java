@@ -0,0 +1,51 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/** Generates exercise-like projects of Java sources for the benchmarks. */
+public final class SyntheticProject {
+
+    private static final int FILES_PER_PACKAGE = 100;
+
+    private SyntheticProject() {}
+
+    /**
+     * Creates a project of the given number of source files in a temporary directory. The
+     * contents are random but the same for the same number of files.
+     */
+    public static Path create(int files) throws IOException {
+        Path root = Files.createTempDirectory("tmc-benchmark-");
+        Random random = new Random(files);
+        for (int i = 0; i < files; i++) {
+            Path dir = root.resolve("src/pkg" + (i / FILES_PER_PACKAGE));
+            Files.createDirectories(dir);
+            Files.write(
+                    dir.resolve("Class" + i + ".java"),
+                    source("Class" + i, 40, random).getBytes(StandardCharsets.UTF_8));
+        }
+        return root;
+    }
+
+    /** A Java class of the given number of fields and methods. */
+    public static String source(String name, int members, Random random) {
+        StringBuilder source = new StringBuilder("public class ").append(name).append(" {\n");
+        for (int i = 0; i < members; i++) {
+            String field = "value" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+            source.append("    private int ").append(field).append(" = ");
+            source.append(random.nextInt(1000)).append(";\n\n");
+            source.append("    public int get").append(i).append("() {\n");
+            source.append("        return ").append(field).append(" * 2;\n    }\n\n");
+        }
+        return source.append("}\n").toString();
+    }
+
+    public static void delete(Path root) throws IOException {
+        FileUtils.deleteDirectory(root.toFile());
+    }
+}
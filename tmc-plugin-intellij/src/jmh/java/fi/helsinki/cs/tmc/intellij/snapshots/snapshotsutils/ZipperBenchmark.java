@@ -0,0 +1,69 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zips synthetic projects. The cold benchmarks compress every file, the cached ones reuse the
+ * entries of the previous snapshot like the snapshot listener does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipperBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int files;
+
+    private Path project;
+    private ZipEntryCache cache;
+
+    @Setup
+    public void setUp() throws IOException {
+        project = SyntheticProject.create(files);
+        cache = new ZipEntryCache();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticProject.delete(project);
+    }
+
+    private File root() {
+        return project.toFile();
+    }
+
+    @Benchmark
+    public byte[] recursiveCold() throws IOException {
+        return new RecursiveZipper(root(), RecursiveZipper.ZIP_ALL_THE_THINGS).zipProjectSources();
+    }
+
+    @Benchmark
+    public byte[] parallelCold() throws IOException {
+        return new ParallelZipper(root(), RecursiveZipper.ZIP_ALL_THE_THINGS).zipProjectSources();
+    }
+
+    @Benchmark
+    public byte[] parallelCached() throws IOException {
+        return new ParallelZipper(root(), RecursiveZipper.ZIP_ALL_THE_THINGS, cache)
+                .zipProjectSources();
+    }
+}
@@ -1,34 +1,43 @@
 package fi.helsinki.cs.tmc.intellij.actions;
 
-import fi.helsinki.cs.tmc.intellij.services.ObjectFinder;
-import fi.helsinki.cs.tmc.intellij.services.PathResolver;
-import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
+import fi.helsinki.cs.tmc.intellij.services.ExerciseContext;
 import fi.helsinki.cs.tmc.intellij.snapshots.TextInputListener;
 
+import com.google.common.collect.MapMaker;
+
 import com.intellij.openapi.actionSystem.DataContext;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
 import com.intellij.openapi.editor.actionSystem.TypedActionHandler;
-import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.editor.event.EditorFactoryEvent;
+import com.intellij.openapi.editor.event.EditorFactoryListener;
+import com.intellij.openapi.project.Project;
 
 import org.jetbrains.annotations.NotNull;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Set;
 
 
 /**
- * This class substitutes the normal TypedActionHandler. It attempts to add a listener to the
- * current document when a key is pressed.
+ * This class substitutes the normal TypedActionHandler. Snapshot listeners are attached to the
+ * documents when their editors are created, see {@link #listenToEditors()}; the handler only
+ * catches documents whose project wasn't tracked yet when the editor was opened.
  */
 public class ActivateSnapshotsAction implements TypedActionHandler {
 
     private final TypedActionHandler handler;
 
-    private static final List<Document> listenedDocuments = new ArrayList<>();
+    /** Weak and by identity, so documents of closed files can be collected. */
+    private static final Set<Document> listenedDocuments =
+            Collections.newSetFromMap(new MapMaker().weakKeys().<Document, Boolean>makeMap());
+
+    private static boolean listeningToEditors;
 
     private static final Logger logger = LoggerFactory.getLogger(ActivateSnapshotsAction.class);
 
@@ -38,22 +47,50 @@ public class ActivateSnapshotsAction implements TypedActionHandler {
 
     @Override
     public void execute(@NotNull final Editor editor, char cha, @NotNull DataContext dataContext) {
-        if (!listenedDocuments.contains(editor.getDocument()) && isThisCorrectProject()) {
-            DocumentListener docl = new TextInputListener();
-            editor.getDocument().addDocumentListener(docl);
-            listenedDocuments.add(editor.getDocument());
-            logger.info("Added document listener to ", editor.getDocument().toString());
-//            UsagesCollector.doPersistProjectUsages(new ObjectFinder().findCurrentProject());
-            // the above line does not work with the new intellij (v2017.3). has it ever been necessary??
+        if (!listenedDocuments.contains(editor.getDocument())) {
+            listenTo(editor);
         }
         handler.execute(editor, cha, dataContext);
     }
 
-    private Boolean isThisCorrectProject() {
-        logger.info("Making sure current exercise should be tracked");
-        return new CourseAndExerciseManager()
-                .isCourseInDatabase(
-                        PathResolver.getCourseName(
-                                new ObjectFinder().findCurrentProject().getBasePath()));
+    /**
+     * Attaches snapshot listeners to the documents of all open editors and of every editor created
+     * from now on.
+     */
+    public static synchronized void listenToEditors() {
+        EditorFactory editorFactory = EditorFactory.getInstance();
+        if (!listeningToEditors) {
+            listeningToEditors = true;
+            editorFactory.addEditorFactoryListener(
+                    new EditorFactoryListener() {
+                        @Override
+                        public void editorCreated(@NotNull EditorFactoryEvent event) {
+                            listenTo(event.getEditor());
+                        }
+
+                        @Override
+                        public void editorReleased(@NotNull EditorFactoryEvent event) {}
+                    },
+                    ApplicationManager.getApplication());
+        }
+        for (Editor editor : editorFactory.getAllEditors()) {
+            listenTo(editor);
+        }
+    }
+
+    /** Adds a snapshot listener to the document of the editor, once per document. */
+    private static void listenTo(Editor editor) {
+        Project project = editor.getProject();
+        if (project == null
+                || project.isDisposed()
+                || !ExerciseContext.getInstance(project).isTracked()) {
+            return;
+        }
+
+        Document document = editor.getDocument();
+        if (listenedDocuments.add(document)) {
+            document.addDocumentListener(new TextInputListener());
+            logger.info("Added document listener to {}", document);
+        }
     }
 }
@@ -0,0 +1,80 @@
+package fi.helsinki.cs.tmc.intellij.actions;
+
+import fi.helsinki.cs.tmc.intellij.snapshots.SnapshotLoadHarness;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Runs the {@link SnapshotLoadHarness} against a local spyware server and shows what it measured.
+ * Only shown in internal mode, as it is meant for developing the snapshot subsystem.
+ */
+public class SnapshotLoadTestAction extends AnAction {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotLoadTestAction.class);
+
+    private static final String TITLE = "Snapshot Load Test";
+    private static final long TIMEOUT = 5 * 60 * 1000;
+
+    @Override
+    public void actionPerformed(AnActionEvent event) {
+        Project project = event.getProject();
+        String input =
+                Messages.showInputDialog(
+                        project,
+                        "Sessions, events per session and milliseconds between events:",
+                        TITLE,
+                        Messages.getQuestionIcon(),
+                        "10,300,100",
+                        null);
+        if (input == null) {
+            return;
+        }
+
+        SnapshotLoadHarness harness;
+        try {
+            String[] values = input.split(",");
+            harness =
+                    new SnapshotLoadHarness(
+                            Integer.parseInt(values[0].trim()),
+                            Integer.parseInt(values[1].trim()),
+                            Long.parseLong(values[2].trim()));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            Messages.showErrorDialog(
+                    project,
+                    "Give three numbers separated by commas. There must be at least one session,"
+                            + " and no number may be negative.",
+                    TITLE);
+            return;
+        }
+
+        ApplicationManager.getApplication()
+                .executeOnPooledThread(
+                        () -> {
+                            String result;
+                            try {
+                                result = harness.run(TIMEOUT).toString();
+                            } catch (IOException ex) {
+                                logger.warn("Snapshot load test failed.", ex);
+                                result = "The load test failed: " + ex.getMessage();
+                            } catch (InterruptedException ex) {
+                                Thread.currentThread().interrupt();
+                                return;
+                            }
+                            String message = result;
+                            ApplicationManager.getApplication()
+                                    .invokeLater(
+                                            () ->
+                                                    Messages.showInfoMessage(
+                                                            project, message, TITLE));
+                        });
+    }
+}
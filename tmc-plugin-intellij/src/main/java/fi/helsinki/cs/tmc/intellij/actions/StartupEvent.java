@@ -8,6 +8,7 @@ import fi.helsinki.cs.tmc.intellij.holders.TmcCoreHolder;
 import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
 import fi.helsinki.cs.tmc.intellij.io.CoreProgressObserver;
 import fi.helsinki.cs.tmc.intellij.io.SettingsTmc;
+import fi.helsinki.cs.tmc.intellij.services.ExerciseContext;
 import fi.helsinki.cs.tmc.intellij.services.ProgressWindowMaker;
 import fi.helsinki.cs.tmc.intellij.services.ThreadingService;
 import fi.helsinki.cs.tmc.intellij.services.errors.ErrorMessageService;
@@ -68,6 +69,7 @@ public class StartupEvent implements StartupActivity {
                             setupCoreHolder(observer);
                             setupSnapshots(observer, project);
                             setupDatabase(observer);
+                            ExerciseContext.getInstance(project).resolve();
                             setupHandlersForSnapshots(observer);
 
                             if (TmcSettingsManager.get().getFirstRun()) {
@@ -138,6 +140,7 @@ public class StartupEvent implements StartupActivity {
         final TypedAction typedAction = actionManager.getTypedAction();
         TypedActionHandler originalHandler = actionManager.getTypedAction().getHandler();
         typedAction.setupHandler(new ActivateSnapshotsAction(originalHandler));
+        ApplicationManager.getApplication().invokeLater(ActivateSnapshotsAction::listenToEditors);
     }
 
     private void checkForNewExercises(ProgressObserver observer) {
@@ -0,0 +1,84 @@
+package fi.helsinki.cs.tmc.intellij.holders;
+
+import fi.helsinki.cs.tmc.core.TmcCore;
+import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Organization;
+import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
+import fi.helsinki.cs.tmc.intellij.snapshots.SnapshotMetrics;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.MetricsRegistry;
+import fi.helsinki.cs.tmc.langs.util.TaskExecutor;
+
+import com.google.common.base.Optional;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * A TmcCore that doesn't repeat a request for the course list, course details or organizations
+ * while the same request is already waiting for the server. The later callers get the result of
+ * the running request, which is reported to the progress observer of the first caller only.
+ *
+ * <p>Requests are only shared between callers with the same server, user and organization, so a
+ * request made after logging in or choosing another organization never gets the result of one
+ * made before.
+ *
+ * <p>The results are shared, so callers must not modify them. The number of requests and of
+ * deduplicated requests are shown with the snapshot metrics.
+ */
+public class CoalescingTmcCore extends TmcCore {
+
+    private static final List<String> OPERATIONS =
+            Arrays.asList("listCourses", "getCourseDetails", "getOrganizations");
+
+    private final SingleFlight flights = new SingleFlight();
+    private final TmcSettings settings;
+
+    public CoalescingTmcCore(TmcSettings settings, TaskExecutor tmcLangs) {
+        super(settings, tmcLangs);
+        this.settings = settings;
+        MetricsRegistry metrics = SnapshotMetrics.get();
+        for (String operation : OPERATIONS) {
+            metrics.gauge(
+                    "core." + operation + ".requests",
+                    () -> flights.getCallCounts().getOrDefault(operation, 0L));
+            metrics.gauge(
+                    "core." + operation + ".deduplicated",
+                    () -> flights.getDeduplicatedCounts().getOrDefault(operation, 0L));
+        }
+    }
+
+    @Override
+    public Callable<List<Course>> listCourses(ProgressObserver observer) {
+        Callable<List<Course>> call = super.listCourses(observer);
+        return () -> flights.call("listCourses", account(), call);
+    }
+
+    @Override
+    public Callable<Course> getCourseDetails(ProgressObserver observer, Course course) {
+        Callable<Course> call = super.getCourseDetails(observer, course);
+        return () ->
+                flights.call("getCourseDetails", account() + '\u0000' + course.getName(), call);
+    }
+
+    @Override
+    public Callable<List<Organization>> getOrganizations(ProgressObserver observer) {
+        Callable<List<Organization>> call = super.getOrganizations(observer);
+        return () -> flights.call("getOrganizations", account(), call);
+    }
+
+    /** The server, user and organization that the result of a request depends on. */
+    private String account() {
+        Optional<Organization> organization = settings.getOrganization();
+        return settings.getServerAddress()
+                + '\u0000'
+                + settings.getUsername().or("")
+                + '\u0000'
+                + (organization.isPresent() ? organization.get().getSlug() : "");
+    }
+
+    public SingleFlight getFlights() {
+        return flights;
+    }
+}
@@ -0,0 +1,118 @@
+package fi.helsinki.cs.tmc.intellij.holders;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs identical calls only once at a time. A call made while the same operation with the same
+ * argument is still running waits for that one and shares its result or exception. Results are
+ * not kept after the call finishes.
+ *
+ * <p>The call runs on a thread of its own, not on the thread of the first caller, so interrupting
+ * or cancelling one caller only stops that caller from waiting, and the others still get the
+ * result.
+ */
+public class SingleFlight {
+
+    private static final Executor defaultExecutor =
+            Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Single flight call %d")
+                            .setDaemon(true)
+                            .build());
+
+    private final Executor executor;
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> calls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> deduplicated = new ConcurrentHashMap<>();
+
+    public SingleFlight() {
+        this(defaultExecutor);
+    }
+
+    public SingleFlight(Executor executor) {
+        this.executor = executor;
+    }
+
+    /** Runs the call, or joins the same operation on the same argument if it is running. */
+    @SuppressWarnings("unchecked")
+    public <T> T call(String operation, Object argument, Callable<T> call) throws Exception {
+        String key = operation + '\u0000' + argument;
+        count(calls, operation);
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            count(deduplicated, operation);
+            return (T) join(running);
+        }
+
+        try {
+            executor.execute(() -> run(key, flight, call));
+        } catch (RejectedExecutionException ex) {
+            inFlight.remove(key, flight);
+            throw ex;
+        }
+        return (T) join(flight);
+    }
+
+    private void run(String key, CompletableFuture<Object> flight, Callable<?> call) {
+        try {
+            flight.complete(call.call());
+        } catch (Exception | Error ex) {
+            flight.completeExceptionally(ex);
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static Object join(CompletableFuture<Object> flight) throws Exception {
+        try {
+            return flight.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        }
+    }
+
+    private static void count(ConcurrentMap<String, LongAdder> counters, String operation) {
+        counters.computeIfAbsent(operation, o -> new LongAdder()).increment();
+    }
+
+    /** The number of calls of each operation, including the deduplicated ones. */
+    public Map<String, Long> getCallCounts() {
+        return snapshot(calls);
+    }
+
+    /** The number of calls of each operation that shared the result of a running call. */
+    public Map<String, Long> getDeduplicatedCounts() {
+        return snapshot(deduplicated);
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private static Map<String, Long> snapshot(ConcurrentMap<String, LongAdder> counters) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+}
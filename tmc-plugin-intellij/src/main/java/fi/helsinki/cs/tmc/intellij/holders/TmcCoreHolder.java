@@ -8,7 +8,10 @@ import fi.helsinki.cs.tmc.langs.util.TaskExecutorImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Holds the TMC core so other classes can get it when necessary. */
+/**
+ * Holds the TMC core so other classes can get it when necessary. Identical requests made at the
+ * same time share one call to the server, see {@link CoalescingTmcCore}.
+ */
 public class TmcCoreHolder {
 
     private static final Logger logger = LoggerFactory.getLogger(TmcCoreHolder.class);
@@ -20,7 +23,7 @@ public class TmcCoreHolder {
         logger.info("Get TmcCore. @TmcCoreHolder.");
         if (core == null) {
             TaskExecutor tmcLangs = new TaskExecutorImpl();
-            core = new TmcCore(TmcSettingsManager.get(), tmcLangs);
+            core = new CoalescingTmcCore(TmcSettingsManager.get(), tmcLangs);
         }
         return core;
     }
@@ -29,7 +32,7 @@ public class TmcCoreHolder {
         logger.info("Setup TmcCore. @TmcCoreHolder.");
         if (core == null) {
             TaskExecutor tmcLangs = new TaskExecutorImpl();
-            core = new TmcCore(TmcSettingsManager.get(), tmcLangs);
+            core = new CoalescingTmcCore(TmcSettingsManager.get(), tmcLangs);
         }
     }
 
@@ -38,6 +38,13 @@ public class SettingsTmc implements TmcSettings, Serializable {
     private boolean checkForExercises;
     private boolean sendDiagnostics;
     private boolean firstRun;
+    private int snapshotEventsPerSecond = 100;
+    private long snapshotQueuedBytes = 16 * 1024 * 1024;
+    private long snapshotCpuMillisPerMinute = 6000;
+    private long snapshotCoalesceWindow = 1000;
+    private long snapshotSpoolMemoryThreshold = 4 * 1024 * 1024;
+    private boolean negotiateEventCodecs;
+    private long courseCacheTtl = 5 * 60 * 1000;
 
     public SettingsTmc(String serverAddress, String username, String password) {
         this.sendDiagnostics = true;
@@ -256,4 +263,67 @@ public class SettingsTmc implements TmcSettings, Serializable {
     public boolean getFirstRun() {
         return this.firstRun;
     }
+
+    /** How many snapshot events per second may be recorded before degrading. */
+    public int getSnapshotEventsPerSecond() {
+        return snapshotEventsPerSecond;
+    }
+
+    public void setSnapshotEventsPerSecond(int snapshotEventsPerSecond) {
+        this.snapshotEventsPerSecond = snapshotEventsPerSecond;
+    }
+
+    /** How many bytes of snapshot events may wait in memory before degrading. */
+    public long getSnapshotQueuedBytes() {
+        return snapshotQueuedBytes;
+    }
+
+    public void setSnapshotQueuedBytes(long snapshotQueuedBytes) {
+        this.snapshotQueuedBytes = snapshotQueuedBytes;
+    }
+
+    /** How many milliseconds of CPU time per minute snapshots may use before degrading. */
+    public long getSnapshotCpuMillisPerMinute() {
+        return snapshotCpuMillisPerMinute;
+    }
+
+    public void setSnapshotCpuMillisPerMinute(long snapshotCpuMillisPerMinute) {
+        this.snapshotCpuMillisPerMinute = snapshotCpuMillisPerMinute;
+    }
+
+    /** How many milliseconds file events are collected into one snapshot. */
+    public long getSnapshotCoalesceWindow() {
+        return snapshotCoalesceWindow;
+    }
+
+    public void setSnapshotCoalesceWindow(long snapshotCoalesceWindow) {
+        this.snapshotCoalesceWindow = snapshotCoalesceWindow;
+    }
+
+    /** How many bytes of spooled snapshot archives are read into memory at once when sending. */
+    public long getSnapshotSpoolMemoryThreshold() {
+        return snapshotSpoolMemoryThreshold;
+    }
+
+    public void setSnapshotSpoolMemoryThreshold(long snapshotSpoolMemoryThreshold) {
+        this.snapshotSpoolMemoryThreshold = snapshotSpoolMemoryThreshold;
+    }
+
+    /** Whether snapshot servers are asked which event batch codecs and formats they accept. */
+    public boolean isNegotiateEventCodecs() {
+        return negotiateEventCodecs;
+    }
+
+    public void setNegotiateEventCodecs(boolean negotiateEventCodecs) {
+        this.negotiateEventCodecs = negotiateEventCodecs;
+    }
+
+    /** How many milliseconds fetched course lists and details are used before fetching again. */
+    public long getCourseCacheTtl() {
+        return courseCacheTtl;
+    }
+
+    public void setCourseCacheTtl(long courseCacheTtl) {
+        this.courseCacheTtl = courseCacheTtl;
+    }
 }
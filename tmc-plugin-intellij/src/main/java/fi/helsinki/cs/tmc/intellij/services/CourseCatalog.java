@@ -0,0 +1,156 @@
+package fi.helsinki.cs.tmc.intellij.services;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the course list and the course details fetched from the server, shared by the whole
+ * plugin.
+ *
+ * <p>A cached value is fresh for the TTL. After that it is still returned, but fetched again in
+ * the background, so a lookup only waits for the server when nothing has been cached yet. A failed
+ * background fetch keeps the old value. The cache must be invalidated when the user or the
+ * organization changes.
+ */
+public class CourseCatalog {
+
+    private static final Logger logger = LoggerFactory.getLogger(CourseCatalog.class);
+
+    public static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+    private static final String COURSE_LIST = "";
+
+    private static final CourseCatalog instance =
+            new CourseCatalog(
+                    System::currentTimeMillis,
+                    Executors.newSingleThreadExecutor(
+                            new ThreadFactoryBuilder()
+                                    .setNameFormat("Course catalog refresher")
+                                    .setDaemon(true)
+                                    .build()));
+
+    private final LongSupplier clock;
+    private final Executor refresher;
+    private final Map<String, Entry<List<Course>>> courseLists = new ConcurrentHashMap<>();
+    private final Map<String, Entry<Course>> courseDetails = new ConcurrentHashMap<>();
+    private final Set<Entry<?>> revalidating =
+            Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile long ttl = DEFAULT_TTL;
+
+    public CourseCatalog(LongSupplier clock, Executor refresher) {
+        this.clock = clock;
+        this.refresher = refresher;
+    }
+
+    public static CourseCatalog get() {
+        return instance;
+    }
+
+    /** Sets how many milliseconds a fetched value is used before fetching it again. */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /** Returns the cached course list, calling the fetch when it is missing or stale. */
+    public List<Course> getCourses(Callable<List<Course>> fetch) throws Exception {
+        return lookup(courseLists, COURSE_LIST, fetch);
+    }
+
+    /**
+     * Returns the cached details of the named course, calling the fetch when they are missing or
+     * stale.
+     */
+    public Course getCourseDetails(String courseName, Callable<Course> fetch) throws Exception {
+        return lookup(courseDetails, courseName, fetch);
+    }
+
+    /** Forgets the details of the named course, for when they are known to have changed. */
+    public void invalidateCourse(String courseName) {
+        generation.incrementAndGet();
+        courseDetails.remove(courseName);
+    }
+
+    /**
+     * Forgets everything, including values being fetched right now, and makes the exercise
+     * contexts fetch their courses again.
+     */
+    public void invalidate() {
+        logger.info("Invalidating the course catalog.");
+        generation.incrementAndGet();
+        courseLists.clear();
+        courseDetails.clear();
+        ExerciseContext.databaseChanged();
+    }
+
+    private <T> T lookup(Map<String, Entry<T>> entries, String key, Callable<T> fetch)
+            throws Exception {
+        Entry<T> entry = entries.get(key);
+        if (entry == null) {
+            return fetch(entries, key, fetch, generation.get());
+        }
+        if (clock.getAsLong() - entry.fetchedAt >= ttl) {
+            revalidate(entries, key, entry, fetch);
+        }
+        return entry.value;
+    }
+
+    /** Fetches and caches a value, unless the cache was invalidated after the given generation. */
+    private <T> T fetch(
+            Map<String, Entry<T>> entries, String key, Callable<T> fetch, long fetchGeneration)
+            throws Exception {
+        T value = fetch.call();
+        if (value != null && generation.get() == fetchGeneration) {
+            entries.put(key, new Entry<>(value, clock.getAsLong()));
+        }
+        return value;
+    }
+
+    private <T> void revalidate(
+            Map<String, Entry<T>> entries, String key, Entry<T> entry, Callable<T> fetch) {
+        if (!revalidating.add(entry)) {
+            return;
+        }
+        long fetchGeneration = generation.get();
+        refresher.execute(
+                () -> {
+                    try {
+                        fetch(entries, key, fetch, fetchGeneration);
+                    } catch (Exception ex) {
+                        logger.warn("Could not refresh the course catalog, using old values.", ex);
+                    } finally {
+                        revalidating.remove(entry);
+                    }
+                });
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final long fetchedAt;
+
+        Entry(T value, long fetchedAt) {
+            this.value = value;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package fi.helsinki.cs.tmc.intellij.services;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Knows the course and exercise of one open project, so the snapshot listeners don't have to
+ * resolve them, possibly from the server, for every event.
+ *
+ * <p>Whether the course is tracked and which exercise the project is are read from the exercise
+ * database, and read again after {@link #databaseChanged()} has been called. The course itself
+ * may need the server, so it is fetched on a background thread, and fetched again after each
+ * database change because the user or the organization may have changed. Until it has been
+ * fetched there is no exercise.
+ */
+public class ExerciseContext {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExerciseContext.class);
+
+    private static final AtomicLong databaseVersion = new AtomicLong();
+
+    private static final Executor defaultResolver =
+            Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Exercise context resolver")
+                            .setDaemon(true)
+                            .build());
+
+    private final String basePath;
+    private final CourseAndExerciseManager courseAndExerciseManager;
+    private final ObjectFinder finder;
+    private final Executor resolver;
+
+    private Course course;
+    private long courseVersion = -1;
+    private boolean resolving;
+    private boolean tracked;
+    private Exercise exercise;
+    private long resolvedVersion = -1;
+
+    public ExerciseContext(Project project) {
+        this(project.getBasePath(), new CourseAndExerciseManager(), new ObjectFinder());
+    }
+
+    public ExerciseContext(
+            String basePath,
+            CourseAndExerciseManager courseAndExerciseManager,
+            ObjectFinder finder) {
+        this(basePath, courseAndExerciseManager, finder, defaultResolver);
+    }
+
+    public ExerciseContext(
+            String basePath,
+            CourseAndExerciseManager courseAndExerciseManager,
+            ObjectFinder finder,
+            Executor resolver) {
+        this.basePath = basePath;
+        this.courseAndExerciseManager = courseAndExerciseManager;
+        this.finder = finder;
+        this.resolver = resolver;
+    }
+
+    public static ExerciseContext getInstance(Project project) {
+        return ServiceManager.getService(project, ExerciseContext.class);
+    }
+
+    /**
+     * Tells every project's context that the exercise database or the course catalog has changed.
+     */
+    public static void databaseChanged() {
+        logger.info("Exercise database changed, invalidating exercise contexts.");
+        databaseVersion.incrementAndGet();
+    }
+
+    /** Starts resolving the course and exercise now instead of on the first event. */
+    public synchronized void resolve() {
+        refresh();
+    }
+
+    /** Whether the course of the project is in the exercise database. */
+    public synchronized boolean isTracked() {
+        refresh();
+        return tracked;
+    }
+
+    public synchronized Exercise getExercise() {
+        refresh();
+        return exercise;
+    }
+
+    public synchronized Course getCourse() {
+        refresh();
+        return course;
+    }
+
+    private void refresh() {
+        long version = databaseVersion.get();
+        if (version == resolvedVersion || basePath == null) {
+            return;
+        }
+
+        tracked =
+                courseAndExerciseManager.isCourseInDatabase(PathResolver.getCourseName(basePath));
+        if (!tracked) {
+            exercise = null;
+            resolvedVersion = version;
+            return;
+        }
+
+        if (courseVersion != version) {
+            course = null;
+            resolveCourseLater(version);
+        }
+        if (courseVersion != version) {
+            exercise = null;
+            return;
+        }
+        exercise =
+                course == null
+                        ? null
+                        : courseAndExerciseManager.getExercise(
+                                course.getTitle(), PathResolver.getExerciseName(basePath));
+        resolvedVersion = version;
+    }
+
+    private void resolveCourseLater(long version) {
+        if (resolving) {
+            return;
+        }
+        resolving = true;
+        try {
+            resolver.execute(() -> resolveCourse(version));
+        } catch (RejectedExecutionException ex) {
+            resolving = false;
+            logger.warn("Could not resolve course of {}", basePath, ex);
+        }
+    }
+
+    /**
+     * Fetches the course without holding the lock. A course that couldn't be fetched is tried
+     * again after the next database change, and one fetched for an older database is thrown away.
+     */
+    private void resolveCourse(long version) {
+        Course resolved = null;
+        try {
+            logger.info("Resolving course of {}", basePath);
+            resolved = finder.findCourse(PathResolver.getCourseName(basePath), "name");
+        } finally {
+            synchronized (this) {
+                resolving = false;
+                if (version == databaseVersion.get()) {
+                    course = resolved;
+                    courseVersion = version;
+                }
+            }
+        }
+    }
+}
@@ -28,12 +28,27 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /** Finds various exercises and courses from the disk or by asking the TMCServer. */
 public class ObjectFinder {
 
     private static final Logger logger = LoggerFactory.getLogger(ObjectFinder.class);
 
+    private final CourseCatalog catalog;
+
+    public ObjectFinder() {
+        this(CourseCatalog.get());
+    }
+
+    public ObjectFinder(CourseCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Finds a course and its details. Both come from the {@link CourseCatalog}, so they may be as
+     * old as its TTL; use {@link #findFreshCourse(String)} when the exercises must be up to date.
+     */
     @Nullable
     public Course findCourse(String searchTerm, String titleOrName) {
         TmcCore core = TmcCoreHolder.get();
@@ -47,7 +62,9 @@ public class ObjectFinder {
                     try {
                         logger.info("Trying to get course details from TmcCore. @ObjectFinder", c);
 
-                        return core.getCourseDetails(ProgressObserver.NULL_OBSERVER, c).call();
+                        return catalog.getCourseDetails(
+                                c.getName(),
+                                core.getCourseDetails(ProgressObserver.NULL_OBSERVER, c));
                     } catch (TmcCoreException exception) {
                         logger.warn(
                                 "Could not find course. @ObjectFinder",
@@ -67,9 +84,45 @@ public class ObjectFinder {
         return null;
     }
 
+    /**
+     * Finds a course by name like {@link #findCourse(String, String)}, but always fetches its
+     * details from the server.
+     */
+    @Nullable
+    public Course findFreshCourse(String courseName) {
+        catalog.invalidateCourse(courseName);
+        TmcCore core = TmcCoreHolder.get();
+        List<Course> courses = getCourses(core);
+        if (courses == null) {
+            return null;
+        }
+
+        for (Course c : courses) {
+            if (c.getName().equals(courseName)) {
+                try {
+                    return core.getCourseDetails(ProgressObserver.NULL_OBSERVER, c).call();
+                } catch (TmcCoreException exception) {
+                    logger.warn("Could not find course. @ObjectFinder", exception);
+                    new ErrorMessageService().showHumanReadableErrorMessage(exception, false);
+                } catch (Exception e) {
+                    logger.warn("Could not find course. @ObjectFinder", e);
+                    new ErrorMessageService()
+                            .showErrorMessageWithExceptionDetails(
+                                    e, "Could not find course.", true);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /** Finds a course like {@link #findCourse(String, String)}, but without the catalog. */
     @TestOnly
     public Course findCourseForTesting(String searchTerm, String titleOrName, TmcCore core) {
-        List<Course> courses = getCourses(core);
+        List<Course> courses = getCourses(core.listCourses(ProgressObserver.NULL_OBSERVER));
+        if (courses == null) {
+            return null;
+        }
 
         for (Course c : courses) {
             if ((titleOrName.equals("name") && c.getName().equals(searchTerm))
@@ -90,11 +143,16 @@ public class ObjectFinder {
     }
 
     private List<Course> getCourses(TmcCore core) {
+        return getCourses(
+                () -> catalog.getCourses(core.listCourses(ProgressObserver.NULL_OBSERVER)));
+    }
+
+    private List<Course> getCourses(Callable<List<Course>> fetch) {
         logger.info("Processing getCourses @ObjectFinder");
         List<Course> courses = null;
 
         try {
-            courses = core.listCourses(ProgressObserver.NULL_OBSERVER).call();
+            courses = fetch.call();
         } catch (ShowToUserException exception) {
             logger.warn(
                 "Failed to fetch courses from TmcCore. @ObjectFinder",
@@ -214,7 +272,8 @@ public class ObjectFinder {
 
     public Course findCourseNoDetails(String courseName, TmcCore core) {
         try {
-            List<Course> list = core.listCourses(ProgressObserver.NULL_OBSERVER).call();
+            List<Course> list =
+                    catalog.getCourses(core.listCourses(ProgressObserver.NULL_OBSERVER));
             for (Course cor : list) {
                 if (cor.getName().equals(courseName)) {
                     return cor;
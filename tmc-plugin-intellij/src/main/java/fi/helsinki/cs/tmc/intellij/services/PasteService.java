@@ -8,7 +8,6 @@ import fi.helsinki.cs.tmc.core.exceptions.TmcCoreException;
 import fi.helsinki.cs.tmc.intellij.services.errors.ErrorMessageService;
 import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
 import fi.helsinki.cs.tmc.intellij.ui.pastebin.PasteWindow;
-import fi.helsinki.cs.tmc.intellij.ui.projectlist.ProjectListManager;
 
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
@@ -61,9 +60,7 @@ public class PasteService {
     }
 
     public void uploadToTmcPastebin(
-            String message,
-            CourseAndExerciseManager courseAndExerciseManager,
-            ProjectListManager projectListManager) {
+            String message, CourseAndExerciseManager courseAndExerciseManager) {
 
         logger.info("Uploading to tmc pastebin. @PasteService");
         ApplicationManager.getApplication()
@@ -77,7 +74,7 @@ public class PasteService {
                                                         message)
                                                 .call();
                                 window.showResult(uri);
-                                updateProjectView(courseAndExerciseManager, projectListManager);
+                                updateProjectView(courseAndExerciseManager);
                             } catch (TmcCoreException exception) {
                                 logger.info(
                                         "Uploading to pastebin failed. @PasteService",
@@ -114,13 +111,10 @@ public class PasteService {
         }
     }
 
-    private void updateProjectView(
-            CourseAndExerciseManager courseAndExerciseManager,
-            ProjectListManager projectListManager) {
+    private void updateProjectView(CourseAndExerciseManager courseAndExerciseManager) {
         logger.info("Updating project view. @PasteService");
 
-        courseAndExerciseManager.initiateDatabase();
-        projectListManager.refreshAllCourses();
+        courseAndExerciseManager.refreshExercise(exercise);
     }
 
     private String getCourseName(String[] exerciseCourse) {
@@ -53,8 +53,13 @@ public class PathResolver {
             return null;
         }
         String[] split = getCourseAndExerciseName(path);
-        Course course = new ObjectFinder().findCourse(split[split.length - 2], "name");
         CourseAndExerciseManager manager = new CourseAndExerciseManager();
+        Exercise exercise =
+                manager.getExerciseInDirectory(split[split.length - 2], split[split.length - 1]);
+        if (exercise != null) {
+            return exercise;
+        }
+        Course course = new ObjectFinder().findCourse(split[split.length - 2], "name");
         return manager.getExercise(course.getTitle(), split[split.length - 1]);
     }
 
@@ -3,15 +3,16 @@ package fi.helsinki.cs.tmc.intellij.services.exercises;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
+import fi.helsinki.cs.tmc.core.TmcCore;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.exceptions.ShowToUserException;
 import fi.helsinki.cs.tmc.core.exceptions.TmcCoreException;
-import fi.helsinki.cs.tmc.intellij.holders.ProjectListManagerHolder;
 import fi.helsinki.cs.tmc.intellij.holders.TmcCoreHolder;
 import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
 import fi.helsinki.cs.tmc.intellij.io.SettingsTmc;
+import fi.helsinki.cs.tmc.intellij.services.ExerciseContext;
 import fi.helsinki.cs.tmc.intellij.services.ObjectFinder;
 import fi.helsinki.cs.tmc.intellij.services.errors.ErrorMessageService;
 import fi.helsinki.cs.tmc.intellij.services.persistence.ExerciseDatabase;
@@ -21,51 +22,55 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Holds a database of courses in memory, allowing quick fetching of course when necessary without
  * calling the TmcCore.
  *
- * <p>Also gives methods to update project list when necessary
+ * <p>Also gives methods to refresh a single course or exercise when it is known to have changed,
+ * instead of fetching every course again. Every change of the database is published to the
+ * {@link DatabaseChange.Listener}s, so views can update only what changed.
  */
 public class CourseAndExerciseManager {
 
     private static final Logger logger = LoggerFactory.getLogger(CourseAndExerciseManager.class);
 
-    public Exercise getExercise(String course, String exercise) {
-        logger.info("Get exercise from CourseAndExerciseManager. @CourseAndExerciseManager");
+    private static final List<DatabaseChange.Listener> listeners = new CopyOnWriteArrayList<>();
 
-        try {
-            List<Exercise> exercises =
-                    PersistentExerciseDatabase.getInstance()
-                            .getExerciseDatabase()
-                            .getCourses()
-                            .get(course);
-
-                for (Exercise exc : exercises) {
-                    if (exerciseIsTheCorrectOne(exc, exercise)) {
-                        logger.info("Found " + exc + " @CourseAndExerciseManager");
-                        return exc;
-                    }
-                }
-        } catch (Exception exception) {
-            logger.warn(
-                    "Exercise was not found. @CourseAndExerciseManager",
-                    exception,
-                    exception.getStackTrace());
+    public static void addDatabaseListener(DatabaseChange.Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeDatabaseListener(DatabaseChange.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public Exercise getExercise(String course, String exercise) {
+        Exercise found = getExerciseDatabase().getExercise(course, exercise);
+        if (found == null) {
+            logger.info(
+                    "Exercise {} of {} was not found. @CourseAndExerciseManager", exercise, course);
         }
-        return null;
+        return found;
     }
 
-    private boolean exerciseIsTheCorrectOne(Exercise exc, String exerciseName) {
-        logger.info(
-                "Checking if {} equals {}. @CourseAndExerciseManager", exc.getName(), exerciseName);
+    /** The exercise in the directory of the course, found without asking the server. */
+    public Exercise getExerciseInDirectory(String courseDirectory, String exerciseDirectory) {
+        return getExerciseDatabase().getExerciseInDirectory(courseDirectory, exerciseDirectory);
+    }
 
-        return exc.getName().equals(exerciseName);
+    public NavigableMap<String, Exercise> getSortedExercises(String course) {
+        return getExerciseDatabase().getSortedExercises(course);
     }
 
     public List<Exercise> getExercises(String course) {
@@ -96,15 +101,22 @@ public class CourseAndExerciseManager {
                         + " @CourseAndExerciseManager");
 
         try {
-            Map<String, List<Exercise>> database = new HashMap<>();
-            List<Course> courses =
-                    TmcCoreHolder.get().listCourses(ProgressObserver.NULL_OBSERVER).call();
-
-            for (Course course : courses) {
-                fetchCourseFromTmcCore(database, course);
+            TmcCore core = TmcCoreHolder.get();
+            List<Course> courses = core.listCourses(ProgressObserver.NULL_OBSERVER).call();
+
+            ParallelCourseFetcher.Result result =
+                    new ParallelCourseFetcher()
+                            .fetchAll(
+                                    courses,
+                                    course ->
+                                            core.getCourseDetails(
+                                                    ProgressObserver.NULL_OBSERVER, course),
+                                    this::putCourseInDatabase);
+
+            removeUnlistedCourses(courses);
+            if (!result.getFailed().isEmpty()) {
+                showFetchFailures(result, courses.size());
             }
-
-            getDatabase().setCourses(database);
         } catch (TmcCoreException exception) {
             logger.warn(
                     "Failed to fetch courses from TmcCore. @CourseAndExerciseManager",
@@ -114,8 +126,11 @@ public class CourseAndExerciseManager {
                 showMessageDialog();
                 refreshCoursesOffline();
             }
+        } catch (InterruptedException exception) {
+            logger.warn("Interrupted while fetching courses. @CourseAndExerciseManager", exception);
+            Thread.currentThread().interrupt();
         } catch (Exception exception) {
-            exception.printStackTrace();
+            logger.warn("Failed to initiate database. @CourseAndExerciseManager", exception);
         }
     }
 
@@ -143,29 +158,142 @@ public class CourseAndExerciseManager {
                         });
     }
 
-    private void fetchCourseFromTmcCore(Map<String, List<Exercise>> database, Course course) {
-        try {
-            logger.info("Fetching {} from TmcCore. @CourseAndExerciseManager", course);
-            course =
-                    TmcCoreHolder.get()
-                            .getCourseDetails(ProgressObserver.NULL_OBSERVER, course)
-                            .call();
-            List<Exercise> exercises =
-                    new CheckForExistingExercises()
-                            .getListOfDownloadedExercises(
-                                    course.getExercises(), TmcSettingsManager.get());
-            database.put(course.getTitle(), exercises);
-        } catch (Exception exception) {
-            logger.warn(
-                    "Failed to initiate database. @CourseAndExerciseManager",
-                    exception,
-                    exception.getStackTrace());
-            new ErrorMessageService()
-                    .showErrorMessageWithExceptionDetails(
-                            exception, "Failed to initiate database", true);
+    private void putCourseInDatabase(Course course) {
+        logger.info("Fetched {} from TmcCore. @CourseAndExerciseManager", course.getName());
+        replaceCourse(course.getTitle(), getDownloadedExercises(course));
+    }
+
+    private static List<Exercise> getDownloadedExercises(Course course) {
+        return new CheckForExistingExercises()
+                .getListOfDownloadedExercises(course.getExercises(), TmcSettingsManager.get());
+    }
+
+    private void removeUnlistedCourses(List<Course> courses) {
+        Set<String> titles = new HashSet<>();
+        for (Course course : courses) {
+            titles.add(course.getTitle());
+        }
+        for (String title : new ArrayList<>(getDatabase().getCourses().keySet())) {
+            if (!titles.contains(title)) {
+                replaceCourse(title, null);
+            }
+        }
+    }
+
+    /**
+     * Replaces the exercises of a course in the database, or removes the course if they are null,
+     * and publishes the change if there is one. The map is copied so that readers never see it
+     * half updated.
+     */
+    private static synchronized void replaceCourse(String title, List<Exercise> exercises) {
+        Map<String, List<Exercise>> database = new HashMap<>(getExerciseDatabase().getCourses());
+        List<Exercise> old =
+                exercises == null ? database.remove(title) : database.put(title, exercises);
+        getExerciseDatabase().setCourses(database);
+
+        DatabaseChange change = DatabaseChange.between(title, old, exercises);
+        if (change != null) {
+            publish(change);
         }
     }
 
+    private static void publish(DatabaseChange change) {
+        logger.info("Exercise database changed: {}. @CourseAndExerciseManager", change);
+        ExerciseContext.databaseChanged();
+        for (DatabaseChange.Listener listener : listeners) {
+            try {
+                listener.databaseChanged(change);
+            } catch (RuntimeException ex) {
+                logger.warn("Database listener failed. @CourseAndExerciseManager", ex);
+            }
+        }
+    }
+
+    /**
+     * Fetches the details of one course from the server and updates its exercises. Use this
+     * instead of {@link #initiateDatabase()} when only one course can have changed.
+     */
+    public void refreshCourse(String courseName) {
+        logger.info("Refreshing course {}. @CourseAndExerciseManager", courseName);
+        Course course = new ObjectFinder().findFreshCourse(courseName);
+        if (course != null) {
+            replaceCourse(course.getTitle(), getDownloadedExercises(course));
+        }
+    }
+
+    /**
+     * Fetches the details of the course of the exercise and updates only that exercise, for
+     * example after it has been submitted.
+     */
+    public void refreshExercise(Exercise exercise) {
+        logger.info("Refreshing exercise {}. @CourseAndExerciseManager", exercise.getName());
+        if (exercise.getCourseName() == null) {
+            logger.warn("Exercise {} has no course. @CourseAndExerciseManager", exercise.getName());
+            return;
+        }
+        Course course = new ObjectFinder().findFreshCourse(exercise.getCourseName());
+        if (course == null) {
+            return;
+        }
+        for (Exercise fresh : getDownloadedExercises(course)) {
+            if (fresh.getName().equals(exercise.getName())) {
+                replaceExercise(course.getTitle(), fresh);
+                return;
+            }
+        }
+    }
+
+    private static synchronized void replaceExercise(String title, Exercise fresh) {
+        List<Exercise> exercises = getExerciseDatabase().getCourses().get(title);
+        if (exercises == null) {
+            replaceCourse(title, new ArrayList<>(Collections.singletonList(fresh)));
+            return;
+        }
+        List<Exercise> updated = new ArrayList<>();
+        boolean found = false;
+        for (Exercise exercise : exercises) {
+            if (exercise.getName().equals(fresh.getName())) {
+                updated.add(fresh);
+                found = true;
+            } else {
+                updated.add(exercise);
+            }
+        }
+        if (!found) {
+            updated.add(fresh);
+        }
+        replaceCourse(title, updated);
+    }
+
+    /**
+     * Updates the exercises of a course after exercises have been downloaded or deleted, using
+     * the cached course details. Nothing is fetched if the details are cached.
+     */
+    public void refreshCourseFromDisk(String courseTitle) {
+        logger.info("Refreshing course {} from disk. @CourseAndExerciseManager", courseTitle);
+        Course course = new ObjectFinder().findCourse(courseTitle, "title");
+        if (course != null) {
+            replaceCourse(course.getTitle(), getDownloadedExercises(course));
+        }
+    }
+
+    /**
+     * Courses that couldn't be fetched keep their earlier exercises, so only one message is shown
+     * for all of them.
+     */
+    private void showFetchFailures(ParallelCourseFetcher.Result result, int courseCount) {
+        Exception first = result.getFailed().values().iterator().next();
+        new ErrorMessageService()
+                .showErrorMessageWithExceptionDetails(
+                        first,
+                        "Failed to fetch "
+                                + result.getFailed().size()
+                                + " of "
+                                + courseCount
+                                + " courses. Their exercises may be out of date.",
+                        true);
+    }
+
     private void refreshCoursesOffline() {
         logger.info(
                 "Refreshing side panel course view for user while offline. "
@@ -178,6 +306,7 @@ public class CourseAndExerciseManager {
             removeExercisesNotFoundFromLocalDirectories(exercises, courseName);
         }
         getDatabase().setCourses(courses);
+        ExerciseContext.databaseChanged();
     }
 
     private void removeExercisesNotFoundFromLocalDirectories(
@@ -223,9 +352,8 @@ public class CourseAndExerciseManager {
             SettingsTmc settings) {
 
         logger.info("Updating single course. @CourseAndExerciseManager");
-        boolean isNewCourse = getDatabase().getCourses().get(courseName) == null;
 
-        Course course = finder.findCourse(courseName, "name");
+        Course course = finder.findFreshCourse(courseName);
 
         if (course == null) {
             return;
@@ -234,13 +362,7 @@ public class CourseAndExerciseManager {
         List<Exercise> existing =
                 checker.getListOfDownloadedExercises(course.getExercises(), settings);
 
-        getDatabase().getCourses().put(courseName, existing);
-
-        if (isNewCourse) {
-            ProjectListManagerHolder.get().refreshAllCourses();
-        } else {
-            ProjectListManagerHolder.get().refreshCourse(courseName);
-        }
+        replaceCourse(courseName, existing);
     }
 
     public boolean isCourseInDatabase(String string) {
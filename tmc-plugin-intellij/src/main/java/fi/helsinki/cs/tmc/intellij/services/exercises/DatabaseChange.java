@@ -0,0 +1,125 @@
+package fi.helsinki.cs.tmc.intellij.services.exercises;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A change of one course in the exercise database: the course was added or removed, or some of its
+ * exercises were added, removed or changed. Exercises are identified by name.
+ */
+public class DatabaseChange {
+
+    /** Told about every change of the exercise database, on the thread that changed it. */
+    public interface Listener {
+        void databaseChanged(DatabaseChange change);
+    }
+
+    public enum Kind {
+        COURSE_ADDED,
+        COURSE_REMOVED,
+        EXERCISES_CHANGED
+    }
+
+    private final String course;
+    private final Kind kind;
+    private final Set<String> added;
+    private final Set<String> removed;
+    private final Set<String> changed;
+
+    private DatabaseChange(
+            String course, Kind kind, Set<String> added, Set<String> removed, Set<String> changed) {
+        this.course = course;
+        this.kind = kind;
+        this.added = Collections.unmodifiableSet(added);
+        this.removed = Collections.unmodifiableSet(removed);
+        this.changed = Collections.unmodifiableSet(changed);
+    }
+
+    /**
+     * The change from the old exercises of a course to the new ones, or null if nothing changed. A
+     * null list means that the course is not in the database.
+     */
+    public static DatabaseChange between(
+            String course, List<Exercise> oldExercises, List<Exercise> newExercises) {
+        if (oldExercises == null && newExercises == null) {
+            return null;
+        }
+        Map<String, Exercise> before = byName(oldExercises);
+        Map<String, Exercise> after = byName(newExercises);
+
+        Set<String> added = new LinkedHashSet<>(after.keySet());
+        added.removeAll(before.keySet());
+        Set<String> removed = new LinkedHashSet<>(before.keySet());
+        removed.removeAll(after.keySet());
+        Set<String> changed = new LinkedHashSet<>();
+        for (Map.Entry<String, Exercise> entry : after.entrySet()) {
+            Exercise old = before.get(entry.getKey());
+            if (old != null && isChanged(old, entry.getValue())) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        Kind kind;
+        if (oldExercises == null) {
+            kind = Kind.COURSE_ADDED;
+        } else if (newExercises == null) {
+            kind = Kind.COURSE_REMOVED;
+        } else if (added.isEmpty() && removed.isEmpty() && changed.isEmpty()) {
+            return null;
+        } else {
+            kind = Kind.EXERCISES_CHANGED;
+        }
+        return new DatabaseChange(course, kind, added, removed, changed);
+    }
+
+    private static Map<String, Exercise> byName(List<Exercise> exercises) {
+        Map<String, Exercise> byName = new LinkedHashMap<>();
+        if (exercises != null) {
+            for (Exercise exercise : exercises) {
+                byName.put(exercise.getName(), exercise);
+            }
+        }
+        return byName;
+    }
+
+    private static boolean isChanged(Exercise old, Exercise current) {
+        return old.isCompleted() != current.isCompleted()
+                || !Objects.equals(old.getChecksum(), current.getChecksum())
+                || !Objects.equals(old.getDeadline(), current.getDeadline());
+    }
+
+    /** The title of the course, which is its key in the database. */
+    public String getCourse() {
+        return course;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Set<String> getAddedExercises() {
+        return added;
+    }
+
+    public Set<String> getRemovedExercises() {
+        return removed;
+    }
+
+    /** Exercises that are still there but whose completion, checksum or deadline changed. */
+    public Set<String> getChangedExercises() {
+        return changed;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + course + " added=" + added + " removed=" + removed + " changed="
+                + changed;
+    }
+}
@@ -3,8 +3,8 @@ package fi.helsinki.cs.tmc.intellij.services.exercises;
 import fi.helsinki.cs.tmc.core.TmcCore;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
-import fi.helsinki.cs.tmc.intellij.holders.ProjectListManagerHolder;
 import fi.helsinki.cs.tmc.intellij.holders.TmcCoreHolder;
+import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
 import fi.helsinki.cs.tmc.intellij.io.CoreProgressObserver;
 import fi.helsinki.cs.tmc.intellij.io.SettingsTmc;
 import fi.helsinki.cs.tmc.intellij.services.ObjectFinder;
@@ -21,7 +21,10 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /** Offers method for downloading exercises from selected course. */
@@ -77,9 +80,9 @@ public class ExerciseDownloadingService {
                 logger.info("Starting to check exercises. @ExerciseDownloadingService");
 
                 final Course course =
-                        finder.findCourse(settings.getCurrentCourse().get().getName(), "name");
+                        finder.findFreshCourse(settings.getCurrentCourse().get().getName());
 
-                List<Exercise> exercises = course.getExercises();
+                List<Exercise> exercises = new ArrayList<>(course.getExercises());
                 exercises = checker.clean(exercises, settings);
                 if (!downloadAll) {
                     exercises = notCompletedExercises(exercises);
@@ -133,7 +136,7 @@ public class ExerciseDownloadingService {
                         .showErrorMessageWithExceptionDetails(exception, "Failed to download exercises.", true);
             }
 
-            createThreadForRefreshingExerciseList();
+            createThreadForRefreshingExerciseList(exercises);
         });
     }
 
@@ -145,9 +148,9 @@ public class ExerciseDownloadingService {
             CoreProgressObserver observer) {
         logger.info("Starting to download exercise. @ExerciseDownloadingService");
 
-        final Course course = finder.findCourse(settings.getCurrentCourse().get().getName(), "name");
+        final Course course = finder.findFreshCourse(settings.getCurrentCourse().get().getName());
 
-        List<Exercise> exercises = course.getExercises();
+        List<Exercise> exercises = new ArrayList<>(course.getExercises());
         exercises = checker.clean(exercises, settings);
         if (exercises == null || exercises.size() == 0) {
             new ErrorMessageService().showExercisesAreUpToDate(course);
@@ -180,7 +183,7 @@ public class ExerciseDownloadingService {
                         });
     }
 
-    private static void createThreadForRefreshingExerciseList() {
+    private static void createThreadForRefreshingExerciseList(List<Exercise> exercises) {
         logger.info("Creating new thread for refreshing exerciseList");
         ApplicationManager.getApplication()
                 .invokeLater(
@@ -190,19 +193,28 @@ public class ExerciseDownloadingService {
                                             logger.info(
                                                     "Updating project list. "
                                                     + "@ExerciseDownloadingService");
-                                            refreshExerciseList();
+                                            refreshExerciseList(exercises);
                                         }));
     }
 
-    private static void refreshExerciseList() {
+    /** Only the courses of the downloaded exercises can have changed. */
+    private static void refreshExerciseList(List<Exercise> exercises) {
+        Set<String> courseNames = new LinkedHashSet<>();
+        for (Exercise exercise : exercises) {
+            if (exercise.getCourseName() != null) {
+                courseNames.add(exercise.getCourseName());
+            }
+        }
+        if (courseNames.isEmpty() && TmcSettingsManager.get().getCurrentCourse().isPresent()) {
+            courseNames.add(TmcSettingsManager.get().getCurrentCourse().get().getName());
+        }
         ApplicationManager.getApplication()
                 .executeOnPooledThread(
                         () -> {
-                            new CourseAndExerciseManager().initiateDatabase();
-                            ApplicationManager.getApplication()
-                                    .invokeLater(
-                                            () -> ProjectListManagerHolder.get()
-                                                    .refreshAllCourses());
+                            CourseAndExerciseManager manager = new CourseAndExerciseManager();
+                            for (String courseName : courseNames) {
+                                manager.refreshCourse(courseName);
+                            }
                         });
     }
 
@@ -8,7 +8,6 @@ import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
 import fi.helsinki.cs.tmc.core.exceptions.ExpiredException;
 import fi.helsinki.cs.tmc.core.exceptions.ShowToUserException;
 import fi.helsinki.cs.tmc.core.exceptions.TmcCoreException;
-import fi.helsinki.cs.tmc.intellij.holders.ProjectListManagerHolder;
 import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
 import fi.helsinki.cs.tmc.intellij.io.CoreProgressObserver;
 import fi.helsinki.cs.tmc.intellij.io.SettingsTmc;
@@ -139,7 +138,7 @@ public class ExerciseUploadingService {
 
         final SubmissionResult result = core.submit(observer, exercise).call();
         handler.showResultMessage(exercise, result, project);
-        refreshExerciseList();
+        refreshExercise(exercise);
 
         ApplicationManager.getApplication()
                 .invokeLater(
@@ -158,16 +157,9 @@ public class ExerciseUploadingService {
         return courseAndExercise[courseAndExercise.length - 1];
     }
 
-    private static void refreshExerciseList() {
+    private static void refreshExercise(Exercise exercise) {
         ApplicationManager.getApplication()
                 .executeOnPooledThread(
-                        () -> {
-                            new CourseAndExerciseManager().initiateDatabase();
-                            ApplicationManager.getApplication()
-                                    .invokeLater(
-                                            () ->
-                                                    ProjectListManagerHolder.get()
-                                                            .refreshAllCourses());
-                        });
+                        () -> new CourseAndExerciseManager().refreshExercise(exercise));
     }
 }
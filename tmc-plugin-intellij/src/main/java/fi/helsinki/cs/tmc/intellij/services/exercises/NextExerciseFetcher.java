@@ -17,6 +17,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.NavigableMap;
 
 public class NextExerciseFetcher {
 
@@ -67,20 +68,23 @@ public class NextExerciseFetcher {
     public Exercise findNext() {
         logger.info("Trying to find next exercise candidate.");
         CourseAndExerciseManager manager = new CourseAndExerciseManager();
-        List<Exercise> exercises = manager.getExercises(course);
-
-        Exercise next = null;
-        for (Exercise ex : exercises) {
-            if (!ex.isCompleted() && ex.getName()
-                    .compareTo(exercise.getName()) < 0 && next == null) {
-                next = ex;
-            } else if (!ex.isCompleted() && ex.getName()
-                    .compareTo(exercise.getName()) > 0) {
-                logger.info("Next exercise found.");
+        NavigableMap<String, Exercise> exercises = manager.getSortedExercises(course);
+
+        Exercise next = firstNotCompleted(exercises.tailMap(exercise.getName(), false));
+        if (next != null) {
+            logger.info("Next exercise found.");
+            return next;
+        }
+        return firstNotCompleted(exercises.headMap(exercise.getName(), false));
+    }
+
+    private static Exercise firstNotCompleted(NavigableMap<String, Exercise> exercises) {
+        for (Exercise ex : exercises.values()) {
+            if (!ex.isCompleted()) {
                 return ex;
             }
         }
-        return next;
+        return null;
     }
 
     /**
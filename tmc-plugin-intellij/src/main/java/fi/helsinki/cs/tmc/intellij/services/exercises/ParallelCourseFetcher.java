@@ -0,0 +1,185 @@
+package fi.helsinki.cs.tmc.intellij.services.exercises;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Fetches the details of many courses, a few at a time. Each course is handed on as soon as its
+ * details arrive. A fetch that fails or takes longer than the timeout is given up, and the other
+ * courses are fetched regardless. Fetches that haven't finished by the deadline are given up too,
+ * even if they never started because the threads are stuck in fetches that ignore cancelling.
+ */
+public class ParallelCourseFetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelCourseFetcher.class);
+
+    public static final int DEFAULT_PARALLELISM = 6;
+    public static final long DEFAULT_TIMEOUT = 30 * 1000;
+    public static final long DEFAULT_DEADLINE = 2 * 60 * 1000;
+
+    private static final long POLL_INTERVAL = 100;
+
+    private static final ExecutorService sharedExecutor =
+            Executors.newFixedThreadPool(
+                    DEFAULT_PARALLELISM,
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Course details fetcher %d")
+                            .setDaemon(true)
+                            .build());
+
+    private final ExecutorService executor;
+    private final long timeout;
+    private final long deadline;
+
+    public ParallelCourseFetcher() {
+        this(sharedExecutor, DEFAULT_TIMEOUT, DEFAULT_DEADLINE);
+    }
+
+    public ParallelCourseFetcher(ExecutorService executor, long timeout) {
+        this(executor, timeout, DEFAULT_DEADLINE);
+    }
+
+    /**
+     * The executor decides how many courses are fetched at a time. The timeout, in milliseconds,
+     * counts from when the fetch of a course starts, not from when it is queued. The deadline, in
+     * milliseconds, counts from when all the fetches are queued.
+     */
+    public ParallelCourseFetcher(ExecutorService executor, long timeout, long deadline) {
+        this.executor = executor;
+        this.timeout = timeout;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Fetches the courses, calling the consumer with each fetched course on the calling thread.
+     * Returns once every course has been fetched, has failed or has timed out, and at the latest
+     * by the deadline.
+     */
+    public Result fetchAll(
+            List<Course> courses,
+            Function<Course, Callable<Course>> fetch,
+            Consumer<Course> consumer)
+            throws InterruptedException {
+        CompletionService<Course> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<Course>, Fetch> pending = new LinkedHashMap<>();
+        for (Course course : courses) {
+            Fetch task = new Fetch(course, fetch.apply(course));
+            pending.put(completion.submit(task), task);
+        }
+        long giveUpAt = System.currentTimeMillis() + deadline;
+
+        Result result = new Result();
+        try {
+            while (!pending.isEmpty()) {
+                Future<Course> done = completion.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    Fetch task = pending.remove(done);
+                    if (task != null) {
+                        receive(done, task, consumer, result);
+                    }
+                }
+                cancelTimedOut(pending, result, giveUpAt);
+            }
+        } finally {
+            for (Future<Course> future : pending.keySet()) {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    private void receive(Future<Course> done, Fetch task, Consumer<Course> consumer, Result result)
+            throws InterruptedException {
+        Exception failure;
+        try {
+            Course course = done.get();
+            if (course != null) {
+                consumer.accept(course);
+                result.fetched.add(course);
+                return;
+            }
+            failure = new IllegalStateException("The server returned no details");
+        } catch (ExecutionException ex) {
+            failure = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+        } catch (RuntimeException ex) {
+            failure = ex;
+        }
+        logger.warn("Could not fetch the details of {}.", task.course.getName(), failure);
+        result.failed.put(task.course, failure);
+    }
+
+    private void cancelTimedOut(Map<Future<Course>, Fetch> pending, Result result, long giveUpAt) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Future<Course>, Fetch>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Future<Course>, Fetch> entry = iterator.next();
+            long startedAt = entry.getValue().startedAt;
+            TimeoutException timedOut = null;
+            if (startedAt != 0 && now - startedAt > timeout) {
+                timedOut = new TimeoutException("No details in " + timeout + " ms");
+            } else if (now >= giveUpAt) {
+                timedOut = new TimeoutException("Not fetched in " + deadline + " ms");
+            }
+            if (timedOut != null) {
+                Course course = entry.getValue().course;
+                logger.warn("Fetching the details of {} timed out.", course.getName());
+                entry.getKey().cancel(true);
+                iterator.remove();
+                result.failed.put(course, timedOut);
+            }
+        }
+    }
+
+    private static class Fetch implements Callable<Course> {
+        private final Course course;
+        private final Callable<Course> fetch;
+        private volatile long startedAt;
+
+        Fetch(Course course, Callable<Course> fetch) {
+            this.course = course;
+            this.fetch = fetch;
+        }
+
+        @Override
+        public Course call() throws Exception {
+            startedAt = System.currentTimeMillis();
+            return fetch.call();
+        }
+    }
+
+    /** The fetched courses, and the courses that could not be fetched with the reason why. */
+    public static class Result {
+        private final List<Course> fetched = new ArrayList<>();
+        private final Map<Course, Exception> failed = new HashMap<>();
+
+        public List<Course> getFetched() {
+            return fetched;
+        }
+
+        public Map<Course, Exception> getFailed() {
+            return failed;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import fi.helsinki.cs.tmc.core.exceptions.ShowToUserException;
 import fi.helsinki.cs.tmc.intellij.holders.TmcCoreHolder;
 import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
 import fi.helsinki.cs.tmc.intellij.io.SettingsTmc;
+import fi.helsinki.cs.tmc.intellij.services.CourseCatalog;
 import fi.helsinki.cs.tmc.intellij.services.errors.ErrorMessageService;
 import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
 import fi.helsinki.cs.tmc.intellij.services.persistence.PersistentTmcSettings;
@@ -33,6 +34,7 @@ public class LoginManager {
             logger.info("Authenticating user. @LoginManager");
 
             TmcCoreHolder.get().authenticate(ProgressObserver.NULL_OBSERVER, password).call();
+            CourseCatalog.get().invalidate();
 
             new CourseAndExerciseManager().initiateDatabase();
 
@@ -89,5 +91,6 @@ public class LoginManager {
         settings.setPassword(Optional.absent());
 
         saveSettings.setSettingsTmc(settings);
+        CourseCatalog.get().invalidate();
     }
 }
@@ -6,15 +6,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
-/** Controls the courses. Used by to set and get the course map. */
+/**
+ * Controls the courses. Used by to set and get the course map.
+ *
+ * <p>Only the course map is saved. The exercises are also indexed by course and name, by id and by
+ * directory, and kept sorted by name for each course. The indices are built when first needed
+ * after the course map is set, so a list in the map must not be changed without setting the map
+ * again.
+ */
 public class ExerciseDatabase implements Serializable {
 
     private static final Logger logger = LoggerFactory.getLogger(ExerciseDatabase.class);
     private Map<String, List<Exercise>> courses;
+    private transient volatile Index index;
 
     public ExerciseDatabase() {
         courses = new HashMap<>();
@@ -28,5 +39,91 @@ public class ExerciseDatabase implements Serializable {
     public void setCourses(Map<String, List<Exercise>> courses) {
         logger.info("Set courses. @ExerciseDatabase.");
         this.courses = courses;
+        this.index = null;
+    }
+
+    /** The exercise of the course with the name, or null if there is none. */
+    public Exercise getExercise(String course, String exerciseName) {
+        Map<String, Exercise> exercises = getIndex().byName.get(course);
+        return exercises == null ? null : exercises.get(exerciseName);
+    }
+
+    public Exercise getExerciseById(int id) {
+        return getIndex().byId.get(id);
+    }
+
+    /**
+     * The exercise downloaded into the directory, which is named after the exercise inside the
+     * directory named after the course.
+     */
+    public Exercise getExerciseInDirectory(String courseDirectory, String exerciseDirectory) {
+        return getIndex().byDirectory.get(directoryKey(courseDirectory, exerciseDirectory));
+    }
+
+    /** The exercises of the course sorted by name, or an empty map if the course is not here. */
+    public NavigableMap<String, Exercise> getSortedExercises(String course) {
+        NavigableMap<String, Exercise> exercises = getIndex().sorted.get(course);
+        return exercises == null
+                ? Collections.emptyNavigableMap()
+                : Collections.unmodifiableNavigableMap(exercises);
+    }
+
+    private Index getIndex() {
+        Map<String, List<Exercise>> courses = this.courses;
+        Index index = this.index;
+        if (index == null || index.courses != courses) {
+            index = new Index(courses);
+            this.index = index;
+        }
+        return index;
+    }
+
+    private static String directoryKey(String courseDirectory, String exerciseDirectory) {
+        return courseDirectory + '/' + exerciseDirectory;
+    }
+
+    private static class Index {
+        private final Map<String, List<Exercise>> courses;
+        private final Map<String, Map<String, Exercise>> byName = new HashMap<>();
+        private final Map<String, NavigableMap<String, Exercise>> sorted = new HashMap<>();
+        private final Map<Integer, Exercise> byId = new HashMap<>();
+        private final Map<String, Exercise> byDirectory = new HashMap<>();
+
+        Index(Map<String, List<Exercise>> courses) {
+            this.courses = courses;
+            if (courses == null) {
+                return;
+            }
+            for (Map.Entry<String, List<Exercise>> course : courses.entrySet()) {
+                Map<String, Exercise> names = new HashMap<>();
+                NavigableMap<String, Exercise> ordered = new TreeMap<>();
+                if (course.getValue() != null) {
+                    for (Exercise exercise : course.getValue()) {
+                        add(exercise, names, ordered);
+                    }
+                }
+                byName.put(course.getKey(), names);
+                sorted.put(course.getKey(), ordered);
+            }
+        }
+
+        /** The first exercise with a name wins, as it did when the lists were searched. */
+        private void add(
+                Exercise exercise,
+                Map<String, Exercise> names,
+                NavigableMap<String, Exercise> ordered) {
+            if (exercise == null || exercise.getName() == null) {
+                return;
+            }
+            names.putIfAbsent(exercise.getName(), exercise);
+            ordered.putIfAbsent(exercise.getName(), exercise);
+            if (exercise.getId() != 0) {
+                byId.putIfAbsent(exercise.getId(), exercise);
+            }
+            if (exercise.getCourseName() != null) {
+                byDirectory.putIfAbsent(
+                        directoryKey(exercise.getCourseName(), exercise.getName()), exercise);
+            }
+        }
     }
 }
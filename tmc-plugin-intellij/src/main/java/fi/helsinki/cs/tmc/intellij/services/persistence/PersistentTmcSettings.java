@@ -1,6 +1,7 @@
 package fi.helsinki.cs.tmc.intellij.services.persistence;
 
 import fi.helsinki.cs.tmc.intellij.io.SettingsTmc;
+import fi.helsinki.cs.tmc.intellij.services.CourseCatalog;
 
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.ServiceManager;
@@ -42,6 +43,7 @@ public class PersistentTmcSettings implements PersistentStateComponent<Persisten
     public void loadState(PersistentTmcSettings persistentTmcSettings) {
         logger.info("Processing loadState. @PersistentTmcSettings.");
         XmlSerializerUtil.copyBean(persistentTmcSettings, this);
+        applySettings();
     }
 
     @Nullable
@@ -58,6 +60,14 @@ public class PersistentTmcSettings implements PersistentStateComponent<Persisten
     public void setSettingsTmc(SettingsTmc settingsTmc) {
         logger.info("Setting SettingsTmc. @PersistentTmcSettings.");
         this.settingsTmc = settingsTmc;
+        applySettings();
+    }
+
+    /** Hands the settings to the services that don't read them on every use. */
+    private void applySettings() {
+        if (settingsTmc != null && settingsTmc.getCourseCacheTtl() > 0) {
+            CourseCatalog.get().setTtl(settingsTmc.getCourseCacheTtl());
+        }
     }
 
 
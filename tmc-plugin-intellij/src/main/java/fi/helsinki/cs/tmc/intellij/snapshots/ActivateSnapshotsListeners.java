@@ -24,6 +24,7 @@ public class ActivateSnapshotsListeners {
 
     public void activateListeners() {
         if (isCourseInDatabase(project)) {
+            SnapshotMetrics.startDumping();
                 new HostInformationGenerator().updateHostInformation(SnapshotsEventManager.get());
             new SnapshotsRunListener(project);
             new SnapshotsFileListener(project).createAndAddListener();
@@ -35,6 +36,8 @@ public class ActivateSnapshotsListeners {
 
     public void removeListeners() {
         logger.info("Trying to remove file listeners and close it.");
+        TextInputListener.flushPendingChanges();
+        SnapshotsTabListener.flushFocus(project);
         SnapshotsFileListener listener = new SnapshotsFileListener(project);
         listener.removeListener();
 
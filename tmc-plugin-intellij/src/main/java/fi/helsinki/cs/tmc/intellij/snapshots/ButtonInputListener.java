@@ -1,13 +1,14 @@
 package fi.helsinki.cs.tmc.intellij.snapshots;
 
 import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.intellij.services.ExerciseContext;
 import fi.helsinki.cs.tmc.intellij.services.ObjectFinder;
-import fi.helsinki.cs.tmc.intellij.services.PathResolver;
-import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
 import fi.helsinki.cs.tmc.snapshots.*;
 
 import com.google.gson.Gson;
 
+import com.intellij.openapi.project.Project;
+
 import org.jetbrains.annotations.Nullable;
 
 import org.slf4j.Logger;
@@ -15,6 +16,8 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.charset.Charset;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * When a button is pressed the responsible action tells this class that an action has happened.
@@ -25,6 +28,9 @@ public class ButtonInputListener {
 
     private static final Logger logger = LoggerFactory.getLogger(ButtonInputListener.class);
 
+    public static final String COMMAND_RUN = "COMMAND_RUN";
+    public static final String COMMAND_DEBUG = "COMMAND_DEBUG";
+
     public void receiveTestRun() {
         sendProjectActionEvent(getExercise(), "tmc.test");
     }
@@ -36,21 +42,32 @@ public class ButtonInputListener {
     @Nullable
     private Exercise getExercise() {
         logger.info("Making sure current exercise should be tracked");
-        if (new CourseAndExerciseManager()
-                .isCourseInDatabase(
-                        PathResolver.getCourseName(
-                                new ObjectFinder().findCurrentProject().getBasePath()))) {
-            return PathResolver.getExercise(new ObjectFinder().findCurrentProject().getBasePath());
+        Project project = new ObjectFinder().findCurrentProject();
+        if (project == null) {
+            return null;
+        }
+        ExerciseContext context = ExerciseContext.getInstance(project);
+        if (context.isTracked()) {
+            return context.getExercise();
         }
         return null;
     }
 
     public void receiveRunAction() {
-        sendProjectActionEvent(getExercise(), "COMMAND_RUN");
+        sendProjectActionEvent(getExercise(), COMMAND_RUN);
     }
 
     public void receiveDebugRunAction() {
-        sendProjectActionEvent(getExercise(), "COMMAND_DEBUG");
+        sendProjectActionEvent(getExercise(), COMMAND_DEBUG);
+    }
+
+    /** Tells that a program started with the given run or debug command has terminated. */
+    public void receiveRunFinished(String command, long durationMillis, int exitCode) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("command", command + "_FINISHED");
+        data.put("duration_ms", durationMillis);
+        data.put("exit_code", exitCode);
+        sendProjectActionEvent(getExercise(), data);
     }
 
     public void receivePastebin() {
@@ -75,13 +92,16 @@ public class ButtonInputListener {
     }
 
     private void sendProjectActionEvent(Exercise ex, String command) {
+        sendProjectActionEvent(ex, Collections.singletonMap("command", command));
+    }
+
+    private void sendProjectActionEvent(Exercise ex, Map<String, ?> data) {
         if (ex == null) {
             logger.warn("Exercise was invalid.");
             return;
         }
 
         logger.info("Creating a project action event JSON.");
-        Object data = Collections.singletonMap("command", command);
         String json = new Gson().toJson(data);
 
         byte[] jsonBytes = json.getBytes(Charset.forName("UTF-8"));
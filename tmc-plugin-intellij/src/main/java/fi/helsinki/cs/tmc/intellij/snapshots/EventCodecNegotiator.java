@@ -0,0 +1,136 @@
+package fi.helsinki.cs.tmc.intellij.snapshots;
+
+import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventBatchCodec;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventBatchCodecs;
+
+import com.google.common.base.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Finds out which event batch codecs and snapshot formats a snapshot server accepts.
+ *
+ * <p>The server is asked with a GET request to {@code codecs} under its spyware URL, which should
+ * answer with the accepted names separated by commas. Servers that answer anything else accept
+ * none. The answer is remembered for {@link #NEGOTIATION_TTL} milliseconds, so it costs one
+ * request per server per hour, not one per upload.
+ *
+ * <p>The production servers don't have {@code codecs}, so the shared negotiator only asks when
+ * {@link fi.helsinki.cs.tmc.intellij.io.SettingsTmc#isNegotiateEventCodecs()} is set, and
+ * otherwise uploads plain events without a request.
+ */
+public class EventCodecNegotiator {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventCodecNegotiator.class);
+
+    private static final long NEGOTIATION_TTL = 60 * 60 * 1000;
+    private static final int TIMEOUT = 5000;
+
+    private static final EventCodecNegotiator shared =
+            new EventCodecNegotiator(() -> TmcSettingsManager.get().isNegotiateEventCodecs());
+
+    private final Map<URI, Negotiation> negotiations = new ConcurrentHashMap<>();
+    private final BooleanSupplier enabled;
+
+    /** A negotiator that always asks the server. */
+    public EventCodecNegotiator() {
+        this(() -> true);
+    }
+
+    /** A negotiator that asks the server only while enabled, and accepts nothing otherwise. */
+    public EventCodecNegotiator(BooleanSupplier enabled) {
+        this.enabled = enabled;
+    }
+
+    /** The negotiator shared by the event and snapshot senders. */
+    public static EventCodecNegotiator get() {
+        return shared;
+    }
+
+    /** The codec to upload to the given spyware URL with, or absent for plain events. */
+    public Optional<EventBatchCodec> negotiate(URI spywareUrl) {
+        return EventBatchCodecs.negotiate(getAccepted(spywareUrl));
+    }
+
+    /** Whether the server at the given spyware URL accepts the named codec or format. */
+    public boolean accepts(URI spywareUrl, String name) {
+        return getAccepted(spywareUrl).contains(name);
+    }
+
+    private Collection<String> getAccepted(URI spywareUrl) {
+        if (!enabled.getAsBoolean()) {
+            return Collections.emptyList();
+        }
+        long now = System.currentTimeMillis();
+        Negotiation negotiation = negotiations.get(spywareUrl);
+        if (negotiation == null || now - negotiation.negotiatedAt > NEGOTIATION_TTL) {
+            Collection<String> accepted = fetchAcceptedCodecs(spywareUrl);
+            logger.info("{} accepts {}", spywareUrl, accepted);
+            negotiation = new Negotiation(accepted, now);
+            negotiations.put(spywareUrl, negotiation);
+        }
+        return negotiation.accepted;
+    }
+
+    protected Collection<String> fetchAcceptedCodecs(URI spywareUrl) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) codecsUri(spywareUrl).toURL().openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return Collections.emptyList();
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return Arrays.asList(readAll(in).trim().split("\\s*,\\s*"));
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            logger.info("Could not negotiate an event codec with {}: {}", spywareUrl, ex);
+            return Collections.emptyList();
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    static URI codecsUri(URI spywareUrl) {
+        String url = spywareUrl.toString();
+        return URI.create(url.endsWith("/") ? url + "codecs" : url + "/codecs");
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1 && out.size() < 4096) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static class Negotiation {
+        private final Collection<String> accepted;
+        private final long negotiatedAt;
+
+        private Negotiation(Collection<String> accepted, long negotiatedAt) {
+            this.accepted = accepted;
+            this.negotiatedAt = negotiatedAt;
+        }
+    }
+}
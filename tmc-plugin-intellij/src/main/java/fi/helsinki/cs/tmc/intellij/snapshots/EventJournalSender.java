@@ -0,0 +1,276 @@
+package fi.helsinki.cs.tmc.intellij.snapshots;
+
+import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventBatchCodec;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventBatchCodecs;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventJournal;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.MetricsRegistry;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import com.intellij.openapi.application.PathManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Writes events to an {@link EventJournal} and sends them to the snapshot server from there.
+ *
+ * <p>A batch is acknowledged in the journal only after the server has accepted it, so events
+ * that were not sent before the IDE closed or crashed are sent on the next start. If the server
+ * accepts an event batch codec, the batch is uploaded encoded as a single event.
+ */
+public class EventJournalSender {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventJournalSender.class);
+
+    private static final int MAX_EVENTS_PER_REQUEST = 500;
+    private static final long MAX_BYTES_PER_REQUEST = 4 * 1024 * 1024;
+    private static final long SEND_DELAY = 10 * 1000;
+    private static final long RETRY_DELAY = 60 * 1000;
+
+    private static final Gson gson =
+            new GsonBuilder().registerTypeAdapter(byte[].class, new Base64Adapter()).create();
+
+    private static EventJournalSender instance;
+
+    private final EventJournal journal;
+    private final TmcServerCommunicationTaskFactory serverAccess;
+    private final EventCodecNegotiator negotiator;
+    private final Supplier<List<URI>> spywareUrls;
+    private final MetricsRegistry metrics;
+    private final Random random = new Random();
+    private final ScheduledExecutorService sender =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Event journal sender")
+                            .setDaemon(true)
+                            .build());
+
+    private boolean sendScheduled;
+
+    public EventJournalSender(
+            EventJournal journal,
+            TmcServerCommunicationTaskFactory serverAccess,
+            EventCodecNegotiator negotiator) {
+        this(
+                journal,
+                serverAccess,
+                negotiator,
+                EventJournalSender::getCurrentSpywareUrls,
+                SnapshotMetrics.get());
+    }
+
+    /**
+     * A sender that sends to the spyware URLs given when sending, and records its metrics in the
+     * given registry.
+     */
+    public EventJournalSender(
+            EventJournal journal,
+            TmcServerCommunicationTaskFactory serverAccess,
+            EventCodecNegotiator negotiator,
+            Supplier<List<URI>> spywareUrls,
+            MetricsRegistry metrics) {
+        this.journal = journal;
+        this.serverAccess = serverAccess;
+        this.negotiator = negotiator;
+        this.spywareUrls = spywareUrls;
+        this.metrics = metrics;
+        metrics.gauge("journal.pending_bytes", journal::getPendingBytes);
+        metrics.gauge("journal.segments", journal::getSegmentCount);
+        if (journal.getPendingBytes() > 0) {
+            logger.info(
+                    "Replaying {} bytes of events of an earlier session.",
+                    journal.getPendingBytes());
+            scheduleSend(0);
+        }
+    }
+
+    public static synchronized EventJournalSender get() throws IOException {
+        if (instance == null) {
+            instance =
+                    new EventJournalSender(
+                            new EventJournal(
+                                    Paths.get(PathManager.getSystemPath(), "tmc", "event-journal")),
+                            new TmcServerCommunicationTaskFactory(),
+                            EventCodecNegotiator.get());
+        }
+        return instance;
+    }
+
+    /** Appends the events to the journal and schedules sending them. */
+    public void append(List<LoggableEvent> events) throws IOException {
+        for (LoggableEvent event : events) {
+            journal.append(encode(event));
+        }
+        scheduleSend(SEND_DELAY);
+    }
+
+    /** Stops sending. Events not sent yet stay in the journal. */
+    public void close() {
+        sender.shutdownNow();
+    }
+
+    private synchronized void scheduleSend(long delay) {
+        if (!sendScheduled && !sender.isShutdown()) {
+            sendScheduled = true;
+            sender.schedule(this::sendJournaled, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sendJournaled() {
+        synchronized (this) {
+            sendScheduled = false;
+        }
+
+        try {
+            List<EventJournal.Entry> batch = nextBatch();
+            while (!batch.isEmpty()) {
+                if (!send(batch)) {
+                    metrics.counter("send.retries").increment();
+                    scheduleSend(RETRY_DELAY);
+                    return;
+                }
+                journal.acknowledge(batch.get(batch.size() - 1).getNextOffset());
+                batch = nextBatch();
+            }
+            journal.sync();
+            journal.compact();
+        } catch (IOException ex) {
+            logger.warn("Could not read the event journal, retrying later.", ex);
+            metrics.counter("journal.failures").increment();
+            metrics.counter("send.retries").increment();
+            scheduleSend(RETRY_DELAY);
+        }
+    }
+
+    private List<EventJournal.Entry> nextBatch() throws IOException {
+        return journal.read(
+                journal.getAcknowledgedOffset(), MAX_EVENTS_PER_REQUEST, MAX_BYTES_PER_REQUEST);
+    }
+
+    private boolean send(List<EventJournal.Entry> batch) {
+        List<URI> urls = spywareUrls.get();
+        if (urls.isEmpty()) {
+            logger.info("No snapshot server known yet, keeping {} events journaled.", batch.size());
+            return false;
+        }
+        URI url = urls.get(random.nextInt(urls.size()));
+
+        List<JsonObject> records = new ArrayList<>();
+        for (EventJournal.Entry entry : batch) {
+            try {
+                records.add(parse(entry.getData()));
+            } catch (JsonParseException | IllegalStateException ex) {
+                logger.warn("Dropping unreadable event at offset " + entry.getOffset(), ex);
+            }
+        }
+        if (records.isEmpty()) {
+            return true;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            List<LoggableEvent> events = new ArrayList<>();
+            Optional<EventBatchCodec> codec = negotiator.negotiate(url);
+            if (codec.isPresent()) {
+                byte[] payload = codec.get().encode(records);
+                events.add(new LoggableEvent(EventBatchCodecs.BATCH_EVENT_TYPE, payload));
+                metrics.histogram("send.payload_bytes").record(payload.length);
+                logger.info(
+                        "Encoded {} events into {} bytes with {}.",
+                        records.size(),
+                        payload.length,
+                        codec.get().getName());
+            } else {
+                for (JsonObject record : records) {
+                    events.add(fromRecord(record));
+                }
+            }
+            serverAccess.getSendEventLogJob(url, events).call();
+            logger.info("Sent {} journaled events.", records.size());
+            metrics.counter("send.batches").increment();
+            metrics.counter("send.events").add(records.size());
+            metrics.histogram("send.batch_size").record(records.size());
+            metrics.histogram("send.duration_ms").record(System.currentTimeMillis() - start);
+            return true;
+        } catch (Exception ex) {
+            logger.warn("Sending journaled events failed, retrying later.", ex);
+            metrics.counter("send.failures").increment();
+            return false;
+        }
+    }
+
+    private static List<URI> getCurrentSpywareUrls() {
+        Optional<Course> course = TmcSettingsManager.get().getCurrentCourse();
+        return course.isPresent() ? course.get().getSpywareUrls() : Collections.emptyList();
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    static byte[] encode(LoggableEvent event) {
+        return gson.toJson(event).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The event as the JSON record it is journaled and sent as, with the data in Base64. */
+    static JsonObject toRecord(LoggableEvent event) {
+        return gson.toJsonTree(event).getAsJsonObject();
+    }
+
+    static LoggableEvent fromRecord(JsonObject record) {
+        return gson.fromJson(record, LoggableEvent.class);
+    }
+
+    private static JsonObject parse(byte[] data) {
+        return new JsonParser().parse(new String(data, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    private static class Base64Adapter extends TypeAdapter<byte[]> {
+        @Override
+        public void write(JsonWriter out, byte[] value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                out.value(Base64.getEncoder().encodeToString(value));
+            }
+        }
+
+        @Override
+        public byte[] read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return Base64.getDecoder().decode(in.nextString());
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package fi.helsinki.cs.tmc.intellij.snapshots;
+
+import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.BlobSnapshotFormat;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.BlobStore;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventBatchCodecs;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventJournal;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.LocalSpywareServer;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.MetricsRegistry;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates editing sessions that add text events as fast as students type, and measures how they
+ * reach a {@link LocalSpywareServer}.
+ *
+ * <p>The events pass a {@link SnapshotsEventManager}, {@link EventJournal} and {@link
+ * EventJournalSender} of the harness's own, which send only to the local server, so the events of
+ * the IDE keep going to the real server meanwhile. Their latency includes the delay of the sender
+ * before sending. Events not received by the end are thrown away with the journal.
+ */
+public class SnapshotLoadHarness {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotLoadHarness.class);
+
+    static final String COURSE_NAME = "snapshot-load-test";
+
+    private static final long MEMORY_SAMPLE_INTERVAL = 100;
+    private static final long POLL_INTERVAL = 100;
+
+    private final int sessions;
+    private final int eventsPerSession;
+    private final long eventInterval;
+
+    /**
+     * Takes the number of sessions, which must be positive, and the number of events per session
+     * and the milliseconds between them, which must not be negative.
+     */
+    public SnapshotLoadHarness(int sessions, int eventsPerSession, long eventInterval) {
+        if (sessions <= 0 || eventsPerSession < 0 || eventInterval < 0) {
+            throw new IllegalArgumentException(
+                    "Sessions must be positive, events and the interval not negative");
+        }
+        this.sessions = sessions;
+        this.eventsPerSession = eventsPerSession;
+        this.eventInterval = eventInterval;
+    }
+
+    /**
+     * Runs the sessions and waits until the server has received their events or the timeout, in
+     * milliseconds, has passed.
+     */
+    public Report run(long timeout) throws IOException, InterruptedException {
+        Path workDirectory = Files.createTempDirectory("tmc-load-test");
+        LocalSpywareServer server =
+                new LocalSpywareServer(
+                        new BlobStore(workDirectory.resolve("blobs")), acceptedCodecs());
+        EventJournal journal = new EventJournal(workDirectory.resolve("journal"));
+        MetricsRegistry.Histogram latency = new MetricsRegistry.Histogram();
+        AtomicLong received = new AtomicLong();
+        server.setEventListener(
+                event -> {
+                    if (COURSE_NAME.equals(getString(event, "courseName"))) {
+                        received.incrementAndGet();
+                        latency.record(System.currentTimeMillis() - getLong(event, "happenedAt"));
+                    }
+                });
+
+        MetricsRegistry metrics = new MetricsRegistry();
+        MemorySampler memory = new MemorySampler();
+        ExecutorService sessionThreads =
+                Executors.newFixedThreadPool(
+                        sessions,
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("Snapshot load session %d")
+                                .setDaemon(true)
+                                .build());
+        EventJournalSender sender = null;
+        SnapshotsEventManager manager = null;
+        try {
+            List<URI> spywareUrls = Collections.singletonList(server.start());
+            EventJournalSender localSender =
+                    new EventJournalSender(
+                            journal,
+                            new TmcServerCommunicationTaskFactory(),
+                            new EventCodecNegotiator(),
+                            () -> spywareUrls,
+                            metrics);
+            sender = localSender;
+            SnapshotsEventManager localManager =
+                    new SnapshotsEventManager(() -> localSender, metrics);
+            manager = localManager;
+            logger.info(
+                    "Starting {} sessions of {} events every {} ms.",
+                    sessions,
+                    eventsPerSession,
+                    eventInterval);
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < sessions; i++) {
+                Exercise exercise = new Exercise("load-test-" + i, COURSE_NAME);
+                sessionThreads.execute(() -> runSession(exercise, localManager));
+            }
+            sessionThreads.shutdown();
+            sessionThreads.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+
+            MetricsRegistry.Counter sampledOut = metrics.counter("events.sampled_out");
+            long sent = (long) sessions * eventsPerSession;
+            long deadline = start + timeout;
+            while (received.get() < sent - sampledOut.get()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(POLL_INTERVAL);
+            }
+            long elapsed = System.currentTimeMillis() - start;
+
+            Report report = new Report();
+            report.sent = sent;
+            report.sampledOut = sampledOut.get();
+            report.received = received.get();
+            report.elapsedMillis = elapsed;
+            report.latency = latency;
+            report.startHeap = memory.startHeap;
+            report.peakHeap = memory.peakHeap.get();
+            report.endHeap = MemorySampler.usedHeap();
+            report.requests = server.getRequestCount();
+            report.failedRequests =
+                    server.getFailedRequestCount() + server.getRejectedRequestCount();
+            report.receivedBytes = server.getReceivedBytes();
+            logger.info("Snapshot load test finished.\n{}", report);
+            return report;
+        } finally {
+            sessionThreads.shutdownNow();
+            if (manager != null) {
+                manager.close();
+            }
+            if (sender != null) {
+                sender.close();
+            }
+            memory.stop();
+            server.close();
+            journal.close();
+            FileUtils.deleteQuietly(workDirectory.toFile());
+        }
+    }
+
+    private static List<String> acceptedCodecs() {
+        List<String> codecs = new ArrayList<>(EventBatchCodecs.getNames());
+        codecs.add(BlobSnapshotFormat.NAME);
+        return codecs;
+    }
+
+    private void runSession(Exercise exercise, SnapshotsEventManager manager) {
+        try {
+            for (int i = 0; i < eventsPerSession; i++) {
+                String text =
+                        String.format("{\"file\":\"src/Main.java\",\"patches\":\"@@ -%d @@\"}", i);
+                manager.addEvent(
+                        new LoggableEvent(
+                                exercise, "text_insert", text.getBytes(StandardCharsets.UTF_8)));
+                Thread.sleep(eventInterval);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String getString(JsonObject object, String member) {
+        JsonElement element = object.get(member);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+
+    private static long getLong(JsonObject object, String member) {
+        JsonElement element = object.get(member);
+        return element == null || element.isJsonNull() ? 0 : element.getAsLong();
+    }
+
+    /** Samples the used heap to find its peak while the sessions run. */
+    private static class MemorySampler {
+        private final long startHeap = usedHeap();
+        private final AtomicLong peakHeap = new AtomicLong(startHeap);
+        private final ScheduledExecutorService sampler =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("Snapshot load memory sampler")
+                                .setDaemon(true)
+                                .build());
+
+        MemorySampler() {
+            sampler.scheduleAtFixedRate(
+                    () -> peakHeap.accumulateAndGet(usedHeap(), Math::max),
+                    0,
+                    MEMORY_SAMPLE_INTERVAL,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+
+        void stop() {
+            sampler.shutdownNow();
+        }
+    }
+
+    /** What a run of the harness measured. Latencies are in milliseconds. */
+    public static class Report {
+        private long sent;
+        private long sampledOut;
+        private long received;
+        private long elapsedMillis;
+        private MetricsRegistry.Histogram latency;
+        private long startHeap;
+        private long peakHeap;
+        private long endHeap;
+        private long requests;
+        private long failedRequests;
+        private long receivedBytes;
+
+        public long getSent() {
+            return sent;
+        }
+
+        /** The number of events left out by the sampling of the event budget. */
+        public long getSampledOut() {
+            return sampledOut;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /** Received events per second over the whole run. */
+        public double getThroughput() {
+            return elapsedMillis == 0 ? 0 : received * 1000.0 / elapsedMillis;
+        }
+
+        public MetricsRegistry.Histogram getLatency() {
+            return latency;
+        }
+
+        public long getPeakHeap() {
+            return peakHeap;
+        }
+
+        /** How much more heap was used after the run than before it. */
+        public long getHeapGrowth() {
+            return endHeap - startHeap;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getFailedRequests() {
+            return failedRequests;
+        }
+
+        public long getReceivedBytes() {
+            return receivedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Events sent %d, sampled out %d, received %d in %d ms (%.1f events/s)%n"
+                            + "Latency p50 %d ms, p90 %d ms, p99 %d ms, max %d ms%n"
+                            + "Heap peak %d KB, growth %d KB%n"
+                            + "Uploads %d, failed %d, %d KB",
+                    sent,
+                    sampledOut,
+                    received,
+                    elapsedMillis,
+                    getThroughput(),
+                    latency.getPercentile(50),
+                    latency.getPercentile(90),
+                    latency.getPercentile(99),
+                    latency.getMax(),
+                    peakHeap / 1024,
+                    getHeapGrowth() / 1024,
+                    requests,
+                    failedRequests,
+                    receivedBytes / 1024);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package fi.helsinki.cs.tmc.intellij.snapshots;
+
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.MetricsRegistry;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import com.intellij.openapi.application.PathManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of the snapshot subsystem: events by type, zipping, queues, sending and its
+ * failures, along with the server requests made through {@code CoalescingTmcCore}. They are
+ * shown in the TMC Diagnostics tool window and written as JSON to {@code
+ * tmc/snapshot-metrics.json} in the system directory of the IDE every {@link #DUMP_INTERVAL}
+ * milliseconds.
+ *
+ * <p>Durations ending in {@code _ms} are in milliseconds and those ending in {@code _us} in
+ * microseconds.
+ */
+public final class SnapshotMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotMetrics.class);
+
+    private static final long DUMP_INTERVAL = 60 * 1000;
+
+    private static final MetricsRegistry registry = new MetricsRegistry();
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private static ScheduledExecutorService dumper;
+
+    private SnapshotMetrics() {}
+
+    public static MetricsRegistry get() {
+        return registry;
+    }
+
+    /** Starts writing the metrics to disk periodically, unless already started. */
+    public static synchronized void startDumping() {
+        if (dumper != null) {
+            return;
+        }
+        dumper =
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("Snapshot metrics dumper")
+                                .setDaemon(true)
+                                .build());
+        dumper.scheduleWithFixedDelay(
+                () -> {
+                    try {
+                        dump();
+                    } catch (IOException ex) {
+                        logger.warn("Could not write snapshot metrics.", ex);
+                    }
+                },
+                DUMP_INTERVAL,
+                DUMP_INTERVAL,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public static Path getDumpFile() {
+        return Paths.get(PathManager.getSystemPath(), "tmc", "snapshot-metrics.json");
+    }
+
+    /** Writes the metrics to the dump file, replacing the earlier dump. Returns the file. */
+    public static Path dump() throws IOException {
+        JsonObject json = registry.toJson();
+        json.addProperty("written_at", System.currentTimeMillis());
+
+        Path file = getDumpFile();
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), "snapshot-metrics", ".tmp");
+        try {
+            Files.write(temp, gson.toJson(json).getBytes(StandardCharsets.UTF_8));
+            Files.move(
+                    temp,
+                    file,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return file;
+    }
+}
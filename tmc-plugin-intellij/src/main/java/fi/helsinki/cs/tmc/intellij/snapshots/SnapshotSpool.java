@@ -0,0 +1,423 @@
+package fi.helsinki.cs.tmc.intellij.snapshots;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.BlobSnapshotFormat;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.BlobStore;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.MetricsRegistry;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import com.intellij.openapi.application.PathManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps code snapshot archives on disk until the snapshot server has accepted them.
+ *
+ * <p>Snapshots are zipped straight into spool files and only the archives of the batch being sent
+ * are read into memory. A batch holds at most {@link #getMemoryThreshold()} bytes of archives, or
+ * a single larger archive, so snapshots piling up while offline no longer grow the heap.
+ *
+ * <p>The event of each archive, without its data, is written next to the archive, so snapshots
+ * that weren't sent before the IDE was closed are sent in the next session. An archive without an
+ * event was never completely spooled and is removed.
+ *
+ * <p>Servers that accept {@link BlobSnapshotFormat blob snapshots} are sent only the file contents
+ * they haven't acknowledged yet, tracked in a {@link BlobStore} per server.
+ */
+public class SnapshotSpool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotSpool.class);
+
+    public static final long DEFAULT_MEMORY_THRESHOLD = 4 * 1024 * 1024;
+    private static final long RETRY_DELAY = 60 * 1000;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".zip";
+    private static final String EVENT_TYPE = "code_snapshot";
+    private static final String RECORD_SUFFIX = ".event";
+
+    private static SnapshotSpool spool;
+
+    private final Path directory;
+    private final Path blobDirectory;
+    private final TmcServerCommunicationTaskFactory serverAccess;
+    private final EventCodecNegotiator negotiator;
+    private final Map<URI, BlobStore> blobStores = new HashMap<>();
+    private final Deque<SpooledSnapshot> spooled = new ArrayDeque<>();
+    private final Random random = new Random();
+    private final MetricsRegistry metrics = SnapshotMetrics.get();
+    private final ScheduledExecutorService sender =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Snapshot spool sender")
+                            .setDaemon(true)
+                            .build());
+
+    private long memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+    private long spooledBytes;
+    private boolean sendScheduled;
+
+    public SnapshotSpool(
+            Path directory,
+            Path blobDirectory,
+            TmcServerCommunicationTaskFactory serverAccess,
+            EventCodecNegotiator negotiator) {
+        this.directory = directory;
+        this.blobDirectory = blobDirectory;
+        this.serverAccess = serverAccess;
+        this.negotiator = negotiator;
+        metrics.gauge("spool.count", this::getSpooledCount);
+        metrics.gauge("spool.bytes", this::getSpooledBytes);
+        restore();
+    }
+
+    public static synchronized SnapshotSpool get() {
+        if (spool == null) {
+            spool =
+                    new SnapshotSpool(
+                            Paths.get(PathManager.getSystemPath(), "tmc", "snapshot-spool"),
+                            Paths.get(PathManager.getSystemPath(), "tmc", "snapshot-blobs"),
+                            new TmcServerCommunicationTaskFactory(),
+                            EventCodecNegotiator.get());
+        }
+        return spool;
+    }
+
+    /** Queues the snapshots left by an earlier session, oldest first. */
+    private void restore() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> archives = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for (Path file : files) {
+                if (file.toString().endsWith(SUFFIX)) {
+                    archives.add(file);
+                } else if (!Files.exists(archiveOf(file))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException ex) {
+            logger.warn("Could not read the snapshot spool directory.", ex);
+            return;
+        }
+
+        List<SpooledSnapshot> restored = new ArrayList<>();
+        for (Path archive : archives) {
+            SpooledSnapshot snapshot = restore(archive);
+            if (snapshot != null) {
+                restored.add(snapshot);
+            }
+        }
+        restored.sort(Comparator.comparingLong((SpooledSnapshot snapshot) -> snapshot.spooledAt));
+        synchronized (this) {
+            for (SpooledSnapshot snapshot : restored) {
+                spooled.addLast(snapshot);
+                spooledBytes += snapshot.size;
+            }
+            if (!spooled.isEmpty()) {
+                logger.info("Restored {} snapshots of an earlier session.", spooled.size());
+                scheduleSend(0);
+            }
+        }
+    }
+
+    private SpooledSnapshot restore(Path archive) {
+        Path recordFile = recordOf(archive);
+        try {
+            if (!Files.exists(recordFile)) {
+                logger.info("Removing incompletely spooled snapshot archive: {}", archive);
+                Files.deleteIfExists(archive);
+                return null;
+            }
+            JsonObject record =
+                    new JsonParser()
+                            .parse(new String(Files.readAllBytes(recordFile), UTF_8))
+                            .getAsJsonObject();
+            return new SpooledSnapshot(
+                    record,
+                    archive,
+                    Files.size(archive),
+                    Files.getLastModifiedTime(recordFile).toMillis());
+        } catch (IOException | JsonParseException | IllegalStateException ex) {
+            logger.warn("Removing unreadable spooled snapshot: " + archive, ex);
+            delete(archive);
+            return null;
+        }
+    }
+
+    private static Path recordOf(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + RECORD_SUFFIX);
+    }
+
+    private static Path archiveOf(Path record) {
+        String name = record.getFileName().toString();
+        return record.resolveSibling(name.substring(0, name.length() - RECORD_SUFFIX.length()));
+    }
+
+    /** Writes the event of the archive next to it, replacing the file only when complete. */
+    private static void writeRecord(Path archive, JsonObject record) throws IOException {
+        Path recordFile = recordOf(archive);
+        Path temporary = recordFile.resolveSibling(recordFile.getFileName() + ".tmp");
+        try (FileChannel channel =
+                FileChannel.open(
+                        temporary,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(record.toString().getBytes(UTF_8)));
+            channel.force(true);
+        }
+        Files.move(temporary, recordFile, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Creates an empty spool file for a new archive. */
+    public Path newSpoolFile() throws IOException {
+        Files.createDirectories(directory);
+        return Files.createTempFile(directory, PREFIX, SUFFIX);
+    }
+
+    /** Queues a spooled archive to be sent as a code snapshot event. */
+    public void add(Exercise exercise, JsonMaker metadata, Path archive) throws IOException {
+        long size = Files.size(archive);
+        // The event itself is created only when sending, so keep the real time of the snapshot.
+        metadata.add("snapshot_taken_at", System.currentTimeMillis());
+        JsonObject record =
+                EventJournalSender.toRecord(
+                        new LoggableEvent(exercise, EVENT_TYPE, new byte[0], metadata));
+        writeRecord(archive, record);
+
+        synchronized (this) {
+            spooled.addLast(
+                    new SpooledSnapshot(record, archive, size, System.currentTimeMillis()));
+            spooledBytes += size;
+            scheduleSend(0);
+        }
+        logger.info("Spooled snapshot of {} bytes to {}.", size, archive);
+    }
+
+    private synchronized void scheduleSend(long delay) {
+        if (!sendScheduled) {
+            sendScheduled = true;
+            sender.schedule(this::sendSpooled, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sendSpooled() {
+        synchronized (this) {
+            sendScheduled = false;
+        }
+
+        List<SpooledSnapshot> batch = nextBatch();
+        while (!batch.isEmpty()) {
+            if (!send(batch)) {
+                metrics.counter("spool.retries").increment();
+                scheduleSend(RETRY_DELAY);
+                return;
+            }
+            remove(batch);
+            batch = nextBatch();
+        }
+    }
+
+    private synchronized List<SpooledSnapshot> nextBatch() {
+        List<SpooledSnapshot> batch = new ArrayList<>();
+        long bytes = 0;
+        for (SpooledSnapshot snapshot : spooled) {
+            if (!batch.isEmpty() && bytes + snapshot.size > memoryThreshold) {
+                break;
+            }
+            batch.add(snapshot);
+            bytes += snapshot.size;
+        }
+        return batch;
+    }
+
+    private boolean send(List<SpooledSnapshot> batch) {
+        Optional<Course> course = TmcSettingsManager.get().getCurrentCourse();
+        if (!course.isPresent() || course.get().getSpywareUrls().isEmpty()) {
+            logger.info(
+                    "No snapshot server known yet, keeping {} snapshots spooled.", batch.size());
+            return false;
+        }
+        List<URI> urls = course.get().getSpywareUrls();
+        URI url = urls.get(random.nextInt(urls.size()));
+
+        BlobStore blobs = getBlobStore(url);
+        Set<String> includedBlobs = new HashSet<>();
+        long payloadBytes = 0;
+        List<LoggableEvent> events = new ArrayList<>();
+        for (SpooledSnapshot snapshot : batch) {
+            try {
+                byte[] data = Files.readAllBytes(snapshot.archive);
+                if (blobs != null) {
+                    Set<String> included = new HashSet<>(includedBlobs);
+                    data = BlobSnapshotFormat.encode(data, blobs, included);
+                    includedBlobs = included;
+                }
+                payloadBytes += data.length;
+                events.add(
+                        toEvent(
+                                snapshot.record,
+                                data,
+                                blobs != null ? BlobSnapshotFormat.NAME : "zip"));
+            } catch (IOException | JsonParseException | IllegalStateException ex) {
+                logger.warn(
+                        "Could not read spooled snapshot, dropping it: " + snapshot.archive, ex);
+            }
+        }
+        if (events.isEmpty()) {
+            return true;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            serverAccess.getSendEventLogJob(url, events).call();
+            logger.info("Sent {} spooled snapshots.", events.size());
+        } catch (Exception ex) {
+            logger.warn("Sending spooled snapshots failed, retrying later.", ex);
+            metrics.counter("spool.failures").increment();
+            return false;
+        }
+        metrics.counter("spool.batches").increment();
+        metrics.counter("spool.snapshots").add(events.size());
+        metrics.histogram("spool.payload_bytes").record(payloadBytes);
+        metrics.histogram("spool.send_ms").record(System.currentTimeMillis() - start);
+
+        if (blobs != null) {
+            try {
+                blobs.acknowledge(includedBlobs);
+            } catch (IOException ex) {
+                logger.warn("Could not record acknowledged blobs.", ex);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The event of a spooled snapshot. The format may differ between attempts, so it is added to
+     * a copy of the spooled record.
+     */
+    private static LoggableEvent toEvent(JsonObject record, byte[] data, String format) {
+        JsonObject event = new JsonParser().parse(record.toString()).getAsJsonObject();
+        JsonObject metadata =
+                event.has("metadata") && event.get("metadata").isJsonPrimitive()
+                        ? new JsonParser()
+                                .parse(event.get("metadata").getAsString())
+                                .getAsJsonObject()
+                        : new JsonObject();
+        metadata.addProperty("snapshot_format", format);
+        event.addProperty("metadata", metadata.toString());
+        event.addProperty("data", Base64.getEncoder().encodeToString(data));
+        return EventJournalSender.fromRecord(event);
+    }
+
+    /** The blob store of the server, or null if it doesn't accept blob snapshots. */
+    private BlobStore getBlobStore(URI url) {
+        if (!negotiator.accepts(url, BlobSnapshotFormat.NAME)) {
+            return null;
+        }
+        synchronized (blobStores) {
+            BlobStore store = blobStores.get(url);
+            if (store == null) {
+                String key = Hashing.sha1().hashString(url.toString(), UTF_8).toString();
+                try {
+                    store = new BlobStore(blobDirectory.resolve(key.substring(0, 16)));
+                } catch (IOException ex) {
+                    logger.warn("Could not open blob store, sending full snapshots.", ex);
+                    return null;
+                }
+                blobStores.put(url, store);
+            }
+            return store;
+        }
+    }
+
+    private synchronized void remove(List<SpooledSnapshot> batch) {
+        for (SpooledSnapshot snapshot : batch) {
+            spooled.remove(snapshot);
+            spooledBytes -= snapshot.size;
+            delete(snapshot.archive);
+        }
+    }
+
+    /** Removes the event first, so that the archive is never sent again. */
+    private static void delete(Path archive) {
+        try {
+            Files.deleteIfExists(recordOf(archive));
+            Files.deleteIfExists(archive);
+        } catch (IOException ex) {
+            logger.warn("Could not remove spooled snapshot " + archive, ex);
+        }
+    }
+
+    /** Sets the most bytes of archives that are read into memory at once, when sending. */
+    public synchronized void setMemoryThreshold(long memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public synchronized long getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    public synchronized int getSpooledCount() {
+        return spooled.size();
+    }
+
+    public synchronized long getSpooledBytes() {
+        return spooledBytes;
+    }
+
+    /** A spooled archive and its event without the data, which is read from the archive. */
+    private static class SpooledSnapshot {
+        private final JsonObject record;
+        private final Path archive;
+        private final long size;
+        private final long spooledAt;
+
+        private SpooledSnapshot(JsonObject record, Path archive, long size, long spooledAt) {
+            this.record = record;
+            this.archive = archive;
+            this.spooledAt = spooledAt;
+            this.size = size;
+        }
+    }
+}
@@ -1,63 +1,222 @@
 package fi.helsinki.cs.tmc.intellij.snapshots;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import fi.helsinki.cs.tmc.core.TmcCore;
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.intellij.holders.TmcCoreHolder;
 import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
+import fi.helsinki.cs.tmc.intellij.io.SettingsTmc;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventBudget;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventIngestionPipeline;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.MetricsRegistry;
 import fi.helsinki.cs.tmc.snapshots.*;
 
-import com.intellij.openapi.application.ApplicationManager;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 /**
- * This class is responsible for adding events to the buffer. The buffer then sends and saves the
- * events when necessary.
+ * This class is responsible for adding events to the event journal, from which {@link
+ * EventJournalSender} sends them. The buffer is only used when the journal can't be opened.
+ *
+ * <p>Events are collected by an {@link EventIngestionPipeline} and handed to the journal in
+ * batches by a single thread, so adding an event never blocks the caller. Every event is counted
+ * against the {@link EventBudget} of the snapshot subsystem, and while it is far exceeded only a
+ * sample of the events is kept.
+ *
+ * <p>The static methods use the manager of the IDE. Other managers, like the one of {@link
+ * SnapshotLoadHarness}, have a pipeline, budget and journal of their own, and drop the events they
+ * can't journal instead of buffering them.
  */
 public class SnapshotsEventManager {
 
     private static final Logger logger = LoggerFactory.getLogger(SnapshotsEventManager.class);
 
+    private static final int MAX_BATCH_SIZE = 256;
+
+    /** How long to wait before asking the details of a course without spyware URLs again. */
+    private static final long COURSE_DETAILS_RETRY_DELAY = 10 * 60 * 1000;
+
     private static final EventSendBuffer buffer =
             new EventSendBuffer(new TmcServerCommunicationTaskFactory(), new EventStore());
 
+    private static final Map<String, Long> courseDetailsFetchedAt = new ConcurrentHashMap<>();
+
+    private static final SnapshotsEventManager defaultManager =
+            new SnapshotsEventManager(
+                    () -> {
+                        ensureSpywareUrls();
+                        return EventJournalSender.get();
+                    },
+                    buffer,
+                    SnapshotMetrics.get());
+
+    /** Opens the journal that the events are handed to. */
+    public interface JournalOpener {
+        EventJournalSender open() throws IOException;
+    }
+
+    private final JournalOpener journal;
+    private final EventSendBuffer fallback;
+    private final MetricsRegistry metrics;
+    private final EventBudget budget = new EventBudget();
+    private final ExecutorService ingestion =
+            Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Snapshot event ingestion")
+                            .setDaemon(true)
+                            .build());
+    private final EventIngestionPipeline<LoggableEvent> pipeline =
+            new EventIngestionPipeline<>(this::receiveEvents, ingestion, MAX_BATCH_SIZE);
+
+    /** A manager of its own, which records its metrics in the given registry. */
+    public SnapshotsEventManager(JournalOpener journal, MetricsRegistry metrics) {
+        this(journal, null, metrics);
+    }
+
+    private SnapshotsEventManager(
+            JournalOpener journal, EventSendBuffer fallback, MetricsRegistry metrics) {
+        this.journal = journal;
+        this.fallback = fallback;
+        this.metrics = metrics;
+        metrics.gauge("pipeline.queue_depth", pipeline::getQueueDepth);
+        metrics.gauge("budget.stage", () -> budget.getStage().ordinal());
+        metrics.gauge("budget.queued_bytes", budget::getQueuedBytes);
+        metrics.gauge("budget.cpu_ms_per_minute", budget::getCpuMillisLastMinute);
+    }
+
     public static void add(final LoggableEvent log) {
-        ApplicationManager.getApplication()
-                .executeOnPooledThread(
-                        () -> {
-                            try {
-                                if (TmcSettingsManager.get().getCurrentCourse().isPresent()
-                                        && TmcSettingsManager.get()
-                                                        .getCurrentCourse()
-                                                        .get()
-                                                        .getSpywareUrls()
-                                                        .size()
-                                                == 0) {
-
-                                    logger.info("Trying to get course info.");
-                                    TmcCore core = TmcCoreHolder.get();
-                                    TmcSettingsManager.get()
-                                            .setCourse(
-                                                    Optional.of(
-                                                            core.getCourseDetails(
-                                                                            ProgressObserver
-                                                                                    .NULL_OBSERVER,
-                                                                            TmcSettingsManager.get()
-                                                                                    .getCurrentCourse()
-                                                                                    .get())
-                                                                    .call()));
-                                }
-                            } catch (Exception e) {
-                            }
-                            buffer.receiveEvent(log);
-                            logger.info("Event has been added to the buffer.");
-                        });
+        defaultManager.addEvent(log);
+    }
+
+    public void addEvent(LoggableEvent log) {
+        metrics.counter("events.added." + log.getEventType()).increment();
+        budget.recordEvent();
+        if (budget.getStage() == EventBudget.Stage.SAMPLE && !budget.sample()) {
+            budget.recordDegraded(EventBudget.Stage.SAMPLE, log.getEventType());
+            metrics.counter("events.sampled_out").increment();
+            return;
+        }
+        budget.addQueuedBytes(sizeOf(log));
+        metrics.histogram("events.size_bytes").record(sizeOf(log));
+        pipeline.add(log);
+    }
+
+    /** Stops taking events to the journal. The manager of the IDE is never closed. */
+    public void close() {
+        ingestion.shutdownNow();
+    }
+
+    private static long sizeOf(LoggableEvent event) {
+        return event.getData() == null ? 0 : event.getData().length;
+    }
+
+    private void receiveEvents(List<LoggableEvent> events) {
+        long cpuStart = EventBudget.currentThreadCpuTime();
+        try {
+            journalEvents(events);
+        } finally {
+            for (LoggableEvent event : events) {
+                budget.addQueuedBytes(-sizeOf(event));
+            }
+            budget.recordCpu(EventBudget.currentThreadCpuTime() - cpuStart);
+        }
+    }
+
+    private void journalEvents(List<LoggableEvent> events) {
+        configureBudget();
+        metrics.histogram("pipeline.batch_size").record(events.size());
+        long start = System.nanoTime();
+        try {
+            journal.open().append(events);
+            metrics.histogram("journal.append_us").record(micros(start));
+            logger.info("{} events have been journaled.", events.size());
+            return;
+        } catch (IOException ex) {
+            metrics.counter("journal.failures").increment();
+            if (fallback == null) {
+                logger.warn("Could not journal {} events, dropping them.", events.size(), ex);
+                return;
+            }
+            logger.warn("Could not journal events, adding them to the buffer instead.", ex);
+        }
+        start = System.nanoTime();
+        for (LoggableEvent event : events) {
+            fallback.receiveEvent(event);
+        }
+        metrics.counter("send_buffer.events").add(events.size());
+        metrics.histogram("send_buffer.receive_us").record(micros(start));
+        logger.info("{} events have been added to the buffer.", events.size());
+    }
+
+    private static long micros(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    private void configureBudget() {
+        SettingsTmc settings = TmcSettingsManager.get();
+        budget.setLimits(
+                settings.getSnapshotEventsPerSecond(),
+                settings.getSnapshotQueuedBytes(),
+                settings.getSnapshotCpuMillisPerMinute());
+        long spoolThreshold = settings.getSnapshotSpoolMemoryThreshold();
+        SnapshotSpool.get()
+                .setMemoryThreshold(
+                        spoolThreshold > 0
+                                ? spoolThreshold
+                                : SnapshotSpool.DEFAULT_MEMORY_THRESHOLD);
+    }
+
+    /**
+     * Fetches the details of the current course if its spyware URLs are missing. The details of a
+     * course are fetched at most once per {@link #COURSE_DETAILS_RETRY_DELAY}, not once per event.
+     */
+    private static void ensureSpywareUrls() {
+        Optional<Course> current = TmcSettingsManager.get().getCurrentCourse();
+        if (!current.isPresent() || !current.get().getSpywareUrls().isEmpty()) {
+            return;
+        }
+
+        String name = current.get().getName();
+        long now = System.currentTimeMillis();
+        Long fetchedAt = courseDetailsFetchedAt.get(name);
+        if (fetchedAt != null && now - fetchedAt < COURSE_DETAILS_RETRY_DELAY) {
+            return;
+        }
+        courseDetailsFetchedAt.put(name, now);
+
+        try {
+            logger.info("Trying to get course info.");
+            TmcCore core = TmcCoreHolder.get();
+            Course details =
+                    core.getCourseDetails(ProgressObserver.NULL_OBSERVER, current.get()).call();
+            TmcSettingsManager.get().setCourse(Optional.of(details));
+        } catch (Exception e) {
+            logger.warn("Could not fetch the spyware URLs of " + name, e);
+        }
     }
 
     public static EventSendBuffer get() {
         return buffer;
     }
+
+    /** The budget of the snapshot subsystem, which the listeners check before doing work. */
+    public static EventBudget getBudget() {
+        return defaultManager.budget;
+    }
+
+    /** The ingestion pipeline, for its statistics. */
+    public static EventIngestionPipeline<LoggableEvent> getPipeline() {
+        return defaultManager.pipeline;
+    }
 }
@@ -2,13 +2,20 @@ package fi.helsinki.cs.tmc.intellij.snapshots;
 
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
+import fi.helsinki.cs.tmc.intellij.services.ExerciseContext;
 import fi.helsinki.cs.tmc.intellij.services.PathResolver;
-import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
-import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.ActiveThreadSet;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventBudget;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.MetricsRegistry;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.ParallelZipper;
 import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.RecursiveZipper;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.SnapshotScheduler;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.SnapshotZippingDecider;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.ZipEntryCache;
 import fi.helsinki.cs.tmc.snapshots.*;
 
-import com.intellij.openapi.application.ApplicationManager;
+import com.google.common.hash.HashCode;
+
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileCopyEvent;
@@ -27,21 +34,57 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
 
 public class SnapshotsFileListener implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(SnapshotsFileListener.class);
+    private static final Map<String, SnapshotScheduler> schedulers = new ConcurrentHashMap<>();
+    private static final Map<String, SnapshotZippingDecider> deciders = new ConcurrentHashMap<>();
+    /** The coalescing window of the schedulers while over the snapshot budget. */
+    private static final long DEGRADED_COALESCE_WINDOW = 10 * 1000;
+
+    private static final MetricsRegistry metrics = SnapshotMetrics.get();
+
+    static {
+        metrics.gauge("snapshot.queue_depth", SnapshotScheduler::getSharedQueueDepth);
+        metrics.gauge("snapshot.merged_requests", () -> sumOf(SnapshotScheduler::getMergedCount));
+        metrics.gauge(
+                "snapshot.dropped_requests", () -> sumOf(SnapshotScheduler::getDroppedCount));
+        metrics.gauge(
+                "snapshot.retried_requests", () -> sumOf(SnapshotScheduler::getRetriedCount));
+    }
+
     private String projectPath;
-    private boolean closed;
-    private final ActiveThreadSet snapshotterThreads;
     private final Project project;
     private static VirtualFileListener listener;
 
     public SnapshotsFileListener(Project project) {
         this.project = project;
         this.projectPath = project.getBasePath();
-        this.snapshotterThreads = new ActiveThreadSet();
+    }
+
+    private static long sumOf(ToLongFunction<SnapshotScheduler> statistic) {
+        return schedulers.values().stream().mapToLong(statistic).sum();
+    }
+
+    /** Returns the snapshot scheduler of the given project, creating it if necessary. */
+    public static SnapshotScheduler getScheduler(String projectPath) {
+        return schedulers.computeIfAbsent(
+                projectPath, path -> new SnapshotScheduler(new SnapshotJob(path)));
+    }
+
+    /**
+     * Returns the zipping decider of the given project. It is kept between snapshots and told
+     * about file system changes that affect its decisions.
+     */
+    public static SnapshotZippingDecider getZippingDecider(String projectPath) {
+        return deciders.computeIfAbsent(
+                projectPath, path -> SnapshotZippingDecider.forProject(Paths.get(path)));
     }
 
     public void removeListener() {
@@ -70,6 +113,7 @@ public class SnapshotsFileListener implements Closeable {
             public void propertyChanged(
                     @NotNull VirtualFilePropertyEvent virtualFilePropertyEvent) {
                 logger.info("Processing propertyChanged event.");
+                invalidateZippingDecider(virtualFilePropertyEvent.getFile());
                 if (!isProperfile(virtualFilePropertyEvent.getFile())) {
                     return;
                 }
@@ -77,35 +121,43 @@ public class SnapshotsFileListener implements Closeable {
                 String path = virtualFilePropertyEvent.getSource().toString().substring(7);
 
                 String folderOrFile = setFolderOrFile(path, "rename");
+                String file = new PathResolver().getPathRelativeToProject(path);
 
                 JsonMaker metadata =
                         JsonMaker.create()
                                 .add("cause", folderOrFile)
-                                .add("file", new PathResolver().getPathRelativeToProject(path))
+                                .add("file", file)
                                 .add(
                                         "previous_name",
                                         virtualFilePropertyEvent.getOldValue().toString());
-                sendMetadata(metadata);
+                sendMetadata(folderOrFile, file, metadata);
             }
 
             @Override
             public void contentsChanged(@NotNull VirtualFileEvent virtualFileEvent) {
                 logger.info("Processing contentsChanged event.");
+                // Only an edited ignore file changes what is zipped, not any other edit.
+                if (SnapshotZippingDecider.PATTERN_FILE.equals(
+                        virtualFileEvent.getFile().getName())) {
+                    invalidateZippingDecider(virtualFileEvent.getFile());
+                }
+                // Saving writes the document, so send the edits before the save snapshot.
+                TextInputListener.flushPendingChanges();
                 if (!isProperfile(virtualFileEvent.getFile())) {
                     return;
                 }
 
                 String path = virtualFileEvent.getSource().toString().substring(7);
+                String file = new PathResolver().getPathRelativeToProject(path);
                 JsonMaker metadata =
-                        JsonMaker.create()
-                                .add("cause", "file_change")
-                                .add("file", new PathResolver().getPathRelativeToProject(path));
-                sendMetadata(metadata);
+                        JsonMaker.create().add("cause", "file_change").add("file", file);
+                sendMetadata("file_change", file, metadata);
             }
 
             @Override
             public void fileCreated(@NotNull VirtualFileEvent virtualFileEvent) {
                 logger.info("Processing fileCreated event");
+                invalidateZippingDecider(virtualFileEvent.getFile());
 
                 if (!isProperfile(virtualFileEvent.getFile())) {
                     return;
@@ -118,6 +170,8 @@ public class SnapshotsFileListener implements Closeable {
             @Override
             public void fileMoved(@NotNull VirtualFileMoveEvent virtualFileMoveEvent) {
                 logger.info("Processing fileMoved event.");
+                invalidateZippingDecider(virtualFileMoveEvent.getFile());
+                invalidateZippingDecider(virtualFileMoveEvent.getOldParent());
                 if (!isProperfile(virtualFileMoveEvent.getFile())) {
                     return;
                 }
@@ -128,27 +182,28 @@ public class SnapshotsFileListener implements Closeable {
 
             private void prepareMetaData(String action, String path) {
                 String folderOrFile = setFolderOrFile(path, action);
+                String file = new PathResolver().getPathRelativeToProject(path);
 
                 JsonMaker metadata =
-                        JsonMaker.create()
-                                .add("cause", folderOrFile)
-                                .add("file", new PathResolver().getPathRelativeToProject(path));
-                sendMetadata(metadata);
+                        JsonMaker.create().add("cause", folderOrFile).add("file", file);
+                sendMetadata(folderOrFile, file, metadata);
             }
 
             @Override
             public void fileCopied(@NotNull VirtualFileCopyEvent virtualFileCopyEvent) {
                 logger.info("Processing fileCopied event.");
+                invalidateZippingDecider(virtualFileCopyEvent.getFile());
                 String path = virtualFileCopyEvent.getSource().toString().substring(7);
 
                 String folderOrFile = setFolderOrFile(path, "copy");
+                String file = new PathResolver().getPathRelativeToProject(path);
 
                 JsonMaker metadata =
                         JsonMaker.create()
                                 .add("cause", folderOrFile)
-                                .add("file", new PathResolver().getPathRelativeToProject(path))
+                                .add("file", file)
                                 .add("from", virtualFileCopyEvent.getOriginalFile().toString());
-                sendMetadata(metadata);
+                sendMetadata(folderOrFile, file, metadata);
             }
 
             private String setFolderOrFile(String path, String action) {
@@ -166,16 +221,16 @@ public class SnapshotsFileListener implements Closeable {
             @Override
             public void beforeFileDeletion(@NotNull VirtualFileEvent virtualFileEvent) {
                 logger.info("Processing fileDeleted event.");
+                invalidateZippingDecider(virtualFileEvent.getFile());
                 if (!isProperfile(virtualFileEvent.getFile())) {
                     return;
                 }
 
                 String path = virtualFileEvent.getFile().getPath();
+                String file = new PathResolver().getPathRelativeToProject(path);
                 JsonMaker metadata =
-                        JsonMaker.create()
-                                .add("cause", "file_delete")
-                                .add("file", new PathResolver().getPathRelativeToProject(path));
-                sendMetadata(metadata);
+                        JsonMaker.create().add("cause", "file_delete").add("file", file);
+                sendMetadata("file_delete", file, metadata);
             }
 
             @Override
@@ -189,9 +244,31 @@ public class SnapshotsFileListener implements Closeable {
         };
     }
 
-    private void sendMetadata(JsonMaker metadata) {
-        if (!new CourseAndExerciseManager()
-                .isCourseInDatabase(PathResolver.getCourseName(projectPath))) {
+    /**
+     * Makes the zipping decider forget what it knew about the directory of the changed file.
+     * Pattern file changes recompile the decider, and directory changes may bring or take markers
+     * along.
+     */
+    private void invalidateZippingDecider(VirtualFile file) {
+        if (projectPath == null || file == null) {
+            return;
+        }
+        SnapshotZippingDecider decider = deciders.get(projectPath);
+        if (decider == null) {
+            return;
+        }
+        if (SnapshotZippingDecider.PATTERN_FILE.equals(file.getName())) {
+            deciders.remove(projectPath);
+        } else if (file.isDirectory()) {
+            decider.invalidateAll();
+        } else if (file.getParent() != null) {
+            // Renames only tell the new name, so any file may have been a marker.
+            decider.invalidate(Paths.get(file.getParent().getPath()));
+        }
+    }
+
+    private void sendMetadata(String cause, String file, JsonMaker metadata) {
+        if (!ExerciseContext.getInstance(project).isTracked()) {
             return;
         }
 
@@ -200,24 +277,33 @@ public class SnapshotsFileListener implements Closeable {
             return;
         }
 
-        logger.info("Starting zipping thread for exercise: {0}", exercise);
-        SnapshotThread thread = new SnapshotThread(exercise, projectPath, metadata);
-        snapshotterThreads.addThread(thread);
-        thread.setDaemon(true);
-        thread.start();
+        logger.info("Requesting snapshot for exercise: {}", exercise);
+        metrics.counter("snapshot.requests." + cause).increment();
+        SnapshotScheduler scheduler = getScheduler(projectPath);
+        EventBudget budget = SnapshotsEventManager.getBudget();
+        long window = TmcSettingsManager.get().getSnapshotCoalesceWindow();
+        if (window <= 0) {
+            window = SnapshotScheduler.DEFAULT_COALESCE_WINDOW;
+        }
+        if (budget.getStage().atLeast(EventBudget.Stage.COALESCE)) {
+            scheduler.setCoalesceWindow(Math.max(window, DEGRADED_COALESCE_WINDOW));
+            budget.recordDegraded(EventBudget.Stage.COALESCE, cause);
+        } else {
+            scheduler.setCoalesceWindow(window);
+        }
+        scheduler.request(exercise, cause, file, metadata);
     }
 
     @Override
     public void close() throws IOException {
-        ApplicationManager.getApplication()
-                .invokeLater(
-                        () -> {
-                            try {
-                                closed = true;
-                                snapshotterThreads.joinAll();
-                            } catch (InterruptedException ex) {
-                            }
-                        });
+        if (projectPath == null) {
+            return;
+        }
+        deciders.remove(projectPath);
+        SnapshotScheduler scheduler = schedulers.remove(projectPath);
+        if (scheduler != null) {
+            scheduler.close();
+        }
     }
 
     public boolean isProperfile(VirtualFile virtualFile) {
@@ -231,105 +317,92 @@ public class SnapshotsFileListener implements Closeable {
                 || virtualFile.toString().contains(".jar"));
     }
 
-    private static class SnapshotThread extends Thread {
-        private final Exercise exercise;
+    /**
+     * Zips the project into the snapshot spool. A snapshot of sources identical to the last one
+     * spooled for the exercise is sent as a metadata-only event instead, and so is every snapshot
+     * while the snapshot budget allows only metadata.
+     */
+    private static class SnapshotJob implements SnapshotScheduler.SnapshotJob {
+        private static final String UNCHANGED_EVENT_TYPE = "code_snapshot_unchanged";
+        private static final String SKIPPED_EVENT_TYPE = "code_snapshot_skipped";
+
         private final String projectPathInfo;
-        private final JsonMaker metadata;
+        private final ZipEntryCache entryCache = new ZipEntryCache();
+        private final Map<String, HashCode> spooledFingerprints = new ConcurrentHashMap<>();
 
-        private SnapshotThread(Exercise exercise, String projectPathInfo, JsonMaker metadata) {
-            super("Source snapshot");
-            this.exercise = exercise;
+        private SnapshotJob(String projectPathInfo) {
             this.projectPathInfo = projectPathInfo;
-            this.metadata = metadata;
         }
 
         @Override
-        public void run() {
-            // Note that, being in a thread, this is inherently prone to races that modify the
-            // projectPath.
+        public void snapshot(Exercise exercise, JsonMaker metadata) {
+            // Note that, being in a worker thread, this is inherently prone to races that modify
+            // the projectPath.
             // For now we just accept that. Not sure if the FileObject API would allow some sort of
             // global locking of the  projectPath.
+            EventBudget budget = SnapshotsEventManager.getBudget();
+            if (budget.getStage().atLeast(EventBudget.Stage.METADATA_ONLY)) {
+                logger.info("Over the snapshot budget, not zipping {}.", exercise);
+                budget.recordDegraded(EventBudget.Stage.METADATA_ONLY, "code_snapshot");
+                metadata.add("degraded", "metadata_only");
+                SnapshotsEventManager.add(
+                        new LoggableEvent(exercise, SKIPPED_EVENT_TYPE, new byte[0], metadata));
+                metrics.counter("snapshot.skipped").increment();
+                return;
+            }
+
             File projectPathDir = new File(projectPathInfo);
-            RecursiveZipper.ZippingDecider zippingDecider =
-                    new ZippingDeciderWrapper(projectPathInfo);
-            RecursiveZipper zipper = new RecursiveZipper(projectPathDir, zippingDecider);
+            RecursiveZipper.ZippingDecider zippingDecider = getZippingDecider(projectPathInfo);
+            ParallelZipper zipper = new ParallelZipper(projectPathDir, zippingDecider, entryCache);
+            SnapshotSpool spool = SnapshotSpool.get();
+            Path archive = null;
+            long cpuStart = EventBudget.currentThreadCpuTime();
+            long start = System.currentTimeMillis();
             try {
-                byte[] data = zipper.zipProjectSources();
-                LoggableEvent event = new LoggableEvent(exercise, "code_snapshot", data, metadata);
-                SnapshotsEventManager.add(event);
+                archive = spool.newSpoolFile();
+                HashCode previous = spooledFingerprints.get(exercise.getName());
+                HashCode fingerprint = zipper.zipProjectSourcesIfChanged(archive, previous);
+                metrics.histogram("snapshot.zip_ms").record(System.currentTimeMillis() - start);
+                metadata.add("source_fingerprint", fingerprint.toString());
+                if (fingerprint.equals(previous)) {
+                    metrics.counter("snapshot.unchanged").increment();
+                    logger.info("Sources of {} unchanged, sending metadata only.", exercise);
+                    deleteQuietly(archive);
+                    SnapshotsEventManager.add(
+                            new LoggableEvent(
+                                    exercise, UNCHANGED_EVENT_TYPE, new byte[0], metadata));
+                    return;
+                }
+                metrics.histogram("snapshot.archive_bytes").record(Files.size(archive));
+                spool.add(exercise, metadata, archive);
+                spooledFingerprints.put(exercise.getName(), fingerprint);
             } catch (IOException ex) {
                 // Warning might be also appro1priate, but this often races with  projectPath
                 // closing
                 // during integration tests, and there warning would cause a dialog to appear,
                 // failing the test.
                 logger.warn("Error zipping  projectPath sources in: " + projectPathDir, ex);
+                metrics.counter("snapshot.failures").increment();
+                deleteQuietly(archive);
+            } finally {
+                budget.recordCpu(
+                        EventBudget.currentThreadCpuTime() - cpuStart + zipper.getCpuNanos());
             }
         }
-    }
-
-    private static class ZippingDeciderWrapper implements RecursiveZipper.ZippingDecider {
-        private static final long MAX_FILE_SIZE = 100 * 1024; // 100KB
-
-        protected static final String[] BLACKLISTED_FILE_EXTENSIONS = {
-            ".min.js",
-            ".pack.js",
-            ".jar",
-            ".war",
-            ".mp3",
-            ".ogg",
-            ".wav",
-            ".png",
-            ".jpg",
-            ".jpeg",
-            ".ttf",
-            ".eot",
-            ".woff"
-        };
-
-        private final String projectPathInfo;
-
-        public ZippingDeciderWrapper(String projectPathInfo) {
-            this.projectPathInfo = projectPathInfo;
-        }
 
-        protected boolean isProbablyBundledBinary(String zipPath) {
-            for (String ext : BLACKLISTED_FILE_EXTENSIONS) {
-                if (zipPath.endsWith(ext)) {
-                    return true;
-                }
+        private void deleteQuietly(Path archive) {
+            if (archive == null) {
+                return;
             }
-            return false;
-        }
-
-        protected boolean isTooBig(File file) {
-            return file.length() > MAX_FILE_SIZE;
-        }
-
-        protected boolean hasNoSnapshotFile(File dir) {
-            return new File(dir, ".tmcnosnapshot").exists();
-        }
-
-        @Override
-        public boolean shouldZip(String zipPath) {
-            File file = new File(projectPathInfo, zipPath);
-            if (file.isDirectory()) {
-                if (hasNoSnapshotFile(file)) {
-                    return false;
-                }
-            } else {
-                if (isProbablyBundledBinary(zipPath)) {
-                    return false;
-                }
-                if (isTooBig(file)) {
-                    return false;
-                }
+            try {
+                Files.deleteIfExists(archive);
+            } catch (IOException ex) {
+                logger.warn("Could not remove snapshot archive " + archive, ex);
             }
-
-            return true;
         }
     }
 
     public Exercise getExercise() {
-        return PathResolver.getExercise(projectPath);
+        return ExerciseContext.getInstance(project).getExercise();
     }
 }
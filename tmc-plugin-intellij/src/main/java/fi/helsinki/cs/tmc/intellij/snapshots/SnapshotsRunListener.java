@@ -1,36 +1,109 @@
 package fi.helsinki.cs.tmc.intellij.snapshots;
 
+import com.intellij.execution.Executor;
+import com.intellij.execution.executors.DefaultDebugExecutor;
+import com.intellij.execution.executors.DefaultRunExecutor;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.ui.RunContentDescriptor;
 import com.intellij.execution.ui.RunContentManager;
+import com.intellij.execution.ui.RunContentWithExecutorListener;
 import com.intellij.openapi.project.Project;
 import com.intellij.util.messages.MessageBusConnection;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends an event when the user runs or debugs a program, and another one with the duration when
+ * the program terminates.
+ *
+ * <p>Only the run content topic is subscribed to, and the executor is told apart by its ID. Run
+ * content is selected again whenever the user switches between run tabs, so each process is
+ * reported only the first time its content is selected.
+ */
 public class SnapshotsRunListener {
 
     private static final Logger logger = LoggerFactory.getLogger(SnapshotsRunListener.class);
 
+    private final Set<ProcessHandler> seen =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
     public SnapshotsRunListener(Project project) {
         connectToMessageBus(project);
     }
 
     private void connectToMessageBus(Project project) {
-        logger.info("Connecting to message bus.");
+        logger.info("Subscribing to RunContentManager topic.");
         MessageBusConnection bus = project.getMessageBus().connect();
-        bus.setDefaultHandler(
-                (method, objects) -> {
-                    logger.info("Method call observed in message bus.");
-                    for (Object object : objects) {
-                        if (method.toString().toLowerCase().contains("contentselected")) {
-                            if (object.toString().toLowerCase().contains("debug")) {
-                                new ButtonInputListener().receiveDebugRunAction();
-                            } else if (object.toString().contains("DefaultRunExecutor")) {
-                                new ButtonInputListener().receiveRunAction();
-                            }
+        bus.subscribe(
+                RunContentManager.TOPIC,
+                new RunContentWithExecutorListener() {
+                    @Override
+                    public void contentSelected(
+                            @Nullable RunContentDescriptor descriptor,
+                            @NotNull Executor executor) {
+                        if (descriptor != null) {
+                            receiveContent(descriptor, executor);
                         }
                     }
+
+                    @Override
+                    public void contentRemoved(
+                            @Nullable RunContentDescriptor descriptor,
+                            @NotNull Executor executor) {}
                 });
-        logger.info("Subscribing to RunContentManager topic.");
-        bus.subscribe(RunContentManager.TOPIC);
+    }
+
+    private void receiveContent(RunContentDescriptor descriptor, Executor executor) {
+        String command = getCommand(executor);
+        ProcessHandler process = descriptor.getProcessHandler();
+        if (command == null || process == null || !seen.add(process)) {
+            return;
+        }
+
+        logger.info("Observed {} of {}.", command, descriptor.getDisplayName());
+        ButtonInputListener listener = new ButtonInputListener();
+        if (command.equals(ButtonInputListener.COMMAND_DEBUG)) {
+            listener.receiveDebugRunAction();
+        } else {
+            listener.receiveRunAction();
+        }
+
+        if (process.isProcessTerminated()) {
+            return;
+        }
+        long startedAt = System.nanoTime();
+        process.addProcessListener(
+                new ProcessAdapter() {
+                    @Override
+                    public void processTerminated(ProcessEvent event) {
+                        long duration =
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+                        new ButtonInputListener()
+                                .receiveRunFinished(command, duration, event.getExitCode());
+                    }
+                });
+    }
+
+    /** The command of the executor, or null for executors other than run and debug. */
+    @Nullable
+    static String getCommand(Executor executor) {
+        String id = executor.getId();
+        if (DefaultRunExecutor.EXECUTOR_ID.equals(id)) {
+            return ButtonInputListener.COMMAND_RUN;
+        } else if (DefaultDebugExecutor.EXECUTOR_ID.equals(id)) {
+            return ButtonInputListener.COMMAND_DEBUG;
+        }
+        return null;
     }
 }
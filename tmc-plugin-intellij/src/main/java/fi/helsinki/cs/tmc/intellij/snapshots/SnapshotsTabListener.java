@@ -5,15 +5,20 @@ import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
 import fi.helsinki.cs.tmc.intellij.holders.TmcSettingsManager;
 import fi.helsinki.cs.tmc.intellij.io.SettingsTmc;
+import fi.helsinki.cs.tmc.intellij.services.ExerciseContext;
 import fi.helsinki.cs.tmc.intellij.services.ObjectFinder;
 import fi.helsinki.cs.tmc.intellij.services.PathResolver;
-import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.FocusTracker;
 import fi.helsinki.cs.tmc.snapshots.*;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
 import com.intellij.openapi.fileEditor.FileEditorManagerListener;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VirtualFile;
 
 import org.jetbrains.annotations.NotNull;
@@ -21,18 +26,55 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.charset.Charset;
-
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records opening and closing editor tabs, and the time spent in each file.
+ *
+ * <p>Selection changes go through a {@link FocusTracker}, so cycling through tabs becomes one
+ * {@code window_focus} event per summary with the dwell time of each file instead of an event
+ * per switch. The time spent so far is handed over when the listeners are removed and when the
+ * project is closed.
+ */
 public class SnapshotsTabListener {
 
     private static final Logger logger = LoggerFactory.getLogger(SnapshotsTabListener.class);
 
+    private static final Map<String, SnapshotsTabListener> listeners = new ConcurrentHashMap<>();
+
     private final Project project;
     private final String basePath;
+    private final FocusTracker focusTracker = new FocusTracker(this::sendFocusSummary);
 
     public SnapshotsTabListener(Project project) {
         this.project = project;
         this.basePath = project.getBasePath();
         createAndAddListeners(project);
+        if (basePath != null) {
+            SnapshotsTabListener previous = listeners.put(basePath, this);
+            if (previous != null) {
+                previous.focusTracker.flush();
+            }
+        }
+        Disposer.register(project, this::dispose);
+    }
+
+    /** Hands the time spent in the files of the project so far to the event buffer. */
+    public static void flushFocus(Project project) {
+        String basePath = project.getBasePath();
+        SnapshotsTabListener listener = basePath == null ? null : listeners.get(basePath);
+        if (listener != null) {
+            listener.focusTracker.flush();
+        }
+    }
+
+    private void dispose() {
+        if (basePath != null) {
+            listeners.remove(basePath, this);
+        }
+        focusTracker.flush();
     }
 
     private void createAndAddListeners(Project project) {
@@ -100,75 +142,65 @@ public class SnapshotsTabListener {
                             @Override
                             public void selectionChanged(
                                     @NotNull FileEditorManagerEvent fileEditorManagerEvent) {
+                                TextInputListener.flushPendingChanges();
+                                VirtualFile newFile = fileEditorManagerEvent.getNewFile();
+                                focusTracker.focus(newFile == null ? null : newFile.getPath());
+                            }
+                        });
+    }
 
-                                logger.info("Processing selectionChanged event.");
-                                String data;
-
-                                if (fileEditorManagerEvent.getNewFile() == null) {
-                                    return;
-                                }
+    private void sendFocusSummary(FocusTracker.FocusSummary summary) {
+        logger.info(
+                "Sending {} focus intervals of {} switches.",
+                summary.getIntervals().size(),
+                summary.getSwitchCount());
+        PathResolver resolver = new PathResolver();
+        Map<String, String> relativePaths = new HashMap<>();
+
+        JsonArray intervals = new JsonArray();
+        for (FocusTracker.FocusInterval interval : summary.getIntervals()) {
+            JsonObject json = new JsonObject();
+            json.addProperty(
+                    "file", relativePath(resolver, relativePaths, interval.getFile()));
+            json.addProperty("started_at", interval.getStartedAt());
+            json.addProperty("dwell_ms", interval.getDwell());
+            intervals.add(json);
+        }
+        JsonObject dwell = new JsonObject();
+        for (Map.Entry<String, Long> entry : summary.getDwellByFile().entrySet()) {
+            dwell.addProperty(
+                    relativePath(resolver, relativePaths, entry.getKey()), entry.getValue());
+        }
 
-                                if (fileEditorManagerEvent.getOldFile() != null) {
-                                    data =
-                                            JsonMaker.create()
-                                                    .add(
-                                                            "new_value",
-                                                            fileEditorManagerEvent
-                                                                    .getNewFile()
-                                                                    .getName())
-                                                    .add(
-                                                            "old_value",
-                                                            fileEditorManagerEvent
-                                                                    .getOldFile()
-                                                                    .getName())
-                                                    .add(
-                                                            "file",
-                                                            new PathResolver()
-                                                                    .getPathRelativeToProject(
-                                                                            fileEditorManagerEvent
-                                                                                    .getNewFile()
-                                                                                    .getPath()))
-                                                    .toString();
-                                } else {
-                                    data =
-                                            JsonMaker.create()
-                                                    .add(
-                                                            "new_value",
-                                                            fileEditorManagerEvent
-                                                                    .getNewFile()
-                                                                    .getName())
-                                                    .add(
-                                                            "file",
-                                                            new PathResolver()
-                                                                    .getPathRelativeToProject(
-                                                                            fileEditorManagerEvent
-                                                                                    .getNewFile()
-                                                                                    .getPath()))
-                                                    .toString();
-                                }
+        JsonObject data = new JsonObject();
+        data.add("intervals", intervals);
+        data.add("dwell_ms", dwell);
+        data.addProperty("switches", summary.getSwitchCount());
+        data.addProperty("skipped_switches", summary.getSkippedCount());
+        data.addProperty("started_at", summary.getStartedAt());
+        data.addProperty("ended_at", summary.getEndedAt());
+
+        byte[] bytes = data.toString().getBytes(Charset.forName("UTF-8"));
+        Exercise exercise = getExercise();
+        addEventToBuffer(
+                exercise != null
+                        ? new LoggableEvent(exercise, "window_focus", bytes)
+                        : new LoggableEvent("window_focus", bytes));
+    }
 
-                                Exercise exercise = getExercise();
-                                LoggableEvent event;
-                                if (exercise != null) {
-                                    event =
-                                            new LoggableEvent(
-                                                    exercise,
-                                                    "window_changed",
-                                                    data.getBytes(Charset.forName("UTF-8")));
-                                } else {
-                                    event =
-                                            new LoggableEvent(
-                                                    "window_changed",
-                                                    data.getBytes(Charset.forName("UTF-8")));
-                                }
-                                addEventToBuffer(event);
-                            }
-                        });
+    /** The path relative to the project, or the absolute path when there is no project. */
+    private static String relativePath(
+            PathResolver resolver, Map<String, String> relativePaths, String file) {
+        return relativePaths.computeIfAbsent(
+                file,
+                path -> {
+                    String relative = resolver.getPathRelativeToProject(path);
+                    return relative == null ? path : relative;
+                });
     }
 
     private void addEventToBuffer(LoggableEvent event) {
-        if (new CourseAndExerciseManager()
-                .isCourseInDatabase(PathResolver.getCourseName(basePath))) {
+        if (!ExerciseContext.getInstance(project).isTracked()) {
             return;
         }
         SnapshotsEventManager.add(event);
@@ -186,6 +218,6 @@ public class SnapshotsTabListener {
     }
 
     public Exercise getExercise() {
-        return PathResolver.getExercise(basePath);
+        return ExerciseContext.getInstance(project).getExercise();
     }
 }
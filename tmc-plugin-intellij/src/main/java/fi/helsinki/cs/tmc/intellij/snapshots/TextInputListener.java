@@ -3,80 +3,147 @@ package fi.helsinki.cs.tmc.intellij.snapshots;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
 import fi.helsinki.cs.tmc.intellij.services.ClipboardService;
+import fi.helsinki.cs.tmc.intellij.services.ExerciseContext;
 import fi.helsinki.cs.tmc.intellij.services.ObjectFinder;
 import fi.helsinki.cs.tmc.intellij.services.PathResolver;
-import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.EventBudget;
+import fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils.TextChangeCoalescer;
 import fi.helsinki.cs.tmc.snapshots.*;
 
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.project.Project;
 
 import name.fraser.neil.plaintext.DiffMatchPatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * When a change in the listened document happens this class creates a diff patch. That created
  * patch is then analyzed and a json is generated from it that is added to the list of items to be
- * sent to the snapshots server.
+ * sent to the snapshots server. Consecutive changes are merged by a {@link TextChangeCoalescer}
+ * first, so a burst of typing becomes one event.
+ *
+ * <p>While the {@link EventBudget} of the snapshot subsystem is exceeded, changes are coalesced
+ * over longer pauses, and further on the events only tell which file was edited.
  */
 public class TextInputListener implements DocumentListener {
 
     private static final Logger logger = LoggerFactory.getLogger(TextInputListener.class);
 
-    private final DiffMatchPatch diff = new DiffMatchPatch();
-    private String previous;
-    private String modified;
+    private static final DiffMatchPatch diff = new DiffMatchPatch();
+
+    /** How many times longer than usual changes are coalesced while over the budget. */
+    private static final int DEGRADED_IDLE_FACTOR = 5;
+
+    private static final TextChangeCoalescer<Target> coalescer =
+            new TextChangeCoalescer<>(TextInputListener::sendEdit);
 
     @Override
-    public void beforeDocumentChange(DocumentEvent documentEvent) {
-        previous = documentEvent.getDocument().getText();
-    }
+    public void beforeDocumentChange(DocumentEvent documentEvent) {}
 
     @Override
     public void documentChanged(DocumentEvent documentEvent) {
-        modified = documentEvent.getDocument().getText();
-        if (!isThisCorrectProject() || changeIsNotJustWhitespace(documentEvent)) {
-            logger.info(
-                    "not creating path for event, as project wasn't "
-                            + "correct one or change was just white space");
+        Project project = new ObjectFinder().findCurrentProject();
+        if (project == null) {
+            return;
+        }
+        ExerciseContext context = ExerciseContext.getInstance(project);
+        if (!context.isTracked()) {
+            logger.info("not creating patch for event, as project wasn't correct one");
             return;
         }
 
-        logger.info("Creating patches for ", documentEvent.getSource());
-        createPatches(
-                PathResolver.getExercise(new ObjectFinder().findCurrentProject().getBasePath()),
-                documentEvent);
+        String file = getFile(documentEvent);
+        if (file == null) {
+            return;
+        }
+        Exercise exercise = context.getExercise();
+
+        logger.info("Coalescing change of {}", file);
+        String type = getEventType(documentEvent);
+        EventBudget.Stage stage = SnapshotsEventManager.getBudget().getStage();
+        coalescer.setIdleTimeout(
+                stage.atLeast(EventBudget.Stage.COALESCE)
+                        ? TextChangeCoalescer.DEFAULT_IDLE_TIMEOUT * DEGRADED_IDLE_FACTOR
+                        : TextChangeCoalescer.DEFAULT_IDLE_TIMEOUT);
+        coalescer.add(
+                documentEvent.getDocument(),
+                new Target(exercise, file),
+                type,
+                documentEvent.getDocument().getCharsSequence(),
+                documentEvent.getOffset(),
+                documentEvent.getOldFragment(),
+                documentEvent.getNewFragment());
+        if (type.equals("text_paste") && stage == EventBudget.Stage.NORMAL) {
+            coalescer.flush();
+        }
     }
 
-    private boolean isThisCorrectProject() {
-        return new CourseAndExerciseManager()
-                .isCourseInDatabase(
-                        PathResolver.getCourseName(
-                                new ObjectFinder().findCurrentProject().getBasePath()));
+    /**
+     * Sends the text changes that are still being coalesced. Called when the user switches files
+     * or saves, so the events stay in order with the ones caused by those.
+     */
+    public static void flushPendingChanges() {
+        coalescer.flush();
     }
 
-    private boolean changeIsNotJustWhitespace(DocumentEvent documentEvent) {
-        return !documentEvent.getNewFragment().toString().trim().isEmpty()
-                || !documentEvent.getOldFragment().toString().trim().isEmpty();
+    private String getEventType(DocumentEvent documentEvent) {
+        if (isRemoveEvent(documentEvent)) {
+            return "text_remove";
+        } else if (isPasteEvent(documentEvent)) {
+            return "text_paste";
+        }
+        return "text_insert";
     }
 
-    private void createPatches(Exercise exercise, DocumentEvent documentEvent) {
-        List<DiffMatchPatch.Patch> patches;
-        patches = diff.patch_make(previous, modified);
+    /**
+     * Makes the patches of a coalesced edit. Only the changed region of the document is diffed,
+     * and the patch positions are then moved from the region to the document.
+     */
+    static List<DiffMatchPatch.Patch> makePatches(TextChangeCoalescer.CoalescedEdit<?> edit) {
+        List<DiffMatchPatch.Patch> patches =
+                diff.patch_make(edit.getOriginal(), edit.getModified());
+        for (DiffMatchPatch.Patch patch : patches) {
+            patch.start1 += edit.getOffset();
+            patch.start2 += edit.getOffset();
+        }
+        return patches;
+    }
 
-        if (isRemoveEvent(documentEvent)) {
-            addEventToManager(
-                    exercise, "text_remove", generatePatchDescription(documentEvent, patches));
-        } else if (isPasteEvent(documentEvent)) {
-            addEventToManager(
-                    exercise, "text_paste", generatePatchDescription(documentEvent, patches));
+    private static void sendEdit(TextChangeCoalescer.CoalescedEdit<Target> edit) {
+        EventBudget budget = SnapshotsEventManager.getBudget();
+        EventBudget.Stage stage = budget.getStage();
+        long cpuStart = EventBudget.currentThreadCpuTime();
+
+        JsonMaker json =
+                JsonMaker.create()
+                        .add("file", edit.getContext().file)
+                        .add("edit_count", edit.getEditCount());
+        if (stage.atLeast(EventBudget.Stage.METADATA_ONLY)) {
+            logger.info(
+                    "Over the snapshot budget, sending {} edits without patches.",
+                    edit.getEditCount());
+            json.add("degraded", "metadata_only");
+            budget.recordDegraded(EventBudget.Stage.METADATA_ONLY, edit.getType());
         } else {
-            addEventToManager(
-                    exercise, "text_insert", generatePatchDescription(documentEvent, patches));
+            logger.info("Creating JSON from patches of {} edits.", edit.getEditCount());
+            long start = System.nanoTime();
+            json.add("patches", diff.patch_toText(makePatches(edit)))
+                    .add("full_document", edit.isFullDocument());
+            SnapshotMetrics.get()
+                    .histogram("text.patch_us")
+                    .record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            if (stage == EventBudget.Stage.COALESCE) {
+                budget.recordDegraded(EventBudget.Stage.COALESCE, edit.getType());
+            }
         }
+        budget.recordCpu(EventBudget.currentThreadCpuTime() - cpuStart);
+        SnapshotMetrics.get().histogram("text.edits_per_event").record(edit.getEditCount());
+        addEventToManager(edit.getContext().exercise, edit.getType(), json.toString());
     }
 
     private boolean isPasteEvent(DocumentEvent documentEvent) {
@@ -89,36 +156,33 @@ public class TextInputListener implements DocumentListener {
                         .equals(documentEvent.getNewFragment().toString().trim());
     }
 
-    private String generatePatchDescription(
-            DocumentEvent documentEvent, List<DiffMatchPatch.Patch> patches) {
-
-        logger.info("Creating JSON from patches.");
+    private String getFile(DocumentEvent documentEvent) {
         String source = documentEvent.getSource().toString();
-
-        if (documentEvent.getSource().toString().length() <= 20) {
+        if (source.length() <= 20) {
             return null;
         }
 
         source = source.substring(20, source.length() - 1);
-        return JsonMaker.create()
-                .add("file", new PathResolver().getPathRelativeToProject(source))
-                .add("patches", diff.patch_toText(patches))
-                .add(
-                        "full_document",
-                        documentEvent.getNewLength() == documentEvent.getDocument().getTextLength())
-                .toString();
+        return new PathResolver().getPathRelativeToProject(source);
     }
 
     private boolean isRemoveEvent(DocumentEvent documentEvent) {
         return (documentEvent.getOldLength() > 0 && documentEvent.getNewLength() == 0);
     }
 
-    private void addEventToManager(Exercise exercise, String eventType, String text) {
-        if (text == null) {
-            return;
-        }
-
+    private static void addEventToManager(Exercise exercise, String eventType, String text) {
         LoggableEvent event = new LoggableEvent(exercise, eventType, text.getBytes());
         SnapshotsEventManager.add(event);
     }
+
+    /** Where the coalesced changes belong to. */
+    private static class Target {
+        private final Exercise exercise;
+        private final String file;
+
+        private Target(Exercise exercise, String file) {
+            this.exercise = exercise;
+            this.file = file;
+        }
+    }
 }
@@ -0,0 +1,480 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes events as tagged binary values instead of JSON text.
+ *
+ * <p>Field names, event types, course and exercise names and other short strings are written
+ * once per batch and referred to by index afterwards; the names the plugin's own events use are
+ * known in advance. Integers are written as variable length differences to the previous value of
+ * the same field, so timestamps take a byte or two. Event data and metadata that are JSON objects
+ * are encoded as objects, everything else as raw bytes, so the payload of a code snapshot is not
+ * inflated by Base64.
+ *
+ * <p>With deflate, the encoded batch is compressed with a preset dictionary of strings common in
+ * event payloads, which helps the small batches sent while a student is typing.
+ */
+public class BinaryEventBatchCodec implements EventBatchCodec {
+
+    private static final byte[] MAGIC = {'T', 'M', 'C', 'B'};
+    private static final int VERSION = 1;
+    private static final int FLAG_DEFLATE = 1;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_TRUE = 1;
+    private static final int TAG_FALSE = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_NUMBER = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_TEXT = 6;
+    private static final int TAG_JSON_TEXT = 7;
+    private static final int TAG_BYTES = 8;
+    private static final int TAG_JSON_BYTES = 9;
+    private static final int TAG_OBJECT = 10;
+    private static final int TAG_ARRAY = 11;
+
+    /** Longer strings are written inline instead of into the string table. */
+    private static final int MAX_TABLE_STRING_LENGTH = 64;
+
+    private static final Pattern LONG = Pattern.compile("0|-?[1-9][0-9]{0,17}");
+    private static final String DATA_FIELD = "data";
+
+    private static final List<String> KNOWN_STRINGS =
+            Arrays.asList(
+                    "courseName",
+                    "exerciseName",
+                    "eventType",
+                    "data",
+                    "metadata",
+                    "happenedAt",
+                    "systemNanotime",
+                    "text_insert",
+                    "text_remove",
+                    "text_paste",
+                    "ide_action",
+                    "project_action",
+                    "code_snapshot",
+                    "window_focus",
+                    "file",
+                    "patches",
+                    "full_document",
+                    "edit_count",
+                    "cause",
+                    "from",
+                    "opened_window",
+                    "closed_window",
+                    "action",
+                    "file_change",
+                    "file_create",
+                    "file_delete",
+                    "folder_create",
+                    "folder_delete",
+                    "snapshot_taken_at");
+
+    static final byte[] DICTIONARY =
+            ("public class static void private final return import java.util. String int new "
+                            + "this.if (else for (while ( System.out.println(\");\n    }\n"
+                            + "@@ -1,0 +1, @@\n+%0A %0A-    %7B%7D%22\"file\":\"src/main/java/"
+                            + ".java\",\"patches\":\"@@ -\",\"full_document\":false,"
+                            + "\"edit_count\":1}\"cause\":\"file_change\",\"opened_window\":\"")
+                    .getBytes(StandardCharsets.UTF_8);
+
+    private final boolean deflate;
+
+    public BinaryEventBatchCodec(boolean deflate) {
+        this.deflate = deflate;
+    }
+
+    @Override
+    public String getName() {
+        return deflate ? "binary-deflate-v1" : "binary-v1";
+    }
+
+    /** Whether the payload starts like one written by this codec. */
+    public static boolean isEncoded(byte[] payload) {
+        if (payload.length < MAGIC.length + 2) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (payload[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public byte[] encode(List<JsonObject> events) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        Writer writer = new Writer(new DataOutputStream(body));
+        writer.writeVarint(events.size());
+        for (JsonObject event : events) {
+            writer.writeObject(event);
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(MAGIC);
+        payload.write(VERSION);
+        payload.write(deflate ? FLAG_DEFLATE : 0);
+        if (deflate) {
+            payload.write(compress(body.toByteArray()));
+        } else {
+            body.writeTo(payload);
+        }
+        return payload.toByteArray();
+    }
+
+    /** Decodes a payload of either variant, whichever this codec writes. */
+    @Override
+    public List<JsonObject> decode(byte[] payload) throws IOException {
+        if (!isEncoded(payload)) {
+            throw new IOException("Not an encoded event batch");
+        }
+        int version = payload[MAGIC.length];
+        if (version != VERSION) {
+            throw new IOException("Unsupported event batch version " + version);
+        }
+        int flags = payload[MAGIC.length + 1];
+        int start = MAGIC.length + 2;
+
+        InputStream body = new ByteArrayInputStream(payload, start, payload.length - start);
+        Inflater inflater = null;
+        if ((flags & FLAG_DEFLATE) != 0) {
+            inflater = new DictionaryInflater();
+            body = new InflaterInputStream(body, inflater);
+        }
+        try {
+            Reader reader = new Reader(new DataInputStream(body));
+            int count = reader.readVarint();
+            List<JsonObject> events = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                events.add(reader.readObject());
+            }
+            return events;
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private static byte[] compress(byte[] body) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2 + 16);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(chunk);
+                compressed.write(chunk, 0, length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Gives the preset dictionary to the inflater when the stream asks for it. */
+    private static class DictionaryInflater extends Inflater {
+        @Override
+        public int inflate(byte[] buffer, int offset, int length) throws DataFormatException {
+            int inflated = super.inflate(buffer, offset, length);
+            if (inflated == 0 && needsDictionary()) {
+                setDictionary(DICTIONARY);
+                inflated = super.inflate(buffer, offset, length);
+            }
+            return inflated;
+        }
+    }
+
+    /** Parses JSON only if writing it back gives exactly the same text. */
+    private static JsonObject parseExactObject(String text) {
+        if (!text.startsWith("{")) {
+            return null;
+        }
+        try {
+            JsonElement parsed = new JsonParser().parse(text);
+            if (parsed.isJsonObject() && parsed.toString().equals(text)) {
+                return parsed.getAsJsonObject();
+            }
+        } catch (JsonParseException ex) {
+            // Not JSON after all, kept as text.
+        }
+        return null;
+    }
+
+    private static byte[] decodeExactBase64(String text) {
+        try {
+            byte[] bytes = Base64.getDecoder().decode(text);
+            return Base64.getEncoder().encodeToString(bytes).equals(text) ? bytes : null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<String, Long> previous = new HashMap<>();
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+            for (String known : KNOWN_STRINGS) {
+                strings.put(known, strings.size());
+            }
+        }
+
+        private void writeObject(JsonObject object) throws IOException {
+            writeVarint(object.entrySet().size());
+            for (Entry<String, JsonElement> field : object.entrySet()) {
+                writeString(field.getKey());
+                writeValue(field.getKey(), field.getValue());
+            }
+        }
+
+        private void writeValue(String key, JsonElement value) throws IOException {
+            if (value == null || value.isJsonNull()) {
+                out.write(TAG_NULL);
+            } else if (value.isJsonObject()) {
+                out.write(TAG_OBJECT);
+                writeObject(value.getAsJsonObject());
+            } else if (value.isJsonArray()) {
+                JsonArray array = value.getAsJsonArray();
+                out.write(TAG_ARRAY);
+                writeVarint(array.size());
+                for (JsonElement element : array) {
+                    writeValue(key, element);
+                }
+            } else {
+                writePrimitive(key, value.getAsJsonPrimitive());
+            }
+        }
+
+        private void writePrimitive(String key, JsonPrimitive value) throws IOException {
+            if (value.isBoolean()) {
+                out.write(value.getAsBoolean() ? TAG_TRUE : TAG_FALSE);
+            } else if (value.isNumber()) {
+                String text = value.getAsString();
+                if (LONG.matcher(text).matches()) {
+                    long number = Long.parseLong(text);
+                    Long last = previous.put(key, number);
+                    out.write(TAG_LONG);
+                    writeSignedVarint(number - (last == null ? 0 : last));
+                } else {
+                    out.write(TAG_NUMBER);
+                    writeText(text);
+                }
+            } else {
+                writeStringValue(key, value.getAsString());
+            }
+        }
+
+        private void writeStringValue(String key, String text) throws IOException {
+            if (DATA_FIELD.equals(key)) {
+                byte[] bytes = decodeExactBase64(text);
+                if (bytes != null) {
+                    JsonObject object = parseExactObject(new String(bytes, StandardCharsets.UTF_8));
+                    if (object != null
+                            && Arrays.equals(
+                                    object.toString().getBytes(StandardCharsets.UTF_8), bytes)) {
+                        out.write(TAG_JSON_BYTES);
+                        writeObject(object);
+                    } else {
+                        out.write(TAG_BYTES);
+                        writeVarint(bytes.length);
+                        out.write(bytes);
+                    }
+                    return;
+                }
+            }
+
+            JsonObject object = parseExactObject(text);
+            if (object != null) {
+                out.write(TAG_JSON_TEXT);
+                writeObject(object);
+            } else if (text.length() <= MAX_TABLE_STRING_LENGTH) {
+                out.write(TAG_STRING);
+                writeString(text);
+            } else {
+                out.write(TAG_TEXT);
+                writeText(text);
+            }
+        }
+
+        /** Writes a string table index, followed by the string if it is new. */
+        private void writeString(String text) throws IOException {
+            Integer index = strings.get(text);
+            if (index != null) {
+                writeVarint(index);
+                return;
+            }
+            writeVarint(strings.size());
+            writeText(text);
+            strings.put(text, strings.size());
+        }
+
+        private void writeText(String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeSignedVarint(long value) throws IOException {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>(KNOWN_STRINGS);
+        private final Map<String, Long> previous = new HashMap<>();
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        private JsonObject readObject() throws IOException {
+            int size = readVarint();
+            JsonObject object = new JsonObject();
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                object.add(key, readValue(key));
+            }
+            return object;
+        }
+
+        private JsonElement readValue(String key) throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return JsonNull.INSTANCE;
+                case TAG_TRUE:
+                    return new JsonPrimitive(true);
+                case TAG_FALSE:
+                    return new JsonPrimitive(false);
+                case TAG_LONG:
+                    Long last = previous.get(key);
+                    long number = readSignedVarint() + (last == null ? 0 : last);
+                    previous.put(key, number);
+                    return new JsonPrimitive(number);
+                case TAG_NUMBER:
+                    return new JsonPrimitive(readNumber());
+                case TAG_STRING:
+                    return new JsonPrimitive(readString());
+                case TAG_TEXT:
+                    return new JsonPrimitive(readText());
+                case TAG_JSON_TEXT:
+                    return new JsonPrimitive(readObject().toString());
+                case TAG_BYTES:
+                    byte[] bytes = new byte[readVarint()];
+                    in.readFully(bytes);
+                    return new JsonPrimitive(Base64.getEncoder().encodeToString(bytes));
+                case TAG_JSON_BYTES:
+                    byte[] json = readObject().toString().getBytes(StandardCharsets.UTF_8);
+                    return new JsonPrimitive(Base64.getEncoder().encodeToString(json));
+                case TAG_OBJECT:
+                    return readObject();
+                case TAG_ARRAY:
+                    int size = readVarint();
+                    JsonArray array = new JsonArray();
+                    for (int i = 0; i < size; i++) {
+                        array.add(readValue(key));
+                    }
+                    return array;
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+
+        private String readString() throws IOException {
+            int index = readVarint();
+            if (index < strings.size()) {
+                return strings.get(index);
+            }
+            if (index != strings.size()) {
+                throw new IOException("Bad string table index " + index);
+            }
+            String text = readText();
+            strings.add(text);
+            return text;
+        }
+
+        private BigDecimal readNumber() throws IOException {
+            String text = readText();
+            try {
+                return new BigDecimal(text);
+            } catch (NumberFormatException ex) {
+                throw new IOException("Bad number " + text, ex);
+            }
+        }
+
+        private String readText() throws IOException {
+            byte[] bytes = new byte[readVarint()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long readSignedVarint() throws IOException {
+            long value = readVarintLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private int readVarint() throws IOException {
+            long value = readVarintLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Length out of range: " + value);
+            }
+            return (int) value;
+        }
+
+        private long readVarintLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A code snapshot that refers to the contents of its files by hash.
+ *
+ * <p>A blob snapshot is a zip holding a {@code manifest.json}, which lists the directories and
+ * files of the snapshot archive with the hashes of the files, and a {@code blobs/<hash>} entry
+ * for each content the receiver doesn't have yet. Consecutive snapshots of an exercise share
+ * almost all of their contents, so usually only the edited files are uploaded.
+ */
+public final class BlobSnapshotFormat {
+
+    public static final String NAME = "blob-snapshot-v1";
+
+    private static final String MANIFEST_ENTRY = "manifest.json";
+    private static final String BLOB_PREFIX = "blobs/";
+
+    private static final Gson gson = new Gson();
+
+    private BlobSnapshotFormat() {}
+
+    /**
+     * Converts a snapshot archive into a blob snapshot. Blobs that the store has acknowledged, or
+     * that are already in {@code included}, are only referred to; the hashes of the blobs added
+     * to the snapshot are added to {@code included}. Only the acknowledged hashes of the store are
+     * used, the contents are not stored.
+     */
+    public static byte[] encode(byte[] archive, BlobStore store, Set<String> included)
+            throws IOException {
+        Manifest manifest = new Manifest();
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(payload);
+                ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    manifest.entries.add(new ManifestEntry(entry.getName(), null, entry.getTime()));
+                    continue;
+                }
+                byte[] content = IOUtils.toByteArray(in);
+                String hash = BlobStore.hash(content);
+                manifest.entries.add(new ManifestEntry(entry.getName(), hash, entry.getTime()));
+                if (!store.isAcknowledged(hash) && included.add(hash)) {
+                    out.putNextEntry(new ZipEntry(BLOB_PREFIX + hash));
+                    out.write(content);
+                    out.closeEntry();
+                }
+            }
+
+            out.putNextEntry(new ZipEntry(MANIFEST_ENTRY));
+            out.write(gson.toJson(manifest).getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return payload.toByteArray();
+    }
+
+    /**
+     * Stores the blobs of a blob snapshot and rebuilds the snapshot archive from the manifest.
+     * Fails if a blob doesn't match its hash or a referred blob isn't in the store.
+     */
+    public static byte[] decode(byte[] payload, BlobStore store) throws IOException {
+        Manifest manifest = null;
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(payload))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                byte[] content = IOUtils.toByteArray(in);
+                if (MANIFEST_ENTRY.equals(entry.getName())) {
+                    manifest = parseManifest(content);
+                } else if (entry.getName().startsWith(BLOB_PREFIX)) {
+                    String hash = entry.getName().substring(BLOB_PREFIX.length());
+                    if (!hash.equals(store.put(content))) {
+                        throw new IOException("Blob doesn't match its hash " + hash);
+                    }
+                }
+            }
+        }
+        if (manifest == null || manifest.entries == null) {
+            throw new IOException("Blob snapshot has no manifest");
+        }
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(archive)) {
+            for (ManifestEntry entry : manifest.entries) {
+                ZipEntry zipEntry = new ZipEntry(entry.path);
+                zipEntry.setTime(entry.time);
+                out.putNextEntry(zipEntry);
+                if (entry.hash != null) {
+                    if (!store.contains(entry.hash)) {
+                        throw new IOException("Missing blob " + entry.hash + " of " + entry.path);
+                    }
+                    out.write(store.get(entry.hash));
+                }
+                out.closeEntry();
+            }
+        }
+        return archive.toByteArray();
+    }
+
+    private static Manifest parseManifest(byte[] content) throws IOException {
+        try {
+            Manifest manifest =
+                    gson.fromJson(new String(content, StandardCharsets.UTF_8), Manifest.class);
+            if (manifest == null || !NAME.equals(manifest.format) || manifest.entries == null) {
+                throw new IOException("Unsupported blob snapshot manifest");
+            }
+            return manifest;
+        } catch (JsonParseException ex) {
+            throw new IOException("Malformed blob snapshot manifest", ex);
+        }
+    }
+
+    private static class Manifest {
+        private String format = NAME;
+        private List<ManifestEntry> entries = new ArrayList<>();
+    }
+
+    private static class ManifestEntry {
+        private String path;
+        private String hash;
+        private long time;
+
+        private ManifestEntry(String path, String hash, long time) {
+            this.path = path;
+            this.hash = hash;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receives blob snapshots like a snapshot server would, for trying the format out locally.
+ *
+ * <p>Blobs are kept in the receiver's own {@link BlobStore}, and each snapshot is rebuilt into the
+ * archive a client would have uploaded without the blob format.
+ */
+public class BlobSnapshotReceiver {
+
+    private final BlobStore store;
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong archiveBytes = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+
+    public BlobSnapshotReceiver(BlobStore store) {
+        this.store = store;
+    }
+
+    /** Stores the blobs of the snapshot and returns the rebuilt archive. */
+    public byte[] receive(byte[] payload) throws IOException {
+        byte[] archive = BlobSnapshotFormat.decode(payload, store);
+        receivedBytes.addAndGet(payload.length);
+        archiveBytes.addAndGet(archive.length);
+        snapshots.incrementAndGet();
+        return archive;
+    }
+
+    public BlobStore getStore() {
+        return store;
+    }
+
+    public long getSnapshotCount() {
+        return snapshots.get();
+    }
+
+    /** Bytes of blob snapshots received. */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /** Bytes of the archives rebuilt from them. */
+    public long getArchiveBytes() {
+        return archiveBytes.get();
+    }
+}
@@ -0,0 +1,117 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import com.google.common.hash.Hashing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Stores file contents on disk by their SHA-1 hash, so each distinct content is kept once.
+ *
+ * <p>The store also remembers which blobs the receiving end has acknowledged. Acknowledged blobs
+ * don't need to be uploaded again, so their content is dropped and only the hash is kept in an
+ * append-only index.
+ */
+public class BlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{40}");
+    private static final String ACKNOWLEDGED_FILE = "acknowledged";
+
+    private final Path directory;
+    private final Set<String> acknowledged = new HashSet<>();
+
+    public BlobStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        Path index = directory.resolve(ACKNOWLEDGED_FILE);
+        if (Files.exists(index)) {
+            for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+                if (HASH.matcher(line).matches()) {
+                    acknowledged.add(line);
+                }
+            }
+        }
+    }
+
+    public static String hash(byte[] content) {
+        return Hashing.sha1().hashBytes(content).toString();
+    }
+
+    /** Stores the content unless it is already stored or acknowledged. Returns its hash. */
+    public synchronized String put(byte[] content) throws IOException {
+        String hash = hash(content);
+        Path blob = blobPath(hash);
+        if (acknowledged.contains(hash) || Files.exists(blob)) {
+            return hash;
+        }
+        Files.createDirectories(blob.getParent());
+        Path temporary = Files.createTempFile(blob.getParent(), hash, ".tmp");
+        try {
+            Files.write(temporary, content);
+            Files.move(temporary, blob, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return hash;
+    }
+
+    public synchronized boolean contains(String hash) {
+        return HASH.matcher(hash).matches() && Files.exists(blobPath(hash));
+    }
+
+    public synchronized byte[] get(String hash) throws IOException {
+        if (!HASH.matcher(hash).matches()) {
+            throw new IOException("Not a blob hash: " + hash);
+        }
+        return Files.readAllBytes(blobPath(hash));
+    }
+
+    public synchronized boolean isAcknowledged(String hash) {
+        return acknowledged.contains(hash);
+    }
+
+    /** Records that the receiving end has the given blobs, and drops their content. */
+    public synchronized void acknowledge(Collection<String> hashes) throws IOException {
+        try (BufferedWriter index =
+                Files.newBufferedWriter(
+                        directory.resolve(ACKNOWLEDGED_FILE),
+                        StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND)) {
+            for (String hash : hashes) {
+                if (!HASH.matcher(hash).matches() || !acknowledged.add(hash)) {
+                    continue;
+                }
+                index.write(hash);
+                index.newLine();
+                try {
+                    Files.deleteIfExists(blobPath(hash));
+                } catch (IOException ex) {
+                    logger.info("Could not drop acknowledged blob {}", hash);
+                }
+            }
+        }
+    }
+
+    public synchronized int getAcknowledgedCount() {
+        return acknowledged.size();
+    }
+
+    private Path blobPath(String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+}
@@ -0,0 +1,22 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Packs a batch of events into one payload for uploading, and unpacks it again.
+ *
+ * <p>Events are given as the JSON objects the event journal stores them as, with byte arrays as
+ * Base64 strings. Decoding a payload gives back equal objects in the same order.
+ */
+public interface EventBatchCodec {
+
+    /** The name the codec is negotiated with. */
+    String getName();
+
+    byte[] encode(List<JsonObject> events) throws IOException;
+
+    List<JsonObject> decode(byte[] payload) throws IOException;
+}
@@ -0,0 +1,53 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import com.google.common.base.Optional;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The event batch codecs the plugin can upload with, in order of preference.
+ *
+ * <p>A batch encoded with a codec is uploaded as a single event of type {@link
+ * #BATCH_EVENT_TYPE} whose data is the encoded batch. Servers that don't accept any of the codecs
+ * get the events one by one as before.
+ */
+public final class EventBatchCodecs {
+
+    public static final String BATCH_EVENT_TYPE = "event_batch";
+
+    private static final List<EventBatchCodec> PREFERRED =
+            Arrays.<EventBatchCodec>asList(
+                    new BinaryEventBatchCodec(true), new BinaryEventBatchCodec(false));
+
+    private EventBatchCodecs() {}
+
+    public static List<String> getNames() {
+        List<String> names = new ArrayList<>();
+        for (EventBatchCodec codec : PREFERRED) {
+            names.add(codec.getName());
+        }
+        return names;
+    }
+
+    public static Optional<EventBatchCodec> forName(String name) {
+        for (EventBatchCodec codec : PREFERRED) {
+            if (codec.getName().equals(name)) {
+                return Optional.of(codec);
+            }
+        }
+        return Optional.absent();
+    }
+
+    /** Picks the most preferred codec the server accepts, if any. */
+    public static Optional<EventBatchCodec> negotiate(Collection<String> accepted) {
+        for (EventBatchCodec codec : PREFERRED) {
+            if (accepted.contains(codec.getName())) {
+                return Optional.of(codec);
+            }
+        }
+        return Optional.absent();
+    }
+}
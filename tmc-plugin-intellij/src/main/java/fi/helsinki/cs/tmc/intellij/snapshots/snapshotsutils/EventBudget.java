@@ -0,0 +1,210 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how many events per second, bytes of queued events and milliseconds of CPU time per
+ * minute the snapshot subsystem may use.
+ *
+ * <p>The worst of the three, relative to its limit, decides the {@link Stage}. Each stage gives
+ * up more than the one before it, and the parts of the subsystem check the stage before doing
+ * their work. The stage is raised as soon as the budget is exceeded, but lowered only after the
+ * usage has stayed lower for {@link #COOL_DOWN} milliseconds, so it doesn't flap. Everything that
+ * was degraded is counted by stage and kind.
+ */
+public class EventBudget {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventBudget.class);
+
+    public static final int DEFAULT_EVENTS_PER_SECOND = 100;
+    public static final long DEFAULT_QUEUED_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_CPU_MILLIS_PER_MINUTE = 6000;
+
+    static final long COOL_DOWN = 5000;
+    /** One event in this many is kept while sampling. */
+    static final int SAMPLE_RATE = 10;
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /** How far the subsystem has degraded, from not at all to keeping only a sample of events. */
+    public enum Stage {
+        /** Everything is recorded as usual. */
+        NORMAL,
+        /** Changes are merged over longer windows. */
+        COALESCE,
+        /** Events carry only metadata instead of snapshots and patches. */
+        METADATA_ONLY,
+        /** Only a sample of the events is kept. */
+        SAMPLE;
+
+        public boolean atLeast(Stage other) {
+            return compareTo(other) >= 0;
+        }
+    }
+
+    private final LongSupplier clock;
+    private final SlidingCounter events = new SlidingCounter(100, 10);
+    private final SlidingCounter cpuNanos = new SlidingCounter(1000, 60);
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private final Map<String, AtomicLong> degraded = new ConcurrentHashMap<>();
+
+    private volatile int eventsPerSecond = DEFAULT_EVENTS_PER_SECOND;
+    private volatile long maxQueuedBytes = DEFAULT_QUEUED_BYTES;
+    private volatile long cpuMillisPerMinute = DEFAULT_CPU_MILLIS_PER_MINUTE;
+
+    private Stage stage = Stage.NORMAL;
+    private long lastExceededAt;
+
+    public EventBudget() {
+        this(System::currentTimeMillis);
+    }
+
+    public EventBudget(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /** Sets the limits. Limits that aren't positive are left at their defaults. */
+    public void setLimits(int eventsPerSecond, long maxQueuedBytes, long cpuMillisPerMinute) {
+        this.eventsPerSecond = eventsPerSecond > 0 ? eventsPerSecond : DEFAULT_EVENTS_PER_SECOND;
+        this.maxQueuedBytes = maxQueuedBytes > 0 ? maxQueuedBytes : DEFAULT_QUEUED_BYTES;
+        this.cpuMillisPerMinute =
+                cpuMillisPerMinute > 0 ? cpuMillisPerMinute : DEFAULT_CPU_MILLIS_PER_MINUTE;
+    }
+
+    public void recordEvent() {
+        events.add(clock.getAsLong(), 1);
+    }
+
+    /** Adds to, or with a negative value takes from, the bytes of events waiting in memory. */
+    public void addQueuedBytes(long bytes) {
+        queuedBytes.addAndGet(bytes);
+    }
+
+    public void recordCpu(long nanos) {
+        if (nanos > 0) {
+            cpuNanos.add(clock.getAsLong(), nanos);
+        }
+    }
+
+    /** The CPU time the current thread has used, or 0 if the JVM can't tell. */
+    public static long currentThreadCpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    public synchronized Stage getStage() {
+        long now = clock.getAsLong();
+        Stage target = stageFor(getPressure(now));
+        if (target.atLeast(stage)) {
+            lastExceededAt = now;
+        }
+        if (target.compareTo(stage) > 0
+                || (target.compareTo(stage) < 0 && now - lastExceededAt >= COOL_DOWN)) {
+            logger.info(
+                    "Snapshot budget stage {} -> {}: {} events/s, {} bytes queued, {} ms CPU/min",
+                    stage,
+                    target,
+                    events.sum(now),
+                    queuedBytes.get(),
+                    TimeUnit.NANOSECONDS.toMillis(cpuNanos.sum(now)));
+            stage = target;
+        }
+        return stage;
+    }
+
+    /** The usage relative to the budget; above 1 the budget is exceeded. */
+    private double getPressure(long now) {
+        double eventPressure = events.sum(now) / (double) eventsPerSecond;
+        double queuePressure = queuedBytes.get() / (double) maxQueuedBytes;
+        double cpuPressure =
+                TimeUnit.NANOSECONDS.toMillis(cpuNanos.sum(now)) / (double) cpuMillisPerMinute;
+        return Math.max(eventPressure, Math.max(queuePressure, cpuPressure));
+    }
+
+    private static Stage stageFor(double pressure) {
+        if (pressure <= 1) {
+            return Stage.NORMAL;
+        } else if (pressure <= 2) {
+            return Stage.COALESCE;
+        } else if (pressure <= 4) {
+            return Stage.METADATA_ONLY;
+        }
+        return Stage.SAMPLE;
+    }
+
+    /** While sampling, tells whether the next event is one of those kept. */
+    public boolean sample() {
+        return sampled.incrementAndGet() % SAMPLE_RATE == 0;
+    }
+
+    /** Records that something of the given kind was degraded at the given stage. */
+    public void recordDegraded(Stage stage, String kind) {
+        String key = stage.name().toLowerCase() + ":" + kind;
+        degraded.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /** How many times each kind of thing was degraded, keyed by stage and kind. */
+    public Map<String, Long> getDegradedCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : degraded.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    public long getEventsLastSecond() {
+        return events.sum(clock.getAsLong());
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public long getCpuMillisLastMinute() {
+        return TimeUnit.NANOSECONDS.toMillis(cpuNanos.sum(clock.getAsLong()));
+    }
+
+    /** Sums the amounts added within the last {@code buckets * bucketMillis} milliseconds. */
+    private static class SlidingCounter {
+        private final long bucketMillis;
+        private final long[] amounts;
+        private final long[] bucketStarts;
+
+        private SlidingCounter(long bucketMillis, int buckets) {
+            this.bucketMillis = bucketMillis;
+            this.amounts = new long[buckets];
+            this.bucketStarts = new long[buckets];
+        }
+
+        private synchronized void add(long now, long amount) {
+            long start = now - now % bucketMillis;
+            int index = (int) ((start / bucketMillis) % amounts.length);
+            if (bucketStarts[index] != start) {
+                bucketStarts[index] = start;
+                amounts[index] = 0;
+            }
+            amounts[index] += amount;
+        }
+
+        private synchronized long sum(long now) {
+            long oldest = now - now % bucketMillis - (amounts.length - 1) * bucketMillis;
+            long sum = 0;
+            for (int i = 0; i < amounts.length; i++) {
+                if (bucketStarts[i] >= oldest) {
+                    sum += amounts[i];
+                }
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hands items from any number of producer threads to one consumer in batches.
+ *
+ * <p>Producers only append to a lock-free queue. The first producer to find the consumer idle
+ * starts a drain on the executor; the drain takes up to {@code maxBatchSize} items at a time and
+ * keeps going until the queue is empty, so at most one drain runs at once and items are consumed
+ * in the order they were added.
+ */
+public class EventIngestionPipeline<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventIngestionPipeline.class);
+
+    private final Queue<Queued<T>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final Consumer<List<T>> batchConsumer;
+    private final Executor executor;
+    private final int maxBatchSize;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong ingested = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong largestBatch = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final long createdAt = System.nanoTime();
+
+    public EventIngestionPipeline(
+            Consumer<List<T>> batchConsumer, Executor executor, int maxBatchSize) {
+        this.batchConsumer = batchConsumer;
+        this.executor = executor;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void add(T item) {
+        queue.add(new Queued<>(item, System.nanoTime()));
+        received.incrementAndGet();
+        startDrain();
+    }
+
+    private void startDrain() {
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            List<Queued<T>> batch = nextBatch();
+            while (!batch.isEmpty()) {
+                consume(batch);
+                batch = nextBatch();
+            }
+        } finally {
+            draining.set(false);
+        }
+        // An item added after the last poll but before the flag was cleared would wait otherwise.
+        if (!queue.isEmpty()) {
+            startDrain();
+        }
+    }
+
+    private List<Queued<T>> nextBatch() {
+        List<Queued<T>> batch = new ArrayList<>();
+        Queued<T> queued;
+        while (batch.size() < maxBatchSize && (queued = queue.poll()) != null) {
+            batch.add(queued);
+        }
+        return batch;
+    }
+
+    private void consume(List<Queued<T>> batch) {
+        List<T> items = new ArrayList<>(batch.size());
+        for (Queued<T> queued : batch) {
+            items.add(queued.item);
+        }
+        try {
+            batchConsumer.accept(items);
+        } catch (RuntimeException ex) {
+            logger.warn("Failed to consume a batch of " + items.size() + " events.", ex);
+        }
+
+        long now = System.nanoTime();
+        for (Queued<T> queued : batch) {
+            long latency = now - queued.addedAt;
+            totalLatencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        }
+        ingested.addAndGet(batch.size());
+        batches.incrementAndGet();
+        largestBatch.accumulateAndGet(batch.size(), Math::max);
+        logger.debug("Ingested a batch of {} events.", batch.size());
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    public long getIngestedCount() {
+        return ingested.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getLargestBatchSize() {
+        return largestBatch.get();
+    }
+
+    public double getAverageBatchSize() {
+        long batchCount = batches.get();
+        return batchCount == 0 ? 0 : (double) ingested.get() / batchCount;
+    }
+
+    /** Average time in milliseconds from adding an item to it being consumed. */
+    public double getAverageLatencyMillis() {
+        long count = ingested.get();
+        return count == 0 ? 0 : totalLatencyNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    /** Consumed items per second since the pipeline was created. */
+    public double getIngestionRate() {
+        long elapsed = System.nanoTime() - createdAt;
+        return elapsed <= 0 ? 0 : ingested.get() / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private static class Queued<T> {
+        private final T item;
+        private final long addedAt;
+
+        private Queued(T item, long addedAt) {
+            this.item = item;
+            this.addedAt = addedAt;
+        }
+    }
+}
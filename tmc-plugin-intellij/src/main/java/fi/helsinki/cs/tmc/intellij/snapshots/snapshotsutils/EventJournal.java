@@ -0,0 +1,401 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of records on disk, kept until they are acknowledged.
+ *
+ * <p>Records are appended to memory-mapped segment files, so appending costs a copy into the page
+ * cache instead of rewriting a store, and a record that has been appended survives the IDE
+ * crashing. Every record has an offset; acknowledging an offset marks every record before it as
+ * done. The acknowledged offset is kept in its own small mapped file. Segments whose records have
+ * all been acknowledged are deleted by {@link #compact()}.
+ *
+ * <p>Each record is stored as its length, its CRC-32 and its bytes. When the journal is opened the
+ * segments are scanned and a record that was only partly written is dropped along with anything
+ * after it, so the unacknowledged records can be replayed with {@link #read}.
+ */
+public class EventJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String ACKNOWLEDGED_FILE = "acknowledged";
+    private static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final List<Path> undeleted = new ArrayList<>();
+    private final FileChannel acknowledgedChannel;
+    private final MappedByteBuffer acknowledgedBuffer;
+
+    private Segment active;
+    private long acknowledged;
+
+    public EventJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public EventJournal(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        acknowledgedChannel =
+                FileChannel.open(
+                        directory.resolve(ACKNOWLEDGED_FILE),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        acknowledgedBuffer = acknowledgedChannel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        acknowledged = acknowledgedBuffer.getLong(0);
+
+        recover();
+        compact();
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long base =
+                        Long.parseLong(
+                                name.substring(
+                                        SEGMENT_PREFIX.length(),
+                                        name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(base, Segment.recover(file, base));
+            }
+        }
+
+        if (!segments.isEmpty()) {
+            Segment last = segments.lastEntry().getValue();
+            last.openForAppend();
+            active = last;
+        }
+        logger.info(
+                "Opened event journal with {} segments, {} bytes unacknowledged.",
+                segments.size(),
+                getPendingBytes());
+    }
+
+    /** Appends a record and returns its offset. */
+    public synchronized long append(byte[] record) throws IOException {
+        if (active == null || active.remaining() < HEADER_SIZE + record.length) {
+            roll(record.length);
+        }
+        return active.append(record);
+    }
+
+    private void roll(int recordLength) throws IOException {
+        long base = getEndOffset();
+        if (active != null) {
+            active.seal();
+        }
+        int size = Math.max(segmentSize, HEADER_SIZE + recordLength + 4);
+        Path file =
+                directory.resolve(
+                        String.format("%s%020d%s", SEGMENT_PREFIX, base, SEGMENT_SUFFIX));
+        active = Segment.create(file, base, size);
+        segments.put(base, active);
+    }
+
+    /**
+     * Reads records starting at the given offset, at most {@code maxRecords} of them and, unless
+     * the first record alone is bigger, at most {@code maxBytes} bytes.
+     */
+    public synchronized List<Entry> read(long offset, int maxRecords, long maxBytes)
+            throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long bytes = 0;
+        Map.Entry<Long, Segment> first = segments.floorEntry(offset);
+        if (first == null) {
+            first = segments.ceilingEntry(offset);
+        }
+        if (first == null) {
+            return entries;
+        }
+
+        for (Segment segment : segments.tailMap(first.getKey(), true).values()) {
+            long position = Math.max(0, offset - segment.base);
+            while (position < segment.end && entries.size() < maxRecords) {
+                Entry entry = segment.read(position);
+                if (!entries.isEmpty() && bytes + entry.data.length > maxBytes) {
+                    return entries;
+                }
+                entries.add(entry);
+                bytes += entry.data.length;
+                position = entry.nextOffset - segment.base;
+            }
+            if (entries.size() >= maxRecords) {
+                break;
+            }
+        }
+        return entries;
+    }
+
+    /** Marks every record before the given offset as acknowledged. */
+    public synchronized void acknowledge(long offset) {
+        if (offset <= acknowledged) {
+            return;
+        }
+        acknowledged = offset;
+        acknowledgedBuffer.putLong(0, offset);
+    }
+
+    /** Deletes the segments whose records have all been acknowledged. */
+    public synchronized void compact() {
+        Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment == active || segment.base + segment.end > acknowledged) {
+                continue;
+            }
+            iterator.remove();
+            segment.close();
+            undeleted.add(segment.file);
+        }
+
+        // Mapped files can't be deleted on Windows until the mapping has been collected.
+        Iterator<Path> files = undeleted.iterator();
+        while (files.hasNext()) {
+            Path file = files.next();
+            try {
+                Files.deleteIfExists(file);
+                files.remove();
+            } catch (IOException ex) {
+                logger.info("Could not delete journal segment {} yet.", file);
+            }
+        }
+    }
+
+    /** Forces the appended records and the acknowledged offset to disk. */
+    public synchronized void sync() {
+        if (active != null) {
+            active.force();
+        }
+        acknowledgedBuffer.force();
+    }
+
+    public synchronized long getAcknowledgedOffset() {
+        return acknowledged;
+    }
+
+    /** The offset the next record will get. */
+    public synchronized long getEndOffset() {
+        if (active != null) {
+            return active.base + active.end;
+        }
+        return segments.isEmpty() ? acknowledged : segments.lastEntry().getValue().endOffset();
+    }
+
+    public synchronized long getPendingBytes() {
+        return Math.max(0, getEndOffset() - acknowledged);
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        acknowledgedChannel.close();
+    }
+
+    /** A record read from the journal. */
+    public static class Entry {
+        private final long offset;
+        private final long nextOffset;
+        private final byte[] data;
+
+        private Entry(long offset, long nextOffset, byte[] data) {
+            this.offset = offset;
+            this.nextOffset = nextOffset;
+            this.data = data;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        /** The offset to acknowledge once this record has been handled. */
+        public long getNextOffset() {
+            return nextOffset;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private static class Segment {
+        private final Path file;
+        private final long base;
+        private long end;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+
+        private Segment(Path file, long base, long end) {
+            this.file = file;
+            this.base = base;
+            this.end = end;
+        }
+
+        private static Segment create(Path file, long base, int size) throws IOException {
+            Segment segment = new Segment(file, base, 0);
+            segment.channel =
+                    FileChannel.open(
+                            file,
+                            StandardOpenOption.CREATE_NEW,
+                            StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+            segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return segment;
+        }
+
+        /** Finds where the intact records of an existing segment end. */
+        private static Segment recover(Path file, long base) throws IOException {
+            Segment segment = new Segment(file, base, 0);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long position = 0;
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (position + HEADER_SIZE <= size) {
+                    header.clear();
+                    readFully(channel, header, position);
+                    int length = header.getInt(0);
+                    if (length <= 0 || position + HEADER_SIZE + length > size) {
+                        break;
+                    }
+                    ByteBuffer data = ByteBuffer.allocate(length);
+                    readFully(channel, data, position + HEADER_SIZE);
+                    if (crc(data.array()) != header.getInt(4)) {
+                        logger.warn("Dropping torn record at {} of {}", position, file);
+                        break;
+                    }
+                    position += HEADER_SIZE + length;
+                }
+                segment.end = position;
+            }
+            return segment;
+        }
+
+        private void openForAppend() throws IOException {
+            channel =
+                    FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+
+        private long remaining() {
+            return buffer.capacity() - end;
+        }
+
+        private long append(byte[] record) {
+            int position = (int) end;
+            buffer.putInt(position, record.length);
+            buffer.putInt(position + 4, crc(record));
+            ByteBuffer target = buffer.duplicate();
+            target.position(position + HEADER_SIZE);
+            target.put(record);
+            int next = position + HEADER_SIZE + record.length;
+            // Clear what a torn write before a restart may have left, so it isn't read as a record.
+            if (next + 4 <= buffer.capacity()) {
+                buffer.putInt(next, 0);
+            }
+            end = next;
+            return base + position;
+        }
+
+        private Entry read(long position) throws IOException {
+            FileChannel reader = channel;
+            boolean temporary = reader == null;
+            if (temporary) {
+                reader = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                readFully(reader, header, position);
+                int length = header.getInt(0);
+                ByteBuffer data = ByteBuffer.allocate(length);
+                readFully(reader, data, position + HEADER_SIZE);
+                return new Entry(
+                        base + position,
+                        base + position + HEADER_SIZE + length,
+                        data.array());
+            } finally {
+                if (temporary) {
+                    reader.close();
+                }
+            }
+        }
+
+        private long endOffset() {
+            return base + end;
+        }
+
+        private void force() {
+            if (buffer != null) {
+                buffer.force();
+            }
+        }
+
+        /** Stops appending to this segment, keeping its file for reading. */
+        private void seal() {
+            force();
+            close();
+        }
+
+        private void close() {
+            buffer = null;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    logger.warn("Could not close journal segment " + file, ex);
+                }
+                channel = null;
+            }
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer target, long position)
+                throws IOException {
+            while (target.hasRemaining()) {
+                int read = channel.read(target, position + target.position());
+                if (read < 0) {
+                    throw new IOException("Unexpected end of journal segment");
+                }
+            }
+        }
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,251 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Turns editor selection changes into intervals of time spent in each file, and hands them to the
+ * sink as a summary now and then instead of one event per switch.
+ *
+ * <p>A file that keeps the focus for less than the minimum dwell time, like the files passed by
+ * when cycling tabs with Ctrl+Tab, doesn't get an interval of its own; it is only counted as a
+ * skipped switch. Returning to the file of the previous interval after such short visits extends
+ * that interval. A summary is handed over every summary interval while a file has the focus or
+ * there are switches to report, when it holds {@link #MAX_INTERVALS} intervals or when {@link
+ * #flush()} is called. The file in focus at that moment is cut into the summary, and its interval
+ * continues in the next one.
+ *
+ * <p>The sink is never called with the lock of the tracker held. Focus changes come from the
+ * event dispatch thread, so the summaries they fill are handed over on the timer thread, like the
+ * ones of the summary interval; {@link #flush()} hands its summary over on the calling thread.
+ */
+public class FocusTracker {
+
+    public static final long DEFAULT_MIN_DWELL = 1000;
+    public static final long DEFAULT_SUMMARY_INTERVAL = 60 * 1000;
+
+    static final int MAX_INTERVALS = 100;
+
+    private static final ScheduledExecutorService defaultTimer =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Focus tracker")
+                            .setDaemon(true)
+                            .build());
+
+    private final Consumer<FocusSummary> sink;
+    private final ScheduledExecutorService timer;
+    private final LongSupplier clock;
+    private final long minDwell;
+    private final long summaryInterval;
+
+    private String focused;
+    private long focusedSince;
+    private long summaryStartedAt;
+    private final List<FocusInterval> intervals = new ArrayList<>();
+    private int switches;
+    private int skipped;
+    private boolean summaryScheduled;
+
+    public FocusTracker(Consumer<FocusSummary> sink) {
+        this(
+                sink,
+                defaultTimer,
+                System::currentTimeMillis,
+                DEFAULT_MIN_DWELL,
+                DEFAULT_SUMMARY_INTERVAL);
+    }
+
+    public FocusTracker(
+            Consumer<FocusSummary> sink,
+            ScheduledExecutorService timer,
+            LongSupplier clock,
+            long minDwell,
+            long summaryInterval) {
+        this.sink = sink;
+        this.timer = timer;
+        this.clock = clock;
+        this.minDwell = minDwell;
+        this.summaryInterval = summaryInterval;
+    }
+
+    /** Moves the focus to the given file, or away from all files if it is null. */
+    public void focus(String file) {
+        FocusSummary full;
+        synchronized (this) {
+            if (file != null && file.equals(focused)) {
+                return;
+            }
+            long now = clock.getAsLong();
+            if (focused != null) {
+                switches++;
+                close(now);
+            } else if (switches == 0 && intervals.isEmpty()) {
+                summaryStartedAt = now;
+            }
+            focused = file;
+            focusedSince = now;
+
+            if (intervals.size() < MAX_INTERVALS) {
+                if (focused != null || switches > 0) {
+                    scheduleSummary();
+                }
+                return;
+            }
+            full = takeSummary();
+        }
+        timer.execute(() -> deliver(full));
+    }
+
+    /** Hands the intervals so far, including the one going on, to the sink. */
+    public void flush() {
+        deliver(takeSummary());
+    }
+
+    /** Cuts the intervals so far into a summary, or returns null if there is nothing to tell. */
+    private synchronized FocusSummary takeSummary() {
+        long now = clock.getAsLong();
+        if (focused != null && now - focusedSince >= minDwell) {
+            close(now);
+            focusedSince = now;
+        }
+        if (intervals.isEmpty() && skipped == 0) {
+            return null;
+        }
+        FocusSummary summary =
+                new FocusSummary(
+                        new ArrayList<>(intervals), switches, skipped, summaryStartedAt, now);
+        intervals.clear();
+        switches = 0;
+        skipped = 0;
+        summaryStartedAt = now;
+        return summary;
+    }
+
+    private void deliver(FocusSummary summary) {
+        if (summary != null) {
+            sink.accept(summary);
+        }
+    }
+
+    private void close(long now) {
+        long dwell = now - focusedSince;
+        if (dwell < minDwell) {
+            skipped++;
+            return;
+        }
+        FocusInterval last = intervals.isEmpty() ? null : intervals.get(intervals.size() - 1);
+        if (last != null && last.file.equals(focused)) {
+            last.dwell += dwell;
+        } else {
+            intervals.add(new FocusInterval(focused, focusedSince, dwell));
+        }
+    }
+
+    private void scheduleSummary() {
+        if (summaryScheduled) {
+            return;
+        }
+        summaryScheduled = true;
+        timer.schedule(this::summarize, summaryInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void summarize() {
+        FocusSummary summary;
+        synchronized (this) {
+            summaryScheduled = false;
+            summary = takeSummary();
+            if (focused != null) {
+                scheduleSummary();
+            }
+        }
+        deliver(summary);
+    }
+
+    /** The time spent in a file without switching to another one for long. */
+    public static class FocusInterval {
+        private final String file;
+        private final long startedAt;
+        private long dwell;
+
+        private FocusInterval(String file, long startedAt, long dwell) {
+            this.file = file;
+            this.startedAt = startedAt;
+            this.dwell = dwell;
+        }
+
+        public String getFile() {
+            return file;
+        }
+
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        public long getDwell() {
+            return dwell;
+        }
+    }
+
+    /** The focus intervals between two summaries. */
+    public static class FocusSummary {
+        private final List<FocusInterval> intervals;
+        private final int switches;
+        private final int skipped;
+        private final long startedAt;
+        private final long endedAt;
+
+        private FocusSummary(
+                List<FocusInterval> intervals,
+                int switches,
+                int skipped,
+                long startedAt,
+                long endedAt) {
+            this.intervals = Collections.unmodifiableList(intervals);
+            this.switches = switches;
+            this.skipped = skipped;
+            this.startedAt = startedAt;
+            this.endedAt = endedAt;
+        }
+
+        public List<FocusInterval> getIntervals() {
+            return intervals;
+        }
+
+        /** The total dwell time of each file, in the order the files were first focused. */
+        public Map<String, Long> getDwellByFile() {
+            Map<String, Long> dwell = new LinkedHashMap<>();
+            for (FocusInterval interval : intervals) {
+                dwell.merge(interval.file, interval.dwell, Long::sum);
+            }
+            return dwell;
+        }
+
+        public int getSwitchCount() {
+            return switches;
+        }
+
+        /** How many files got the focus for less than the minimum dwell time. */
+        public int getSkippedCount() {
+            return skipped;
+        }
+
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        public long getEndedAt() {
+            return endedAt;
+        }
+    }
+}
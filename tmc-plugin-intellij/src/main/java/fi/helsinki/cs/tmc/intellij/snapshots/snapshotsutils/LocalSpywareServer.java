@@ -0,0 +1,287 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A snapshot server for load testing the send path on the local machine.
+ *
+ * <p>It answers {@code GET codecs} with the codecs and formats it was created with, and takes
+ * event uploads, gzipped or not, as posted by {@code SendEventLogJob} of tmc-core to any other
+ * path. Event batches are decoded into their events and blob snapshots are rebuilt, so every
+ * upload is checked like a real server would. Each received event is handed to the event listener
+ * as the JSON it was uploaded as.
+ *
+ * <p>To exercise retries, a part of the uploads can be failed on purpose and every response can
+ * be delayed.
+ */
+public class LocalSpywareServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalSpywareServer.class);
+
+    private static final String CODECS_PATH = "/codecs";
+
+    private final Collection<String> acceptedCodecs;
+    private final BlobSnapshotReceiver blobReceiver;
+    private final EventBatchCodec batchDecoder = new BinaryEventBatchCodec(false);
+    private final Random random = new Random();
+    private final Map<String, AtomicLong> eventCounts = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    private volatile Consumer<JsonObject> eventListener = event -> {};
+    private volatile double failureRate;
+    private volatile long responseDelay;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+
+    public LocalSpywareServer(BlobStore blobStore, Collection<String> acceptedCodecs) {
+        this.blobReceiver = new BlobSnapshotReceiver(blobStore);
+        this.acceptedCodecs = new ArrayList<>(acceptedCodecs);
+    }
+
+    /** Starts listening on a free port of the loopback interface. Returns the spyware URL. */
+    public synchronized URI start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        handlers =
+                Executors.newCachedThreadPool(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("Local spyware server %d")
+                                .setDaemon(true)
+                                .build());
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+        server.start();
+        logger.info("Local spyware server listening at {}", getUrl());
+        return getUrl();
+    }
+
+    public URI getUrl() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/spyware");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            sleep(responseDelay);
+            if (exchange.getRequestURI().getPath().endsWith(CODECS_PATH)) {
+                respond(exchange, 200, String.join(",", acceptedCodecs));
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "");
+                return;
+            }
+
+            requests.incrementAndGet();
+            byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+            receivedBytes.addAndGet(body.length);
+            if (random.nextDouble() < failureRate) {
+                failedRequests.incrementAndGet();
+                respond(exchange, 500, "Failed on purpose");
+                return;
+            }
+            try {
+                receive(body);
+            } catch (IOException | RuntimeException ex) {
+                logger.warn("Rejecting malformed upload.", ex);
+                rejectedRequests.incrementAndGet();
+                respond(exchange, 400, String.valueOf(ex.getMessage()));
+                return;
+            }
+            respond(exchange, 200, "{}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void receive(byte[] body) throws IOException {
+        JsonElement json = new JsonParser().parse(new String(unzip(body), StandardCharsets.UTF_8));
+        JsonArray events;
+        if (json.isJsonArray()) {
+            events = json.getAsJsonArray();
+        } else if (json.isJsonObject()) {
+            events = new JsonArray();
+            events.add(json);
+        } else {
+            throw new IOException("Upload is not a list of events");
+        }
+        for (JsonElement element : events) {
+            JsonObject event = element.getAsJsonObject();
+            String type = getString(event, "eventType");
+            if (EventBatchCodecs.BATCH_EVENT_TYPE.equals(type)) {
+                for (JsonObject batched : batchDecoder.decode(getData(event))) {
+                    received(batched);
+                }
+            } else {
+                if ("code_snapshot".equals(type) && isBlobSnapshot(event)) {
+                    synchronized (blobReceiver) {
+                        blobReceiver.receive(getData(event));
+                    }
+                }
+                received(event);
+            }
+        }
+    }
+
+    private void received(JsonObject event) {
+        String type = getString(event, "eventType");
+        eventCounts.computeIfAbsent(String.valueOf(type), t -> new AtomicLong()).incrementAndGet();
+        eventListener.accept(event);
+    }
+
+    private static byte[] unzip(byte[] body) throws IOException {
+        if (body.length < 2 || (body[0] & 0xff) != 0x1f || (body[1] & 0xff) != 0x8b) {
+            return body;
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private static boolean isBlobSnapshot(JsonObject event) {
+        String metadata = getString(event, "metadata");
+        if (metadata == null) {
+            return false;
+        }
+        JsonElement parsed = new JsonParser().parse(metadata);
+        return parsed.isJsonObject()
+                && BlobSnapshotFormat.NAME.equals(
+                        getString(parsed.getAsJsonObject(), "snapshot_format"));
+    }
+
+    private static byte[] getData(JsonObject event) throws IOException {
+        String data = getString(event, "data");
+        if (data == null) {
+            throw new IOException("Event has no data");
+        }
+        try {
+            return Base64.getMimeDecoder().decode(data);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Event data is not Base64", ex);
+        }
+    }
+
+    private static String getString(JsonObject object, String member) {
+        JsonElement element = object.get(member);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Sets what is told about each received event, on the thread that received it. */
+    public void setEventListener(Consumer<JsonObject> eventListener) {
+        this.eventListener = eventListener;
+    }
+
+    /** Sets the part of the uploads, from 0 to 1, that are failed with status 500. */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /** Sets how long every request waits before being answered. */
+    public void setResponseDelay(long responseDelay) {
+        this.responseDelay = responseDelay;
+    }
+
+    /** The number of received events of each type, batched events counted one by one. */
+    public Map<String, Long> getEventCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : eventCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    public long getEventCount() {
+        long count = 0;
+        for (AtomicLong typeCount : eventCounts.values()) {
+            count += typeCount.get();
+        }
+        return count;
+    }
+
+    /** The number of uploads, including the failed and rejected ones. */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getFailedRequestCount() {
+        return failedRequests.get();
+    }
+
+    public long getRejectedRequestCount() {
+        return rejectedRequests.get();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    public BlobSnapshotReceiver getBlobReceiver() {
+        return blobReceiver;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            handlers.shutdownNow();
+            server = null;
+        }
+    }
+}
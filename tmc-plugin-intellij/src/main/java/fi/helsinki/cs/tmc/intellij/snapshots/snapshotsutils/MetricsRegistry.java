@@ -0,0 +1,210 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and histograms.
+ *
+ * <p>Counters and histograms are created on first use and are cheap enough to update on every
+ * event. Gauges are read only when the metrics are reported.
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /** Registers a gauge, replacing any earlier one of the same name. */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    public Map<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        JsonObject counterJson = new JsonObject();
+        for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+            counterJson.addProperty(entry.getKey(), entry.getValue());
+        }
+        JsonObject gaugeJson = new JsonObject();
+        for (Map.Entry<String, Long> entry : getGauges().entrySet()) {
+            gaugeJson.addProperty(entry.getKey(), entry.getValue());
+        }
+        JsonObject histogramJson = new JsonObject();
+        for (Map.Entry<String, Histogram> entry : getHistograms().entrySet()) {
+            histogramJson.add(entry.getKey(), entry.getValue().toJson());
+        }
+        json.add("counters", counterJson);
+        json.add("gauges", gaugeJson);
+        json.add("histograms", histogramJson);
+        return json;
+    }
+
+    /** The metrics as lines of text, one metric per line. */
+    public String format() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+            text.append(String.format("%-40s %d%n", entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, Long> entry : getGauges().entrySet()) {
+            text.append(String.format("%-40s %d%n", entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, Histogram> entry : getHistograms().entrySet()) {
+            Histogram histogram = entry.getValue();
+            text.append(
+                    String.format(
+                            "%-40s count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d%n",
+                            entry.getKey(),
+                            histogram.getCount(),
+                            histogram.getMean(),
+                            histogram.getPercentile(50),
+                            histogram.getPercentile(90),
+                            histogram.getPercentile(99),
+                            histogram.getMax()));
+        }
+        return text.toString();
+    }
+
+    public static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Counts values into buckets that split each power of two in four, so percentiles are off by
+     * at most a quarter of the value. Negative values are recorded as zero.
+     */
+    public static class Histogram {
+        private static final int SUB_BUCKETS = 4;
+        private static final int BUCKETS = SUB_BUCKETS * 63;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(indexOf(value));
+            count.increment();
+            sum.add(value);
+            long previous;
+            while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+                // Another thread raised the maximum, try again.
+            }
+        }
+
+        static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS * (exponent - 1) + sub;
+        }
+
+        /** The largest value that falls into the bucket of the given index. */
+        static long upperBoundOf(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + 1;
+            int sub = index % SUB_BUCKETS;
+            long width = 1L << (exponent - 2);
+            return (1L << exponent) + (sub + 1) * width - 1;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n = getCount();
+            return n == 0 ? 0 : getSum() / (double) n;
+        }
+
+        /** The value below which the given percent of the recorded values fall, roughly. */
+        public long getPercentile(double percent) {
+            long n = getCount();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(n * percent / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        private JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("count", getCount());
+            json.addProperty("sum", getSum());
+            json.addProperty("mean", getMean());
+            json.addProperty("p50", getPercentile(50));
+            json.addProperty("p90", getPercentile(90));
+            json.addProperty("p99", getPercentile(99));
+            json.addProperty("max", getMax());
+            return json;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Zips a project like {@link RecursiveZipper}, but compresses the files concurrently.
+ *
+ * <p>The project is walked once with {@link Files#walkFileTree}, each file is deflated into its
+ * own buffer by the worker pool and the buffers are then written out in the order of their zip
+ * paths. The archive is therefore byte for byte the same for the same files, no matter in which
+ * order the workers finish.
+ */
+public class ParallelZipper {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelZipper.class);
+
+    /**
+     * Like the snapshot workers, the compressors use at most two cores, so that zipping doesn't
+     * compete with the IDE while the user is typing.
+     */
+    private static final int DEFAULT_COMPRESSORS =
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final ExecutorService defaultCompressors =
+            Executors.newFixedThreadPool(
+                    DEFAULT_COMPRESSORS,
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Snapshot compressor %d")
+                            .setDaemon(true)
+                            .build());
+
+    private final Path rootDir;
+    private final RecursiveZipper.ZippingDecider zippingDecider;
+    private final ZipEntryCache entryCache;
+    private final ExecutorService compressors;
+    private final AtomicLong cpuNanos = new AtomicLong();
+
+    public ParallelZipper(File rootDir, RecursiveZipper.ZippingDecider zippingDecider) {
+        this(rootDir, zippingDecider, new ZipEntryCache());
+    }
+
+    public ParallelZipper(
+            File rootDir, RecursiveZipper.ZippingDecider zippingDecider, ZipEntryCache entryCache) {
+        this(rootDir, zippingDecider, entryCache, defaultCompressors);
+    }
+
+    public ParallelZipper(
+            File rootDir,
+            RecursiveZipper.ZippingDecider zippingDecider,
+            ZipEntryCache entryCache,
+            ExecutorService compressors) {
+        this.rootDir = rootDir.toPath();
+        this.zippingDecider = zippingDecider;
+        this.entryCache = entryCache;
+        this.compressors = compressors;
+    }
+
+    /** Zip up a project directory, only including stuff decided by the ZippingDecider. */
+    public byte[] zipProjectSources() throws IOException {
+        ByteArrayOutputStream zipBuffer = new ByteArrayOutputStream();
+        zipProjectSources(zipBuffer);
+        return zipBuffer.toByteArray();
+    }
+
+    /** Zips the project into the given file. Returns the size of the written archive. */
+    public long zipProjectSources(Path target) throws IOException {
+        try (OutputStream out = openTarget(target)) {
+            zipProjectSources(out);
+        }
+        return Files.size(target);
+    }
+
+    /**
+     * Zips the project into the given file, unless the fingerprint of the files to zip equals the
+     * given one, in which case the file is left as it is. Returns the fingerprint of the files.
+     *
+     * <p>The fingerprint is a hash over the zip paths of the directories and the zip paths and
+     * content hashes of the files, so it changes when a file is added, removed, renamed or edited,
+     * but not when a file is only touched.
+     */
+    public HashCode zipProjectSourcesIfChanged(Path target, HashCode previousFingerprint)
+            throws IOException {
+        List<Entry> entries = compress();
+        try {
+            HashCode fingerprint = fingerprint(entries);
+            if (fingerprint.equals(previousFingerprint)) {
+                retainCached(entries);
+                return fingerprint;
+            }
+            try (OutputStream out = openTarget(target)) {
+                write(entries, out);
+            }
+            return fingerprint;
+        } finally {
+            cancel(entries);
+        }
+    }
+
+    private static OutputStream openTarget(Path target) throws IOException {
+        FileChannel channel =
+                FileChannel.open(
+                        target,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedOutputStream(Channels.newOutputStream(channel));
+    }
+
+    private void zipProjectSources(OutputStream out) throws IOException {
+        List<Entry> entries = compress();
+        try {
+            write(entries, out);
+        } finally {
+            cancel(entries);
+        }
+    }
+
+    /** Walks the project and starts compressing its files. */
+    private List<Entry> compress() throws IOException {
+        if (!Files.isDirectory(rootDir)) {
+            throw new FileNotFoundException(
+                    "Root directory " + rootDir + " not found for zipping!");
+        }
+
+        List<Entry> entries = walk();
+        for (Entry entry : entries) {
+            if (entry.isFile()) {
+                entry.compressed =
+                        compressors.submit(
+                                () -> {
+                                    long cpuStart = EventBudget.currentThreadCpuTime();
+                                    try {
+                                        return entryCache.get(
+                                                entry.zipPath,
+                                                entry.file.toFile(),
+                                                entry.size,
+                                                entry.lastModified);
+                                    } finally {
+                                        cpuNanos.addAndGet(
+                                                EventBudget.currentThreadCpuTime() - cpuStart);
+                                    }
+                                });
+            }
+        }
+        return entries;
+    }
+
+    /** The CPU time the workers have spent compressing for this zipper, in nanoseconds. */
+    public long getCpuNanos() {
+        return cpuNanos.get();
+    }
+
+    private void write(List<Entry> entries, OutputStream out) throws IOException {
+        RawZipWriter writer = new RawZipWriter(out);
+        for (Entry entry : entries) {
+            if (entry.isFile()) {
+                waitFor(entry).writeTo(writer, entry.zipPath);
+            } else {
+                writer.writeDirectory(entry.zipPath, entry.lastModified);
+            }
+        }
+        writer.finish();
+        retainCached(entries);
+    }
+
+    /**
+     * Hashes every entry into a leaf hash, and the leaf hashes in zip path order into the root,
+     * reusing the content hashes of the entry cache.
+     */
+    private HashCode fingerprint(List<Entry> entries) throws IOException {
+        Hasher root = Hashing.sha1().newHasher();
+        for (Entry entry : entries) {
+            Hasher leaf = Hashing.sha1().newHasher().putString(entry.zipPath, UTF_8);
+            if (entry.isFile()) {
+                leaf.putBytes(waitFor(entry).getHash().asBytes());
+            }
+            root.putBytes(leaf.hash().asBytes());
+        }
+        return root.hash();
+    }
+
+    private void retainCached(List<Entry> entries) {
+        Set<String> zipPaths = new HashSet<>();
+        for (Entry entry : entries) {
+            if (entry.isFile()) {
+                zipPaths.add(entry.zipPath);
+            }
+        }
+        entryCache.retainAll(zipPaths);
+    }
+
+    private static void cancel(List<Entry> entries) {
+        for (Entry entry : entries) {
+            if (entry.compressed != null) {
+                entry.compressed.cancel(false);
+            }
+        }
+    }
+
+    private ZipEntryCache.CompressedEntry waitFor(Entry entry) throws IOException {
+        try {
+            return entry.compressed.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + entry.zipPath, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Compressing " + entry.zipPath + " failed", ex.getCause());
+        }
+    }
+
+    /** Lists the directories and files to zip, sorted by their zip paths. */
+    private List<Entry> walk() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Files.walkFileTree(
+                rootDir,
+                EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(
+                            Path dir, BasicFileAttributes attrs) {
+                        String zipPath = zipPath(dir) + "/";
+                        if (!dir.equals(rootDir)
+                                && !zippingDecider.shouldZip(zipPath, dir, attrs)) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        entries.add(new Entry(zipPath, null, attrs));
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        String zipPath = zipPath(file);
+                        if (zippingDecider.shouldZip(zipPath, file, attrs)) {
+                            entries.add(new Entry(zipPath, file, attrs));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException ex)
+                            throws IOException {
+                        if (ex instanceof FileSystemLoopException) {
+                            logger.info("Not following symbolic link loop at {}", file);
+                            return FileVisitResult.CONTINUE;
+                        }
+                        throw ex;
+                    }
+                });
+        entries.sort(Comparator.comparing(entry -> entry.zipPath));
+        return entries;
+    }
+
+    private String zipPath(Path path) {
+        StringBuilder zipPath = new StringBuilder(rootDir.getFileName().toString());
+        for (Path part : rootDir.relativize(path)) {
+            if (!part.toString().isEmpty()) {
+                zipPath.append('/').append(part.toString());
+            }
+        }
+        return zipPath.toString();
+    }
+
+    private static class Entry {
+        private final String zipPath;
+        private final Path file;
+        private final long size;
+        private final long lastModified;
+        private Future<ZipEntryCache.CompressedEntry> compressed;
+
+        private Entry(String zipPath, Path file, BasicFileAttributes attrs) {
+            this.zipPath = zipPath;
+            this.file = file;
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+        }
+
+        private boolean isFile() {
+            return file != null;
+        }
+    }
+}
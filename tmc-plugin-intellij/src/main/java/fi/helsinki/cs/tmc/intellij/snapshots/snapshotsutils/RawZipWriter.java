@@ -0,0 +1,181 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a zip archive from entries that have already been compressed.
+ *
+ * <p>{@link java.util.zip.ZipOutputStream} always deflates the data it is given, so it can't be
+ * used to copy an entry that was deflated earlier. This writer only lays out the headers around
+ * the given bytes. Zip64 is not supported, which is fine for project sources.
+ */
+public class RawZipWriter implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int UTF8_NAMES = 0x0800;
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private final OutputStream out;
+    private final List<CentralRecord> records = new ArrayList<>();
+    private long written;
+
+    public RawZipWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /** Adds an entry for a directory. The name must end in a slash. */
+    public void writeDirectory(String name, long lastModified) throws IOException {
+        writeEntry(name, STORED, 0, 0, 0, lastModified, new byte[0]);
+    }
+
+    /**
+     * Adds an entry whose data is already compressed with the given method. For {@link #DEFLATED}
+     * the data must be raw deflate data without zlib headers.
+     */
+    public void writeEntry(
+            String name,
+            int method,
+            long crc,
+            long compressedSize,
+            long size,
+            long lastModified,
+            byte[] data)
+            throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        CentralRecord record =
+                new CentralRecord(
+                        nameBytes,
+                        method,
+                        crc,
+                        compressedSize,
+                        size,
+                        dosTime(lastModified),
+                        written);
+
+        writeInt(LOCAL_HEADER);
+        writeShort(VERSION);
+        writeShort(UTF8_NAMES);
+        writeShort(method);
+        writeInt(record.dosTime);
+        writeInt(crc);
+        writeInt(compressedSize);
+        writeInt(size);
+        writeShort(nameBytes.length);
+        writeShort(0);
+        write(nameBytes, 0, nameBytes.length);
+        write(data, 0, (int) compressedSize);
+
+        records.add(record);
+    }
+
+    /** Writes the central directory. Nothing may be added after this. */
+    public void finish() throws IOException {
+        long centralStart = written;
+        for (CentralRecord record : records) {
+            writeInt(CENTRAL_HEADER);
+            writeShort(VERSION);
+            writeShort(VERSION);
+            writeShort(UTF8_NAMES);
+            writeShort(record.method);
+            writeInt(record.dosTime);
+            writeInt(record.crc);
+            writeInt(record.compressedSize);
+            writeInt(record.size);
+            writeShort(record.name.length);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt(record.offset);
+            write(record.name, 0, record.name.length);
+        }
+        long centralSize = written - centralStart;
+
+        writeInt(END_OF_CENTRAL_DIRECTORY);
+        writeShort(0);
+        writeShort(0);
+        writeShort(records.size());
+        writeShort(records.size());
+        writeInt(centralSize);
+        writeInt(centralStart);
+        writeShort(0);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        written += length;
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        written += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xffff));
+        writeShort((int) ((value >>> 16) & 0xffff));
+    }
+
+    /** Converts a timestamp to the MS-DOS date and time used by zip headers. */
+    static long dosTime(long millis) {
+        LocalDateTime time =
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (time.getYear() - 1980) << 25)
+                | ((long) time.getMonthValue() << 21)
+                | ((long) time.getDayOfMonth() << 16)
+                | ((long) time.getHour() << 11)
+                | ((long) time.getMinute() << 5)
+                | ((long) time.getSecond() >> 1);
+    }
+
+    private static class CentralRecord {
+        private final byte[] name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long dosTime;
+        private final long offset;
+
+        private CentralRecord(
+                byte[] name,
+                int method,
+                long crc,
+                long compressedSize,
+                long size,
+                long dosTime,
+                long offset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dosTime = dosTime;
+            this.offset = offset;
+        }
+    }
+}
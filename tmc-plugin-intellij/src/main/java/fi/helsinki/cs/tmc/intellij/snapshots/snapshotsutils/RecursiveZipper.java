@@ -8,6 +8,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -22,6 +24,14 @@ public class RecursiveZipper {
          * slashes and don't have a starting slash. Directory paths always end in a slash.
          */
         boolean shouldZip(String zipPath);
+
+        /**
+         * Like {@link #shouldZip(String)}, for callers that already know the attributes of the
+         * file, so deciders can avoid asking the file system again.
+         */
+        default boolean shouldZip(String zipPath, Path path, BasicFileAttributes attributes) {
+            return shouldZip(zipPath);
+        }
     }
 
     public static final ZippingDecider ZIP_ALL_THE_THINGS =
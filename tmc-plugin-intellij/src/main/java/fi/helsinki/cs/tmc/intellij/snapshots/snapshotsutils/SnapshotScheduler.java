@@ -0,0 +1,242 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules code snapshots of a single project.
+ *
+ * <p>File events that arrive within the coalescing window are merged into one pending snapshot,
+ * and only one snapshot of the project is being taken at a time. The actual zipping is done in a
+ * small worker pool shared by all projects, so a burst of events can no longer start a full
+ * project zip per event.
+ */
+public class SnapshotScheduler implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotScheduler.class);
+
+    public static final long DEFAULT_COALESCE_WINDOW = 1000;
+    public static final int DEFAULT_MAX_QUEUED_SNAPSHOTS = 16;
+
+    private static final int WORKERS =
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final ThreadPoolExecutor workers =
+            new ThreadPoolExecutor(
+                    WORKERS,
+                    WORKERS,
+                    30,
+                    TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(DEFAULT_MAX_QUEUED_SNAPSHOTS),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Source snapshot %d")
+                            .setDaemon(true)
+                            .build());
+
+    private static final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Source snapshot timer")
+                            .setDaemon(true)
+                            .build());
+
+    static {
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    /** Takes the actual snapshot once the pending causes have been merged. */
+    public interface SnapshotJob {
+        void snapshot(Exercise exercise, JsonMaker metadata);
+    }
+
+    private final SnapshotJob job;
+    private final Executor executor;
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+
+    private long coalesceWindow = DEFAULT_COALESCE_WINDOW;
+    private PendingSnapshot pending;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean running;
+    private boolean closed;
+
+    public SnapshotScheduler(SnapshotJob job) {
+        this(job, workers);
+    }
+
+    SnapshotScheduler(SnapshotJob job, Executor executor) {
+        this.job = job;
+        this.executor = executor;
+    }
+
+    /** Sets how long events are collected before a snapshot is taken, in milliseconds. */
+    public synchronized void setCoalesceWindow(long coalesceWindow) {
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    public synchronized long getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    /**
+     * Requests a snapshot for the given cause. If a snapshot is already pending the cause is
+     * merged into it instead.
+     */
+    public synchronized void request(
+            Exercise exercise, String cause, String file, JsonMaker metadata) {
+        requested.incrementAndGet();
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        if (pending != null) {
+            merged.incrementAndGet();
+            pending.addCause(exercise, cause, file);
+            return;
+        }
+
+        pending = new PendingSnapshot(exercise, metadata);
+        pending.addCause(exercise, cause, file);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (scheduledFlush == null) {
+            scheduledFlush = timer.schedule(this::flush, coalesceWindow, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void flush() {
+        scheduledFlush = null;
+        if (pending == null) {
+            return;
+        }
+        if (running) {
+            // Taken again once the current snapshot of this project is done.
+            return;
+        }
+
+        PendingSnapshot snapshot = pending;
+        pending = null;
+        running = true;
+        try {
+            executor.execute(() -> take(snapshot));
+        } catch (RejectedExecutionException ex) {
+            // Kept pending and tried again on the next tick, with any causes added meanwhile.
+            running = false;
+            pending = snapshot;
+            retried.incrementAndGet();
+            logger.warn(
+                    "Snapshot queue is full, retrying snapshot with {} causes.",
+                    snapshot.causes.size());
+            scheduleFlush();
+        }
+    }
+
+    private void take(PendingSnapshot snapshot) {
+        try {
+            job.snapshot(snapshot.exercise, snapshot.toMetadata());
+            completed.incrementAndGet();
+        } catch (RuntimeException ex) {
+            logger.warn("Taking snapshot failed.", ex);
+        } finally {
+            synchronized (this) {
+                running = false;
+                if (pending != null) {
+                    scheduleFlush();
+                }
+            }
+        }
+    }
+
+    /** Number of snapshots waiting for a shared worker, over all projects. */
+    public static int getSharedQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    /** Number of causes waiting to be merged into the next snapshot of this project. */
+    public synchronized int getPendingCauses() {
+        return pending == null ? 0 : pending.causes.size();
+    }
+
+    public long getRequestedCount() {
+        return requested.get();
+    }
+
+    public long getMergedCount() {
+        return merged.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /** Number of times a snapshot was kept pending because the worker queue was full. */
+    public long getRetriedCount() {
+        return retried.get();
+    }
+
+    /** Stops accepting new requests and hands the pending snapshot, if any, to the workers. */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        flush();
+    }
+
+    private static class PendingSnapshot {
+        private Exercise exercise;
+        private final JsonMaker metadata;
+        private final List<String> causes = new ArrayList<>();
+
+        private PendingSnapshot(Exercise exercise, JsonMaker metadata) {
+            this.exercise = exercise;
+            this.metadata = metadata;
+        }
+
+        private void addCause(Exercise exercise, String cause, String file) {
+            this.exercise = exercise;
+            causes.add(file == null ? cause : cause + ":" + file);
+        }
+
+        /**
+         * The metadata of the first event is kept as is, so a snapshot with a single cause looks
+         * exactly like before. Merged snapshots also list every cause.
+         */
+        private JsonMaker toMetadata() {
+            if (causes.size() > 1) {
+                metadata.add("causes", causes).add("merged_events", causes.size());
+            }
+            return metadata;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which files of a project go into code snapshots.
+ *
+ * <p>Everything the decision depends on is prepared once per project: the blacklisted extensions
+ * are compiled into a suffix trie and the patterns of the project's {@value #PATTERN_FILE} into
+ * path matchers. Whether a directory has a {@value #NO_SNAPSHOT_MARKER} is looked up once and
+ * remembered until {@link #invalidate(Path)} is called for it.
+ *
+ * <p>Patterns are globs relative to the project root, one per line, like {@code lib/**}.
+ * A pattern starting with {@code !} includes matching files even if their extension or size would
+ * leave them out. Excludes win over includes, and a {@value #NO_SNAPSHOT_MARKER} always wins.
+ */
+public class SnapshotZippingDecider implements RecursiveZipper.ZippingDecider {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotZippingDecider.class);
+
+    public static final long MAX_FILE_SIZE = 100 * 1024; // 100KB
+    public static final String NO_SNAPSHOT_MARKER = ".tmcnosnapshot";
+    public static final String PATTERN_FILE = ".tmcsnapshotignore";
+
+    private static final SuffixMatcher BLACKLISTED_FILE_EXTENSIONS =
+            new SuffixMatcher(
+                    ".min.js",
+                    ".pack.js",
+                    ".jar",
+                    ".war",
+                    ".mp3",
+                    ".ogg",
+                    ".wav",
+                    ".png",
+                    ".jpg",
+                    ".jpeg",
+                    ".ttf",
+                    ".eot",
+                    ".woff");
+
+    private final Path projectRoot;
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final Map<Path, Boolean> noSnapshotDirs = new ConcurrentHashMap<>();
+
+    public SnapshotZippingDecider(Path projectRoot) {
+        this(projectRoot, Collections.emptyList(), Collections.emptyList());
+    }
+
+    public SnapshotZippingDecider(Path projectRoot, List<String> includes, List<String> excludes) {
+        this.projectRoot = projectRoot;
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+    }
+
+    /** Creates a decider using the patterns of the project's {@value #PATTERN_FILE}, if any. */
+    public static SnapshotZippingDecider forProject(Path projectRoot) {
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        Path patternFile = projectRoot.resolve(PATTERN_FILE);
+        try {
+            for (String line : Files.readAllLines(patternFile, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.startsWith("!")) {
+                    includes.add(line.substring(1).trim());
+                } else {
+                    excludes.add(line);
+                }
+            }
+        } catch (NoSuchFileException ex) {
+            // No patterns for this project.
+        } catch (IOException ex) {
+            logger.warn("Could not read snapshot patterns from " + patternFile, ex);
+        }
+        return new SnapshotZippingDecider(projectRoot, includes, excludes);
+    }
+
+    private static List<PathMatcher> compile(List<String> patterns) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String pattern : patterns) {
+            try {
+                if (!pattern.startsWith("glob:") && !pattern.startsWith("regex:")) {
+                    pattern = "glob:" + pattern;
+                }
+                matchers.add(FileSystems.getDefault().getPathMatcher(pattern));
+            } catch (IllegalArgumentException ex) {
+                logger.warn("Ignoring invalid snapshot pattern: " + pattern, ex);
+            }
+        }
+        return matchers;
+    }
+
+    @Override
+    public boolean shouldZip(String zipPath) {
+        Path path = resolve(zipPath);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException ex) {
+            return !zipPath.endsWith("/") && !isExcluded(zipPath);
+        }
+        return shouldZip(zipPath, path, attributes);
+    }
+
+    @Override
+    public boolean shouldZip(String zipPath, Path path, BasicFileAttributes attributes) {
+        if (isExcluded(zipPath)) {
+            return false;
+        }
+        if (attributes.isDirectory()) {
+            return !hasNoSnapshotMarker(path);
+        }
+        if (matchesAny(includes, zipPath)) {
+            return true;
+        }
+        return !BLACKLISTED_FILE_EXTENSIONS.matches(zipPath)
+                && attributes.size() <= MAX_FILE_SIZE;
+    }
+
+    private boolean isExcluded(String zipPath) {
+        return matchesAny(excludes, zipPath);
+    }
+
+    private boolean matchesAny(List<PathMatcher> matchers, String zipPath) {
+        if (matchers.isEmpty()) {
+            return false;
+        }
+        Path relative = Paths.get(relativePath(zipPath));
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasNoSnapshotMarker(Path dir) {
+        return noSnapshotDirs.computeIfAbsent(
+                dir,
+                key -> Files.exists(key.resolve(NO_SNAPSHOT_MARKER), LinkOption.NOFOLLOW_LINKS));
+    }
+
+    /** Forgets whether the given directory has a {@value #NO_SNAPSHOT_MARKER}. */
+    public void invalidate(Path dir) {
+        noSnapshotDirs.remove(dir);
+    }
+
+    /** Forgets all looked up {@value #NO_SNAPSHOT_MARKER}s, e.g. after a directory was moved. */
+    public void invalidateAll() {
+        noSnapshotDirs.clear();
+    }
+
+    /** Zip paths start with the name of the project directory, patterns don't. */
+    private static String relativePath(String zipPath) {
+        int start = zipPath.indexOf('/') + 1;
+        int end = zipPath.endsWith("/") ? zipPath.length() - 1 : zipPath.length();
+        return start < end ? zipPath.substring(start, end) : "";
+    }
+
+    private Path resolve(String zipPath) {
+        String relative = relativePath(zipPath);
+        return relative.isEmpty() ? projectRoot : projectRoot.resolve(relative);
+    }
+
+    /** Matches strings against a fixed set of suffixes with one backwards pass. */
+    static class SuffixMatcher {
+        private final Node root = new Node();
+
+        SuffixMatcher(String... suffixes) {
+            for (String suffix : suffixes) {
+                Node node = root;
+                for (int i = suffix.length() - 1; i >= 0; i--) {
+                    node = node.children.computeIfAbsent(suffix.charAt(i), c -> new Node());
+                }
+                node.terminal = true;
+            }
+        }
+
+        boolean matches(String value) {
+            Node node = root;
+            for (int i = value.length() - 1; i >= 0; i--) {
+                node = node.children.get(value.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+                if (node.terminal) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static class Node {
+            private final Map<Character, Node> children = new HashMap<>();
+            private boolean terminal;
+        }
+    }
+}
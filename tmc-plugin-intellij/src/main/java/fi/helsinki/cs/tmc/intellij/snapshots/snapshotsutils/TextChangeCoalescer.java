@@ -0,0 +1,360 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Merges consecutive edits of one document into a single compound edit, so a burst of typing
+ * becomes one text event instead of one event per keystroke.
+ *
+ * <p>The coalescer keeps the region of the document touched by the pending edits, plus some
+ * unchanged context around them, both as it was before the first edit and as it is after the
+ * latest one. The pending edit is handed to the sink when the user has been idle for a while, when
+ * an edit of another document or type arrives, when an edit lands outside the region, when the
+ * region grows over the size cap or when {@link #flush()} is called, e.g. on file switch and save.
+ * Diffing the two versions of the region gives the same text as replaying the merged edits one by
+ * one.
+ *
+ * <p>The sink is called by the sink executor, in the order the edits were flushed, and never while
+ * the coalescer is locked. Edits are usually flushed on the event dispatch thread, so diffing them
+ * there would stall typing.
+ *
+ * @param <C> what the sink needs to know about the document, e.g. its exercise and file
+ */
+public class TextChangeCoalescer<C> {
+
+    public static final long DEFAULT_IDLE_TIMEOUT = 2000;
+    public static final int DEFAULT_MAX_CHARS = 16 * 1024;
+
+    /**
+     * How much unchanged text is kept around the edits, for patch context. Edits this close to
+     * the earlier ones are merged with them.
+     */
+    private static final int CONTEXT = 64;
+
+    private static final ScheduledExecutorService defaultTimer =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Text change coalescer")
+                            .setDaemon(true)
+                            .build());
+
+    private static final ExecutorService defaultSinkExecutor =
+            Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("Text change sender")
+                            .setDaemon(true)
+                            .build());
+
+    private final Consumer<CoalescedEdit<C>> sink;
+    private final ScheduledExecutorService timer;
+    private final Executor sinkExecutor;
+    private final Queue<CoalescedEdit<C>> flushed = new ConcurrentLinkedQueue<>();
+    private long idleTimeout;
+    private final int maxChars;
+
+    private Pending<C> pending;
+    private long lastEditAt;
+    private boolean idleFlushScheduled;
+
+    public TextChangeCoalescer(Consumer<CoalescedEdit<C>> sink) {
+        this(sink, defaultTimer, defaultSinkExecutor, DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_CHARS);
+    }
+
+    /** The sink executor must run one task at a time to keep the edits in order. */
+    public TextChangeCoalescer(
+            Consumer<CoalescedEdit<C>> sink,
+            ScheduledExecutorService timer,
+            Executor sinkExecutor,
+            long idleTimeout,
+            int maxChars) {
+        this.sink = sink;
+        this.timer = timer;
+        this.sinkExecutor = sinkExecutor;
+        this.idleTimeout = idleTimeout;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Adds an edit that replaced {@code oldFragment} at {@code offset} with {@code newFragment}.
+     *
+     * @param document identifies the edited document
+     * @param text the whole document after the edit, only read around the edit
+     */
+    public void add(
+            Object document,
+            C context,
+            String type,
+            CharSequence text,
+            int offset,
+            CharSequence oldFragment,
+            CharSequence newFragment) {
+        if (addPending(document, context, type, text, offset, oldFragment, newFragment)) {
+            deliver();
+        }
+    }
+
+    /** Returns whether an edit was flushed. */
+    private synchronized boolean addPending(
+            Object document,
+            C context,
+            String type,
+            CharSequence text,
+            int offset,
+            CharSequence oldFragment,
+            CharSequence newFragment) {
+        boolean flushedAny = false;
+        if (pending != null
+                && (pending.document != document
+                        || !pending.type.equals(type)
+                        || !pending.isNear(offset, oldFragment.length()))) {
+            flushedAny = takePending();
+        }
+        if (pending == null) {
+            pending = new Pending<>(document, context, type, offset);
+        }
+        pending.context = context;
+        pending.apply(text, offset, oldFragment, newFragment);
+
+        if (pending.size() > maxChars) {
+            return takePending();
+        }
+        lastEditAt = System.currentTimeMillis();
+        scheduleIdleFlush(idleTimeout);
+        return flushedAny;
+    }
+
+    /** Hands the pending edit, if any, to the sink. */
+    public void flush() {
+        boolean taken;
+        synchronized (this) {
+            taken = takePending();
+        }
+        if (taken) {
+            deliver();
+        }
+    }
+
+    /** Moves the pending edit to the flushed edits. Only the order is decided under the lock. */
+    private boolean takePending() {
+        if (pending == null) {
+            return false;
+        }
+        flushed.add(pending.toEdit());
+        pending = null;
+        return true;
+    }
+
+    private void deliver() {
+        sinkExecutor.execute(
+                () -> {
+                    CoalescedEdit<C> edit;
+                    while ((edit = flushed.poll()) != null) {
+                        sink.accept(edit);
+                    }
+                });
+    }
+
+    /** Sets how long the document must be left alone before the pending edit is sent. */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public synchronized long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public synchronized boolean hasPending() {
+        return pending != null;
+    }
+
+    /** Scheduling once per timeout instead of once per keystroke keeps typing cheap. */
+    private void scheduleIdleFlush(long delay) {
+        if (idleFlushScheduled) {
+            return;
+        }
+        idleFlushScheduled = true;
+        timer.schedule(this::flushIfIdle, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushIfIdle() {
+        if (takeIfIdle()) {
+            deliver();
+        }
+    }
+
+    private synchronized boolean takeIfIdle() {
+        idleFlushScheduled = false;
+        if (pending == null) {
+            return false;
+        }
+        long idle = System.currentTimeMillis() - lastEditAt;
+        if (idle >= idleTimeout) {
+            return takePending();
+        }
+        scheduleIdleFlush(idleTimeout - idle);
+        return false;
+    }
+
+    private static class Pending<C> {
+        private final Object document;
+        private final String type;
+        private C context;
+        private int start;
+        private int end;
+        private final StringBuilder original = new StringBuilder();
+        private final StringBuilder modified = new StringBuilder();
+        private int editCount;
+        private int documentLength;
+
+        private Pending(Object document, C context, String type, int offset) {
+            this.document = document;
+            this.context = context;
+            this.type = type;
+            this.start = offset;
+            this.end = offset;
+        }
+
+        private boolean isNear(int offset, int oldLength) {
+            return offset <= end && offset + oldLength >= start;
+        }
+
+        /**
+         * Grows the region to cover the edit and applies the edit to it. Positions are those of the
+         * document before the edit, which match the region as it has been kept so far.
+         */
+        private void apply(
+                CharSequence text,
+                int offset,
+                CharSequence oldFragment,
+                CharSequence newFragment) {
+            int lengthBefore = text.length() - newFragment.length() + oldFragment.length();
+            int newStart = Math.min(start, Math.max(0, offset - CONTEXT));
+            int newEnd =
+                    Math.max(end, Math.min(lengthBefore, offset + oldFragment.length() + CONTEXT));
+            String prefix = textBefore(text, offset, oldFragment, newFragment, newStart, start);
+            String suffix = textBefore(text, offset, oldFragment, newFragment, end, newEnd);
+
+            original.insert(0, prefix).append(suffix);
+            modified.insert(0, prefix).append(suffix);
+            int local = offset - newStart;
+            modified.replace(local, local + oldFragment.length(), newFragment.toString());
+
+            start = newStart;
+            end = newEnd - oldFragment.length() + newFragment.length();
+            editCount++;
+            documentLength = text.length();
+        }
+
+        private int size() {
+            return original.length() + modified.length();
+        }
+
+        private CoalescedEdit<C> toEdit() {
+            return new CoalescedEdit<>(
+                    context,
+                    type,
+                    start,
+                    original.toString(),
+                    modified.toString(),
+                    editCount,
+                    original.length() == 0 && modified.length() == documentLength);
+        }
+    }
+
+    /** Returns the text between {@code from} and {@code to} as it was before the edit. */
+    static String textBefore(
+            CharSequence text,
+            int offset,
+            CharSequence oldFragment,
+            CharSequence newFragment,
+            int from,
+            int to) {
+        StringBuilder result = new StringBuilder(Math.max(0, to - from));
+        int oldEnd = offset + oldFragment.length();
+        int shift = newFragment.length() - oldFragment.length();
+        for (int position = from; position < to; ) {
+            if (position < offset) {
+                int until = Math.min(to, offset);
+                result.append(text, position, until);
+                position = until;
+            } else if (position < oldEnd) {
+                int until = Math.min(to, oldEnd);
+                result.append(oldFragment, position - offset, until - offset);
+                position = until;
+            } else {
+                result.append(text, position + shift, to + shift);
+                position = to;
+            }
+        }
+        return result.toString();
+    }
+
+    /** Consecutive edits of one region of a document, merged together. */
+    public static class CoalescedEdit<C> {
+        private final C context;
+        private final String type;
+        private final int offset;
+        private final String original;
+        private final String modified;
+        private final int editCount;
+        private final boolean fullDocument;
+
+        private CoalescedEdit(
+                C context,
+                String type,
+                int offset,
+                String original,
+                String modified,
+                int editCount,
+                boolean fullDocument) {
+            this.context = context;
+            this.type = type;
+            this.offset = offset;
+            this.original = original;
+            this.modified = modified;
+            this.editCount = editCount;
+            this.fullDocument = fullDocument;
+        }
+
+        public C getContext() {
+            return context;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        /** Where in the document the region starts. */
+        public int getOffset() {
+            return offset;
+        }
+
+        /** The region before the first merged edit. */
+        public String getOriginal() {
+            return original;
+        }
+
+        /** The region after the last merged edit. */
+        public String getModified() {
+            return modified;
+        }
+
+        public int getEditCount() {
+            return editCount;
+        }
+
+        /** Whether the edits made up the whole document, like creating a file. */
+        public boolean isFullDocument() {
+            return fullDocument;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Keeps the deflated form of the files of one project, so consecutive snapshots only need to
+ * compress the files that actually changed.
+ *
+ * <p>A cached entry is reused as is when the size and modification time of the file are
+ * unchanged. Otherwise the file is read and its content hash is compared, so a file that was only
+ * touched or saved without changes isn't compressed again either.
+ */
+public class ZipEntryCache {
+
+    private final Map<String, CompressedEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Returns the compressed entry for the file, compressing it only if it has changed. */
+    public CompressedEntry get(String zipPath, File file) throws IOException {
+        return get(zipPath, file, file.length(), file.lastModified());
+    }
+
+    /**
+     * Like {@link #get(String, File)}, but uses the size and modification time already known by
+     * the caller instead of asking the file system again.
+     */
+    public CompressedEntry get(String zipPath, File file, long size, long lastModified)
+            throws IOException {
+        CompressedEntry cached = entries.get(zipPath);
+        if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        byte[] content = Files.readAllBytes(file.toPath());
+        HashCode hash = Hashing.sha1().hashBytes(content);
+        if (cached != null && cached.hash.equals(hash)) {
+            hits.incrementAndGet();
+            cached = cached.touched(lastModified);
+        } else {
+            misses.incrementAndGet();
+            cached = CompressedEntry.compress(content, hash, lastModified);
+        }
+        entries.put(zipPath, cached);
+        return cached;
+    }
+
+    /** Forgets the entries of files that weren't part of the latest archive. */
+    public void retainAll(Collection<String> zipPaths) {
+        entries.keySet().retainAll(zipPaths);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** A file deflated into the form it is stored in inside a zip archive. */
+    public static class CompressedEntry {
+        private final HashCode hash;
+        private final long crc;
+        private final long size;
+        private final long lastModified;
+        private final byte[] data;
+
+        private CompressedEntry(
+                HashCode hash, long crc, long size, long lastModified, byte[] data) {
+            this.hash = hash;
+            this.crc = crc;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.data = data;
+        }
+
+        static CompressedEntry compress(byte[] content, HashCode hash, long lastModified) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 64);
+            try {
+                deflater.setInput(content);
+                deflater.finish();
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, length);
+                }
+            } finally {
+                deflater.end();
+            }
+
+            return new CompressedEntry(
+                    hash, crc.getValue(), content.length, lastModified, compressed.toByteArray());
+        }
+
+        private CompressedEntry touched(long lastModified) {
+            return new CompressedEntry(hash, crc, size, lastModified, data);
+        }
+
+        public HashCode getHash() {
+            return hash;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /** Writes this entry to the archive without compressing it again. */
+        public void writeTo(RawZipWriter writer, String zipPath) throws IOException {
+            writer.writeEntry(
+                    zipPath, RawZipWriter.DEFLATED, crc, data.length, size, lastModified, data);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package fi.helsinki.cs.tmc.intellij.ui.diagnostics;
+
+import fi.helsinki.cs.tmc.intellij.snapshots.SnapshotMetrics;
+
+import com.intellij.ui.components.JBScrollPane;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.io.IOException;
+import java.nio.file.Path;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+/**
+ * Shows the snapshot metrics as text, refreshed every {@link #REFRESH_INTERVAL} milliseconds
+ * while the panel is visible.
+ */
+public class DiagnosticsPanel extends JPanel {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagnosticsPanel.class);
+
+    private static final int REFRESH_INTERVAL = 2000;
+
+    private final JTextArea metrics = new JTextArea();
+    private final JLabel status = new JLabel();
+    private final Timer refresher = new Timer(REFRESH_INTERVAL, event -> refresh());
+
+    public DiagnosticsPanel() {
+        setLayout(new BorderLayout());
+
+        JButton dump = new JButton("Write JSON");
+        dump.addActionListener(event -> dump());
+        JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        toolbar.add(dump);
+        toolbar.add(status);
+        add(toolbar, BorderLayout.NORTH);
+
+        metrics.setEditable(false);
+        metrics.setFont(new Font(Font.MONOSPACED, Font.PLAIN, metrics.getFont().getSize()));
+        add(new JBScrollPane(metrics), BorderLayout.CENTER);
+        refresh();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        refresher.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        refresher.stop();
+        super.removeNotify();
+    }
+
+    private void refresh() {
+        String text = SnapshotMetrics.get().format();
+        if (!text.equals(metrics.getText())) {
+            metrics.setText(text.isEmpty() ? "No snapshot activity yet." : text);
+        }
+    }
+
+    private void dump() {
+        try {
+            Path file = SnapshotMetrics.dump();
+            status.setText("Wrote " + file);
+        } catch (IOException ex) {
+            logger.warn("Could not write snapshot metrics.", ex);
+            status.setText("Could not write the metrics: " + ex.getMessage());
+        }
+    }
+}
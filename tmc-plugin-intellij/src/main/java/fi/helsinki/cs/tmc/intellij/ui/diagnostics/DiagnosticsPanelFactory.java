@@ -0,0 +1,26 @@
+package fi.helsinki.cs.tmc.intellij.ui.diagnostics;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+
+import org.jetbrains.annotations.NotNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Creates the TMC Diagnostics tool window, which shows the snapshot metrics. */
+public class DiagnosticsPanelFactory implements ToolWindowFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiagnosticsPanelFactory.class);
+
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        logger.info("Creating tool window content for diagnostics.");
+        ContentFactory cf = ContentFactory.SERVICE.getInstance();
+        Content content = cf.createContent(new DiagnosticsPanel(), "", true);
+        toolWindow.getContentManager().addContent(content);
+    }
+}
@@ -10,6 +10,7 @@ import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 import fi.helsinki.cs.tmc.intellij.holders.TmcCoreHolder;
 import fi.helsinki.cs.tmc.intellij.io.SettingsTmc;
+import fi.helsinki.cs.tmc.intellij.services.CourseCatalog;
 import fi.helsinki.cs.tmc.intellij.services.login.LoginManager;
 import fi.helsinki.cs.tmc.intellij.services.persistence.PersistentTmcSettings;
 import fi.helsinki.cs.tmc.intellij.ui.courseselection.CourseListWindow;
@@ -171,6 +172,7 @@ public class OrganizationListWindow extends JPanel {
 
                 settingsTmc.setOrganization(Optional.of(organization));
                 persistentSettings.setSettingsTmc(settingsTmc);
+                CourseCatalog.get().invalidate();
 
                 if (SettingsPanel.getInstance() != null) {
                     SettingsPanel.getInstance()
@@ -1,6 +1,5 @@
 package fi.helsinki.cs.tmc.intellij.ui.pastebin;
 
-import fi.helsinki.cs.tmc.intellij.holders.ProjectListManagerHolder;
 import fi.helsinki.cs.tmc.intellij.services.PasteService;
 import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
 
@@ -31,9 +30,7 @@ public class SubmitPanel {
         setupUi();
         sendButton.addActionListener(
                 event -> pasteService.uploadToTmcPastebin(
-                        submitMessageTextArea.getText(),
-                        new CourseAndExerciseManager(),
-                        ProjectListManagerHolder.get()));
+                        submitMessageTextArea.getText(), new CourseAndExerciseManager()));
         cancelButton.addActionListener(
                 event -> pasteService.getWindow().close());
         jlabel2.setText("Creating pastebin item for exercise " + pasteService.getExerciseName());
@@ -8,6 +8,7 @@ import fi.helsinki.cs.tmc.intellij.services.ObjectFinder;
 import fi.helsinki.cs.tmc.intellij.services.errors.ErrorMessageService;
 import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.ui.JBMenuItem;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.ui.components.JBList;
@@ -157,7 +158,7 @@ public class CourseTabFactory {
                         .get().getProjectBasePath()
                         + File.separator
                         + tabbedPanelBase.getSelectedComponent().getName()));
-                new ProjectListWindow().refreshProjectList();
+                refreshCourseFromDisk(tabbedPanelBase.getSelectedComponent().getName());
             } catch (IOException e1) {
                 e1.printStackTrace();
                 logger.warn("Deleting course folder failed",
@@ -167,6 +168,13 @@ public class CourseTabFactory {
         };
     }
 
+    /** Nothing on the server changes when folders are deleted, so only the disk is checked. */
+    private void refreshCourseFromDisk(String course) {
+        ApplicationManager.getApplication()
+                .executeOnPooledThread(
+                        () -> new CourseAndExerciseManager().refreshCourseFromDisk(course));
+    }
+
     private void setScrollBarToBottom(String course,
                                       JTabbedPane tabbedPanelBase,
                                       JBScrollPane panel) {
@@ -305,7 +313,7 @@ public class CourseTabFactory {
                             .getExerciseDirectory(TmcSettingsManager
                                     .get().getTmcProjectDirectory()).toString()));
                 }
-                new ProjectListWindow().refreshProjectList();
+                refreshCourseFromDisk(list.getParent().getParent().getName());
             } catch (IOException e1) {
                 logger.warn("IOException occurred. Something interrupted "
                                 + "the mouse action. @CourseTabFactory",
@@ -3,6 +3,7 @@ package fi.helsinki.cs.tmc.intellij.ui.projectlist;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.intellij.services.ObjectFinder;
 import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
+import fi.helsinki.cs.tmc.intellij.services.exercises.DatabaseChange;
 
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.ui.components.JBList;
@@ -14,11 +15,16 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.DefaultListModel;
 
 /**
  * Contains the ProjectListWindow.
+ *
+ * <p>Listens to the changes of the exercise database and updates only what changed: the tabs are
+ * rebuilt when a course is added or removed, one list when exercises are added or removed, and
+ * only the changed elements otherwise.
  */
 public class ProjectListManager {
 
@@ -26,10 +32,62 @@ public class ProjectListManager {
     private static Map<String, List<JBList>> currentListElements;
     private static List<ProjectListWindow> projectListWindows;
 
+    private final AtomicBoolean refreshAllPending = new AtomicBoolean();
+
     public ProjectListManager() {
         logger.info("Setting up ProjectListWindow. @ProjectListManager");
         projectListWindows = new ArrayList<>();
         currentListElements = new HashMap<>();
+        CourseAndExerciseManager.addDatabaseListener(
+                change -> ApplicationManager.getApplication().invokeLater(() -> update(change)));
+    }
+
+    private void update(DatabaseChange change) {
+        logger.info("Updating the project list after {}. @ProjectListManager", change);
+        if (change.getKind() != DatabaseChange.Kind.EXERCISES_CHANGED) {
+            refreshAllCourses();
+        } else if (!change.getAddedExercises().isEmpty()
+                || !change.getRemovedExercises().isEmpty()) {
+            if (hasTab(change.getCourse())) {
+                refreshCourse(change.getCourse());
+            } else {
+                refreshAllCourses();
+            }
+        } else {
+            replaceChangedExercises(change);
+        }
+    }
+
+    /** A course has a tab only if it has exercises, so the tabs change when that changes. */
+    private boolean hasTab(String course) {
+        CourseAndExerciseManager manager = new CourseAndExerciseManager();
+        return currentListElements.get(course) != null
+                && manager.isCourseInDatabase(course)
+                && !manager.getExercises(course).isEmpty();
+    }
+
+    private void replaceChangedExercises(DatabaseChange change) {
+        List<JBList> lists = currentListElements.get(change.getCourse());
+        CourseAndExerciseManager manager = new CourseAndExerciseManager();
+        if (lists == null || !manager.isCourseInDatabase(change.getCourse())) {
+            return;
+        }
+        Map<String, Exercise> exercises = new HashMap<>();
+        for (Exercise exercise : manager.getExercises(change.getCourse())) {
+            if (change.getChangedExercises().contains(exercise.getName())) {
+                exercises.put(exercise.getName(), exercise);
+            }
+        }
+        for (JBList jbList : lists) {
+            DefaultListModel model = (DefaultListModel) jbList.getModel();
+            for (int i = 0; i < model.getSize(); i++) {
+                Object element = model.getElementAt(i);
+                if (element instanceof Exercise
+                        && exercises.containsKey(((Exercise) element).getName())) {
+                    model.setElementAt(exercises.get(((Exercise) element).getName()), i);
+                }
+            }
+        }
     }
 
     public void addList(JBList list) {
@@ -38,10 +96,15 @@ public class ProjectListManager {
         currentListElements.get(list.getName()).add(list);
     }
 
+    /** Rebuilds the tabs of every window. Requests made before the rebuild runs are merged. */
     public void refreshAllCourses() {
         logger.info("Refreshing all courses. @ProjectListManager");
+        if (!refreshAllPending.compareAndSet(false, true)) {
+            return;
+        }
 
         ApplicationManager.getApplication().invokeLater(() -> {
+            refreshAllPending.set(false);
             for (ProjectListWindow window : projectListWindows) {
                 window.addCourseTabsAndExercises();
             }
@@ -64,7 +127,6 @@ public class ProjectListManager {
             addExercisesToList(new ObjectFinder(), course, model, new CourseAndExerciseManager());
             jbList.setModel(model);
         }
-        refreshAllCourses();
     }
 
     public void addExercisesToList(ObjectFinder finder,
@@ -0,0 +1,145 @@
+package fi.helsinki.cs.tmc.intellij.holders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+public class SingleFlightTest {
+
+    private SingleFlight flights;
+    private ExecutorService executor;
+    private CountDownLatch started;
+    private CountDownLatch release;
+    private AtomicInteger calls;
+
+    @Before
+    public void setUp() {
+        flights = new SingleFlight();
+        executor = Executors.newCachedThreadPool();
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        calls = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private Future<Object> callBlocking(String argument, Object result) {
+        return executor.submit(
+                () ->
+                        flights.call(
+                                "listCourses",
+                                argument,
+                                () -> {
+                                    calls.incrementAndGet();
+                                    started.countDown();
+                                    release.await();
+                                    if (result instanceof Exception) {
+                                        throw (Exception) result;
+                                    }
+                                    return result;
+                                }));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitDeduplicated() throws InterruptedException {
+        await(() -> flights.getDeduplicatedCounts().containsKey("listCourses"));
+    }
+
+    @Test
+    public void sharesTheResultOfARunningCall() throws Exception {
+        Object result = new Object();
+        Future<Object> first = callBlocking("", result);
+        started.await(5, TimeUnit.SECONDS);
+        Future<Object> second = callBlocking("", new Object());
+        awaitDeduplicated();
+
+        release.countDown();
+
+        assertSame(result, first.get(5, TimeUnit.SECONDS));
+        assertSame(result, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(Long.valueOf(1), flights.getDeduplicatedCounts().get("listCourses"));
+        assertEquals(0, flights.getInFlightCount());
+    }
+
+    @Test
+    public void sharesExceptions() throws Exception {
+        Future<Object> first = callBlocking("", new IOException("offline"));
+        started.await(5, TimeUnit.SECONDS);
+        Future<Object> second = callBlocking("", "unused");
+        awaitDeduplicated();
+
+        release.countDown();
+
+        for (Future<Object> future : Arrays.asList(first, second)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException ex) {
+                assertEquals("offline", ex.getCause().getMessage());
+            }
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void cancellingTheFirstCallerDoesNotFailTheOthers() throws Exception {
+        Object result = new Object();
+        Future<Object> first = callBlocking("", result);
+        started.await(5, TimeUnit.SECONDS);
+        Future<Object> second = callBlocking("", new Object());
+        awaitDeduplicated();
+
+        first.cancel(true);
+        release.countDown();
+
+        assertSame(result, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void doesNotShareBetweenArguments() throws Exception {
+        Future<Object> first = callBlocking("a", "a");
+        started.await(5, TimeUnit.SECONDS);
+        Future<Object> second = callBlocking("b", "b");
+        await(() -> flights.getInFlightCount() == 2);
+
+        release.countDown();
+
+        assertEquals("a", first.get(5, TimeUnit.SECONDS));
+        assertEquals("b", second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, calls.get());
+        assertEquals(null, flights.getDeduplicatedCounts().get("listCourses"));
+    }
+
+    @Test
+    public void callsAgainAfterTheCallHasFinished() throws Exception {
+        assertEquals("a", flights.call("listCourses", "", () -> "a"));
+        assertEquals("b", flights.call("listCourses", "", () -> "b"));
+        assertEquals(Long.valueOf(2), flights.getCallCounts().get("listCourses"));
+    }
+}
@@ -0,0 +1,112 @@
+package fi.helsinki.cs.tmc.intellij.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CourseCatalogTest {
+
+    private long now;
+    private List<Runnable> refreshes;
+    private CourseCatalog catalog;
+    private AtomicInteger fetches;
+
+    @Before
+    public void setUp() {
+        refreshes = new ArrayList<>();
+        catalog = new CourseCatalog(() -> now, refreshes::add);
+        catalog.setTtl(1000);
+        fetches = new AtomicInteger();
+    }
+
+    private Callable<List<Course>> courses(String name) {
+        return () -> {
+            fetches.incrementAndGet();
+            return Collections.singletonList(new Course(name));
+        };
+    }
+
+    private void runRefreshes() {
+        List<Runnable> pending = new ArrayList<>(refreshes);
+        refreshes.clear();
+        pending.forEach(Runnable::run);
+    }
+
+    @Test
+    public void fetchesOnceWithinTtl() throws Exception {
+        List<Course> first = catalog.getCourses(courses("a"));
+        now = 999;
+        List<Course> second = catalog.getCourses(courses("b"));
+
+        assertSame(first, second);
+        assertEquals(1, fetches.get());
+        assertEquals(0, refreshes.size());
+    }
+
+    @Test
+    public void servesStaleValuesWhileRevalidating() throws Exception {
+        List<Course> old = catalog.getCourses(courses("a"));
+        now = 1000;
+
+        assertSame(old, catalog.getCourses(courses("b")));
+        assertSame(old, catalog.getCourses(courses("b")));
+        assertEquals(1, refreshes.size());
+
+        runRefreshes();
+        List<Course> refreshed = catalog.getCourses(courses("c"));
+        assertEquals(1, refreshed.size());
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void keepsOldValueWhenRevalidationFails() throws Exception {
+        List<Course> old = catalog.getCourses(courses("a"));
+        now = 1000;
+        catalog.getCourses(
+                () -> {
+                    throw new IOException("offline");
+                });
+        runRefreshes();
+
+        assertSame(old, catalog.getCourses(courses("b")));
+        assertEquals(1, refreshes.size());
+    }
+
+    @Test
+    public void cachesDetailsByCourseName() throws Exception {
+        Course a = new Course("a");
+        Course b = new Course("b");
+
+        assertSame(a, catalog.getCourseDetails("a", () -> a));
+        assertSame(b, catalog.getCourseDetails("b", () -> b));
+        assertSame(a, catalog.getCourseDetails("a", () -> b));
+
+        catalog.invalidateCourse("a");
+        assertSame(b, catalog.getCourseDetails("a", () -> b));
+    }
+
+    @Test
+    public void invalidateDropsValuesAndRefreshesInFlight() throws Exception {
+        catalog.getCourses(courses("a"));
+        now = 1000;
+        catalog.getCourses(courses("b"));
+
+        catalog.invalidate();
+        runRefreshes();
+        catalog.getCourses(courses("c"));
+
+        assertEquals(3, fetches.get());
+        assertSame(catalog.getCourses(courses("d")), catalog.getCourses(courses("e")));
+    }
+}
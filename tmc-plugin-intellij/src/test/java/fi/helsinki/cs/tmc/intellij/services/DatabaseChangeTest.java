@@ -0,0 +1,70 @@
+package fi.helsinki.cs.tmc.intellij.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.intellij.services.exercises.DatabaseChange;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+public class DatabaseChangeTest {
+
+    private static List<Exercise> exercises(String... names) {
+        List<Exercise> exercises = new ArrayList<>();
+        for (String name : names) {
+            exercises.add(new Exercise(name, "course"));
+        }
+        return exercises;
+    }
+
+    @Test
+    public void sameExercisesAreNoChange() {
+        assertNull(DatabaseChange.between("course", exercises("a", "b"), exercises("a", "b")));
+        assertNull(DatabaseChange.between("course", null, null));
+    }
+
+    @Test
+    public void courseIsAddedAndRemoved() {
+        DatabaseChange added = DatabaseChange.between("course", null, exercises("a"));
+        assertEquals(DatabaseChange.Kind.COURSE_ADDED, added.getKind());
+        assertEquals(Collections.singleton("a"), added.getAddedExercises());
+
+        DatabaseChange removed = DatabaseChange.between("course", exercises("a"), null);
+        assertEquals(DatabaseChange.Kind.COURSE_REMOVED, removed.getKind());
+        assertEquals(Collections.singleton("a"), removed.getRemovedExercises());
+    }
+
+    @Test
+    public void exercisesAreAddedAndRemoved() {
+        DatabaseChange change =
+                DatabaseChange.between("course", exercises("a", "b"), exercises("b", "c"));
+
+        assertEquals(DatabaseChange.Kind.EXERCISES_CHANGED, change.getKind());
+        assertEquals("course", change.getCourse());
+        assertEquals(Collections.singleton("c"), change.getAddedExercises());
+        assertEquals(Collections.singleton("a"), change.getRemovedExercises());
+        assertTrue(change.getChangedExercises().isEmpty());
+    }
+
+    @Test
+    public void completedAndUpdatedExercisesAreChanged() {
+        List<Exercise> after = exercises("a", "b", "c");
+        after.get(0).setCompleted(true);
+        after.get(2).setChecksum("new");
+
+        DatabaseChange change = DatabaseChange.between("course", exercises("a", "b", "c"), after);
+
+        assertEquals(DatabaseChange.Kind.EXERCISES_CHANGED, change.getKind());
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), change.getChangedExercises());
+        assertTrue(change.getAddedExercises().isEmpty());
+        assertTrue(change.getRemovedExercises().isEmpty());
+    }
+}
@@ -0,0 +1,116 @@
+package fi.helsinki.cs.tmc.intellij.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.intellij.services.exercises.CourseAndExerciseManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ExerciseContextTest {
+
+    private final Exercise exercise = new Exercise("viikko1-Viikko1_001.Nimi");
+
+    private boolean inDatabase;
+    private int courseFetches;
+    private CourseAndExerciseManager manager;
+    private ObjectFinder finder;
+    private ExerciseContext context;
+
+    @Before
+    public void setUp() {
+        inDatabase = true;
+        courseFetches = 0;
+        manager =
+                new CourseAndExerciseManager() {
+                    @Override
+                    public boolean isCourseInDatabase(String course) {
+                        return inDatabase && course.equals("mooc");
+                    }
+
+                    @Override
+                    public Exercise getExercise(String course, String name) {
+                        return name.equals(exercise.getName()) ? exercise : null;
+                    }
+                };
+        finder =
+                new ObjectFinder() {
+                    @Override
+                    public Course findCourse(String searchTerm, String titleOrName) {
+                        courseFetches++;
+                        Course course = new Course(searchTerm);
+                        course.setTitle(searchTerm);
+                        return course;
+                    }
+                };
+        context =
+                new ExerciseContext(
+                        "/home/student/TMCProjects/mooc/viikko1-Viikko1_001.Nimi",
+                        manager,
+                        finder,
+                        Runnable::run);
+        ExerciseContext.databaseChanged();
+    }
+
+    @Test
+    public void resolvesCourseOnlyOnce() {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(context.isTracked());
+            assertSame(exercise, context.getExercise());
+        }
+
+        assertEquals(1, courseFetches);
+    }
+
+    @Test
+    public void readsDatabaseAgainAfterItChanged() {
+        assertTrue(context.isTracked());
+
+        inDatabase = false;
+        assertTrue(context.isTracked());
+
+        ExerciseContext.databaseChanged();
+        assertFalse(context.isTracked());
+        assertNull(context.getExercise());
+    }
+
+    @Test
+    public void courseIsFetchedAgainAfterDatabaseChanged() {
+        assertSame(exercise, context.getExercise());
+
+        ExerciseContext.databaseChanged();
+        assertSame(exercise, context.getExercise());
+
+        assertEquals(2, courseFetches);
+    }
+
+    @Test
+    public void courseIsFetchedOnResolver() {
+        List<Runnable> resolver = new ArrayList<>();
+        ExerciseContext background =
+                new ExerciseContext(
+                        "/home/student/TMCProjects/mooc/viikko1-Viikko1_001.Nimi",
+                        manager,
+                        finder,
+                        resolver::add);
+
+        background.resolve();
+        assertTrue(background.isTracked());
+        assertNull(background.getExercise());
+        assertEquals(0, courseFetches);
+        assertEquals(1, resolver.size());
+
+        resolver.get(0).run();
+        assertSame(exercise, background.getExercise());
+        assertEquals(1, courseFetches);
+    }
+}
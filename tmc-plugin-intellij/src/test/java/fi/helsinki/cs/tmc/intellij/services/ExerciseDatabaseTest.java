@@ -0,0 +1,77 @@
+package fi.helsinki.cs.tmc.intellij.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.intellij.services.persistence.ExerciseDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ExerciseDatabaseTest {
+
+    private ExerciseDatabase database;
+    private Map<String, List<Exercise>> courses;
+
+    private static Exercise exercise(String name, int id) {
+        Exercise exercise = new Exercise(name, "course");
+        exercise.setId(id);
+        return exercise;
+    }
+
+    @Before
+    public void setUp() {
+        courses = new HashMap<>();
+        courses.put(
+                "Course title",
+                new ArrayList<>(
+                        Arrays.asList(exercise("b", 2), exercise("c", 3), exercise("a", 1))));
+        database = new ExerciseDatabase();
+        database.setCourses(courses);
+    }
+
+    @Test
+    public void findsExercisesByNameIdAndDirectory() {
+        Exercise b = courses.get("Course title").get(0);
+
+        assertSame(b, database.getExercise("Course title", "b"));
+        assertSame(b, database.getExerciseById(2));
+        assertSame(b, database.getExerciseInDirectory("course", "b"));
+        assertNull(database.getExercise("Course title", "d"));
+        assertNull(database.getExercise("Other", "b"));
+        assertNull(database.getExerciseInDirectory("Course title", "b"));
+    }
+
+    @Test
+    public void sortsExercisesByName() {
+        assertEquals(
+                Arrays.asList("a", "b", "c"),
+                new ArrayList<>(database.getSortedExercises("Course title").keySet()));
+        assertEquals("c", database.getSortedExercises("Course title").higherKey("b"));
+        assertTrue(database.getSortedExercises("Other").isEmpty());
+    }
+
+    @Test
+    public void indicesFollowTheCourseMap() {
+        database.getExercise("Course title", "a");
+
+        courses.get("Course title").add(exercise("d", 4));
+        database.setCourses(courses);
+        assertEquals("d", database.getExerciseById(4).getName());
+
+        Map<String, List<Exercise>> replaced = new HashMap<>();
+        replaced.put("Other", new ArrayList<>(Arrays.asList(exercise("e", 5))));
+        database.setCourses(replaced);
+        assertNull(database.getExercise("Course title", "a"));
+        assertEquals("e", database.getExercise("Other", "e").getName());
+    }
+}
@@ -0,0 +1,146 @@
+package fi.helsinki.cs.tmc.intellij.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.intellij.services.exercises.ParallelCourseFetcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelCourseFetcherTest {
+
+    private ExecutorService executor;
+    private ParallelCourseFetcher fetcher;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+        fetcher = new ParallelCourseFetcher(executor, 500);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static List<Course> courses(String... names) {
+        List<Course> courses = new ArrayList<>();
+        for (String name : names) {
+            courses.add(new Course(name));
+        }
+        return courses;
+    }
+
+    @Test
+    public void fetchesEveryCourseAtMostThreeAtATime() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Course> received = new ArrayList<>();
+
+        ParallelCourseFetcher.Result result =
+                fetcher.fetchAll(
+                        courses("a", "b", "c", "d", "e", "f", "g"),
+                        course ->
+                                () -> {
+                                    maxRunning.accumulateAndGet(
+                                            running.incrementAndGet(), Math::max);
+                                    Thread.sleep(20);
+                                    running.decrementAndGet();
+                                    return course;
+                                },
+                        received::add);
+
+        assertEquals(7, result.getFetched().size());
+        assertEquals(result.getFetched(), received);
+        assertTrue(result.getFailed().isEmpty());
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void keepsGoingWhenSomeCoursesFail() throws Exception {
+        List<Course> courses = courses("ok", "broken", "slow", "empty");
+
+        ParallelCourseFetcher.Result result =
+                fetcher.fetchAll(
+                        courses,
+                        course ->
+                                () -> {
+                                    switch (course.getName()) {
+                                        case "broken":
+                                            throw new IOException("broken");
+                                        case "slow":
+                                            Thread.sleep(5000);
+                                            return course;
+                                        case "empty":
+                                            return null;
+                                        default:
+                                            return course;
+                                    }
+                                },
+                        course -> {});
+
+        assertEquals(Arrays.asList(courses.get(0)), result.getFetched());
+        assertEquals(3, result.getFailed().size());
+        assertTrue(result.getFailed().get(courses.get(1)) instanceof IOException);
+        assertTrue(result.getFailed().get(courses.get(2)) instanceof TimeoutException);
+    }
+
+    @Test
+    public void countsFailingConsumersAsFailures() throws Exception {
+        ParallelCourseFetcher.Result result =
+                fetcher.fetchAll(
+                        courses("a"),
+                        course -> () -> course,
+                        course -> {
+                            throw new IllegalStateException("no database");
+                        });
+
+        assertTrue(result.getFetched().isEmpty());
+        assertEquals(1, result.getFailed().size());
+    }
+
+    @Test
+    public void givesUpQueuedCoursesWhenThreadsAreStuck() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Course> courses = courses("stuck", "queued");
+        try {
+            ParallelCourseFetcher.Result result =
+                    new ParallelCourseFetcher(single, 200, 1000)
+                            .fetchAll(
+                                    courses,
+                                    course ->
+                                            () -> {
+                                                while (release.getCount() > 0) {
+                                                    try {
+                                                        release.await();
+                                                    } catch (InterruptedException ex) {
+                                                        // Stuck like socket I/O, not cancelled.
+                                                    }
+                                                }
+                                                return course;
+                                            },
+                                    course -> {});
+
+            assertTrue(result.getFetched().isEmpty());
+            assertTrue(result.getFailed().get(courses.get(0)) instanceof TimeoutException);
+            assertTrue(result.getFailed().get(courses.get(1)) instanceof TimeoutException);
+        } finally {
+            release.countDown();
+            single.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package fi.helsinki.cs.tmc.intellij.snapshots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EventCodecNegotiatorTest {
+
+    private static final URI SPYWARE_URL = URI.create("http://localhost:1/spyware");
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final AtomicBoolean enabled = new AtomicBoolean();
+
+    private final EventCodecNegotiator negotiator =
+            new EventCodecNegotiator(enabled::get) {
+                @Override
+                protected Collection<String> fetchAcceptedCodecs(URI spywareUrl) {
+                    fetches.incrementAndGet();
+                    return Collections.singletonList("blob");
+                }
+            };
+
+    @Test
+    public void disabledNegotiatorDoesNotAskServer() {
+        assertFalse(negotiator.accepts(SPYWARE_URL, "blob"));
+        assertFalse(negotiator.negotiate(SPYWARE_URL).isPresent());
+
+        assertEquals(0, fetches.get());
+    }
+
+    @Test
+    public void enabledNegotiatorAsksServerOnce() {
+        enabled.set(true);
+
+        assertTrue(negotiator.accepts(SPYWARE_URL, "blob"));
+        assertTrue(negotiator.accepts(SPYWARE_URL, "blob"));
+
+        assertEquals(1, fetches.get());
+    }
+}
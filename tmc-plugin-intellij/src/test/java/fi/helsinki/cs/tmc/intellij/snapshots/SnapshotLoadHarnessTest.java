@@ -0,0 +1,21 @@
+package fi.helsinki.cs.tmc.intellij.snapshots;
+
+import org.junit.Test;
+
+public class SnapshotLoadHarnessTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAtLeastOneSession() {
+        new SnapshotLoadHarness(0, 10, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeInterval() {
+        new SnapshotLoadHarness(1, 10, -1);
+    }
+
+    @Test
+    public void acceptsSessionsWithoutEvents() {
+        new SnapshotLoadHarness(1, 0, 0);
+    }
+}
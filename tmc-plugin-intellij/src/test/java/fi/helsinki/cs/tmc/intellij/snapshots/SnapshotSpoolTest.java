@@ -0,0 +1,54 @@
+package fi.helsinki.cs.tmc.intellij.snapshots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class SnapshotSpoolTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private SnapshotSpool open() {
+        return new SnapshotSpool(
+                folder.getRoot().toPath().resolve("spool"),
+                folder.getRoot().toPath().resolve("blobs"),
+                new TmcServerCommunicationTaskFactory(),
+                new EventCodecNegotiator());
+    }
+
+    @Test
+    public void snapshotsAreRestoredInNextSession() throws Exception {
+        SnapshotSpool spool = open();
+        Path archive = spool.newSpoolFile();
+        Files.write(archive, new byte[] {1, 2, 3});
+        spool.add(new Exercise("viikko1-Viikko1_001.Nimi", "course"), JsonMaker.create(), archive);
+
+        SnapshotSpool restored = open();
+
+        assertEquals(1, restored.getSpooledCount());
+        assertEquals(3, restored.getSpooledBytes());
+        assertTrue(Files.exists(archive));
+    }
+
+    @Test
+    public void incompleteArchivesAreRemoved() throws Exception {
+        Path archive = open().newSpoolFile();
+        Files.write(archive, new byte[] {1, 2, 3});
+
+        SnapshotSpool restored = open();
+
+        assertEquals(0, restored.getSpooledCount());
+        assertFalse(Files.exists(archive));
+    }
+}
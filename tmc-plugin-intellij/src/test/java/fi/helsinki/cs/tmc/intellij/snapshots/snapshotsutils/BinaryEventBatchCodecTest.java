@@ -0,0 +1,90 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+public class BinaryEventBatchCodecTest {
+
+    private static JsonObject event(String type, String data, long happenedAt) {
+        JsonObject event = new JsonObject();
+        event.addProperty("courseName", "k2017-ohpe");
+        event.addProperty("exerciseName", "viikko01-Viikko01_001.Nimi");
+        event.addProperty("eventType", type);
+        event.addProperty(
+                "data", Base64.getEncoder().encodeToString(data.getBytes(StandardCharsets.UTF_8)));
+        event.addProperty("metadata", "{\"cause\":\"file_change\",\"file\":\"Main.java\"}");
+        event.addProperty("happenedAt", happenedAt);
+        event.addProperty("systemNanotime", happenedAt * 1000000 + 17);
+        return event;
+    }
+
+    private static List<JsonObject> typingSession() {
+        List<JsonObject> events = new ArrayList<>();
+        long time = 1500000000000L;
+        for (int i = 0; i < 50; i++) {
+            String data =
+                    "{\"file\":\"src/main/java/Main.java\",\"patches\":\"@@ -20,4 +20,5 @@\\n"
+                            + " %7B%0A+x"
+                            + i
+                            + "%0A%7D\\n\",\"full_document\":false,\"edit_count\":"
+                            + (i % 7 + 1)
+                            + "}";
+            events.add(event("text_insert", data, time += 350));
+        }
+        events.add(event("code_snapshot", "PK\u0003\u0004 not json", time + 10));
+        JsonObject odd = new JsonObject();
+        odd.addProperty("eventType", "ide_action");
+        odd.add("data", null);
+        odd.addProperty("ratio", 1.5);
+        odd.addProperty("negative", -42);
+        events.add(odd);
+        return events;
+    }
+
+    @Test
+    public void roundTripsEvents() throws IOException {
+        List<JsonObject> events = typingSession();
+        for (boolean deflate : new boolean[] {false, true}) {
+            BinaryEventBatchCodec codec = new BinaryEventBatchCodec(deflate);
+
+            List<JsonObject> decoded = codec.decode(codec.encode(events));
+
+            assertEquals(events, decoded);
+            assertEquals(events.toString(), decoded.toString());
+        }
+    }
+
+    @Test
+    public void encodesSmallerThanJson() throws IOException {
+        List<JsonObject> events = typingSession();
+        int json = events.toString().getBytes(StandardCharsets.UTF_8).length;
+
+        int binary = new BinaryEventBatchCodec(false).encode(events).length;
+        int deflated = new BinaryEventBatchCodec(true).encode(events).length;
+
+        assertTrue(binary + " < " + json, binary < json / 2);
+        assertTrue(deflated + " < " + binary, deflated < binary);
+    }
+
+    @Test
+    public void decodesEitherVariant() throws IOException {
+        List<JsonObject> events = typingSession();
+        byte[] deflated = new BinaryEventBatchCodec(true).encode(events);
+
+        assertTrue(BinaryEventBatchCodec.isEncoded(deflated));
+        assertEquals(events, new BinaryEventBatchCodec(false).decode(deflated));
+        assertEquals(
+                "binary-deflate-v1",
+                EventBatchCodecs.negotiate(EventBatchCodecs.getNames()).get().getName());
+    }
+}
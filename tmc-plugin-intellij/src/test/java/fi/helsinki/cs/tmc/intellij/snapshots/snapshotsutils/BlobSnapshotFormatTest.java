@@ -0,0 +1,139 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class BlobSnapshotFormatTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File project;
+    private ParallelZipper zipper;
+    private BlobStore clientStore;
+    private BlobSnapshotReceiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        project = folder.newFolder("viikko1-Viikko1_001.Nimi");
+        Random random = new Random(1);
+        for (int i = 0; i < 40; i++) {
+            StringBuilder content = new StringBuilder("public class File" + i + " {\n");
+            for (int line = 0; line < 60; line++) {
+                content.append("    int v").append(Long.toString(random.nextLong(), 36));
+                content.append(" = ").append(random.nextInt()).append(";\n");
+            }
+            write("src/pkg" + (i % 4) + "/File" + i + ".java", content.append("}\n").toString());
+        }
+        zipper = new ParallelZipper(project, RecursiveZipper.ZIP_ALL_THE_THINGS);
+        clientStore = new BlobStore(folder.newFolder("client").toPath());
+        receiver = new BlobSnapshotReceiver(new BlobStore(folder.newFolder("server").toPath()));
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(project, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> contents(byte[] zip) throws IOException {
+        Map<String, String> contents = new TreeMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                contents.put(
+                        entry.getName(),
+                        new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8));
+            }
+        }
+        return contents;
+    }
+
+    /** Sends an archive like the spool does, acknowledging the blobs once received. */
+    private byte[] upload(byte[] archive) throws IOException {
+        Set<String> included = new HashSet<>();
+        byte[] payload = BlobSnapshotFormat.encode(archive, clientStore, included);
+        byte[] rebuilt = receiver.receive(payload);
+        clientStore.acknowledge(included);
+        assertEquals(contents(archive), contents(rebuilt));
+        return payload;
+    }
+
+    @Test
+    public void uploadsOnlyChangedFilesAfterFirstSnapshot() throws Exception {
+        byte[] first = zipper.zipProjectSources();
+        upload(first);
+
+        write("src/pkg0/File0.java", "public class File0 { int edited; }\n");
+        byte[] second = zipper.zipProjectSources();
+        byte[] payload = upload(second);
+
+        assertTrue(payload.length + " vs " + second.length, payload.length * 10 < second.length);
+        assertEquals(2, receiver.getSnapshotCount());
+    }
+
+    @Test
+    public void sharesBlobsWithinBatch() throws Exception {
+        Set<String> included = new HashSet<>();
+        byte[] archive = zipper.zipProjectSources();
+
+        byte[] first = BlobSnapshotFormat.encode(archive, clientStore, included);
+        byte[] second = BlobSnapshotFormat.encode(archive, clientStore, included);
+
+        assertTrue(second.length * 10 < first.length);
+        receiver.receive(first);
+        assertEquals(contents(archive), contents(receiver.receive(second)));
+    }
+
+    @Test
+    public void encodingDoesNotStoreContentsOnClient() throws Exception {
+        Set<String> included = new HashSet<>();
+        BlobSnapshotFormat.encode(zipper.zipProjectSources(), clientStore, included);
+
+        assertFalse(included.isEmpty());
+        for (String hash : included) {
+            assertFalse(clientStore.contains(hash));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsSnapshotWithMissingBlobs() throws Exception {
+        byte[] archive = zipper.zipProjectSources();
+        Set<String> included = new HashSet<>();
+        BlobSnapshotFormat.encode(archive, clientStore, included);
+        clientStore.acknowledge(included);
+
+        receiver.receive(BlobSnapshotFormat.encode(archive, clientStore, new HashSet<>()));
+    }
+
+    @Test
+    public void remembersAcknowledgedBlobs() throws Exception {
+        String hash = clientStore.put("content".getBytes(StandardCharsets.UTF_8));
+        clientStore.acknowledge(Collections.singleton(hash));
+
+        BlobStore reopened = new BlobStore(folder.getRoot().toPath().resolve("client"));
+
+        assertTrue(reopened.isAcknowledged(hash));
+        assertFalse(reopened.contains(hash));
+    }
+}
@@ -0,0 +1,106 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class EventBudgetTest {
+
+    private long now;
+    private EventBudget budget;
+
+    @Before
+    public void setUp() {
+        now = 1000000;
+        budget = new EventBudget(() -> now);
+        budget.setLimits(10, 1000, 100);
+    }
+
+    private void recordEvents(int count) {
+        for (int i = 0; i < count; i++) {
+            budget.recordEvent();
+        }
+    }
+
+    @Test
+    public void staysNormalWithinBudget() {
+        recordEvents(10);
+        budget.addQueuedBytes(1000);
+        budget.recordCpu(TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertEquals(EventBudget.Stage.NORMAL, budget.getStage());
+    }
+
+    @Test
+    public void degradesByHowFarTheBudgetIsExceeded() {
+        recordEvents(15);
+        assertEquals(EventBudget.Stage.COALESCE, budget.getStage());
+
+        budget.addQueuedBytes(3000);
+        assertEquals(EventBudget.Stage.METADATA_ONLY, budget.getStage());
+
+        budget.recordCpu(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(EventBudget.Stage.SAMPLE, budget.getStage());
+    }
+
+    @Test
+    public void recoversOnlyAfterCoolDown() {
+        recordEvents(50);
+        assertEquals(EventBudget.Stage.SAMPLE, budget.getStage());
+
+        now += 2000;
+        assertEquals(EventBudget.Stage.SAMPLE, budget.getStage());
+
+        now += EventBudget.COOL_DOWN;
+        assertEquals(EventBudget.Stage.NORMAL, budget.getStage());
+    }
+
+    @Test
+    public void exceedingAgainRestartsCoolDown() {
+        recordEvents(50);
+        assertEquals(EventBudget.Stage.SAMPLE, budget.getStage());
+
+        now += EventBudget.COOL_DOWN - 1000;
+        recordEvents(50);
+        assertEquals(EventBudget.Stage.SAMPLE, budget.getStage());
+
+        now += EventBudget.COOL_DOWN - 1000;
+        assertEquals(EventBudget.Stage.SAMPLE, budget.getStage());
+    }
+
+    @Test
+    public void keepsOneInSampleRate() {
+        int kept = 0;
+        for (int i = 0; i < EventBudget.SAMPLE_RATE * 10; i++) {
+            if (budget.sample()) {
+                kept++;
+            }
+        }
+
+        assertEquals(10, kept);
+    }
+
+    @Test
+    public void countsDegradedEventsByStageAndKind() {
+        budget.recordDegraded(EventBudget.Stage.SAMPLE, "text_insert");
+        budget.recordDegraded(EventBudget.Stage.SAMPLE, "text_insert");
+        budget.recordDegraded(EventBudget.Stage.METADATA_ONLY, "code_snapshot");
+
+        Map<String, Long> counts = budget.getDegradedCounts();
+
+        assertEquals(Long.valueOf(2), counts.get("sample:text_insert"));
+        assertEquals(Long.valueOf(1), counts.get("metadata_only:code_snapshot"));
+    }
+
+    @Test
+    public void nonPositiveLimitsFallBackToDefaults() {
+        budget.setLimits(0, -1, 0);
+        recordEvents(EventBudget.DEFAULT_EVENTS_PER_SECOND);
+
+        assertEquals(EventBudget.Stage.NORMAL, budget.getStage());
+    }
+}
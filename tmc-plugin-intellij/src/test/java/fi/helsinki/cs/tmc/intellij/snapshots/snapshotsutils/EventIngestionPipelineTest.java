@@ -0,0 +1,113 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EventIngestionPipelineTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void consumesEveryItemInOrderInBatches() throws Exception {
+        List<Integer> consumed = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        EventIngestionPipeline<Integer> pipeline =
+                new EventIngestionPipeline<>(
+                        batch -> {
+                            started.countDown();
+                            await(release);
+                            batchSizes.add(batch.size());
+                            consumed.addAll(batch);
+                        },
+                        executor,
+                        10);
+
+        pipeline.add(0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 26; i++) {
+            pipeline.add(i);
+        }
+        release.countDown();
+        waitUntilIngested(pipeline, 26);
+
+        for (int i = 0; i < 26; i++) {
+            assertEquals(i, (int) consumed.get(i));
+        }
+        assertEquals(4, pipeline.getBatchCount());
+        assertEquals(10, pipeline.getLargestBatchSize());
+        assertEquals(0, pipeline.getQueueDepth());
+    }
+
+    @Test
+    public void onlyOneConsumerRunsAtOnce() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        EventIngestionPipeline<Integer> pipeline =
+                new EventIngestionPipeline<>(
+                        batch -> {
+                            if (running.incrementAndGet() > 1) {
+                                overlaps.incrementAndGet();
+                            }
+                            running.decrementAndGet();
+                        },
+                        executor,
+                        5);
+
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread producer =
+                    new Thread(
+                            () -> {
+                                for (int i = 0; i < 1000; i++) {
+                                    pipeline.add(i);
+                                }
+                            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        waitUntilIngested(pipeline, 4000);
+
+        assertEquals(0, overlaps.get());
+        assertEquals(4000, pipeline.getReceivedCount());
+        assertFalse(pipeline.getAverageBatchSize() > 5);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntilIngested(EventIngestionPipeline<?> pipeline, long count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pipeline.getIngestedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, pipeline.getIngestedCount());
+    }
+}
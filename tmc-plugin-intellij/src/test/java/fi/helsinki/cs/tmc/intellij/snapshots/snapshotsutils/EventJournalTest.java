@@ -0,0 +1,123 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class EventJournalTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] record(int i) {
+        return ("event " + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void readsRecordsBackAcrossSegments() throws IOException {
+        try (EventJournal journal = new EventJournal(folder.getRoot().toPath(), 64)) {
+            for (int i = 0; i < 20; i++) {
+                journal.append(record(i));
+            }
+            assertTrue(journal.getSegmentCount() > 1);
+
+            List<EventJournal.Entry> entries = journal.read(0, 100, Long.MAX_VALUE);
+
+            assertEquals(20, entries.size());
+            for (int i = 0; i < 20; i++) {
+                assertArrayEquals(record(i), entries.get(i).getData());
+            }
+            assertEquals(5, journal.read(0, 5, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    public void replaysOnlyUnacknowledgedRecordsAfterReopening() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (EventJournal journal = new EventJournal(directory, 64)) {
+            for (int i = 0; i < 10; i++) {
+                journal.append(record(i));
+            }
+            List<EventJournal.Entry> sent = journal.read(0, 6, Long.MAX_VALUE);
+            journal.acknowledge(sent.get(5).getNextOffset());
+        }
+
+        try (EventJournal journal = new EventJournal(directory, 64)) {
+            List<EventJournal.Entry> entries =
+                    journal.read(journal.getAcknowledgedOffset(), 100, Long.MAX_VALUE);
+
+            assertEquals(4, entries.size());
+            assertArrayEquals(record(6), entries.get(0).getData());
+
+            long offset = journal.append(record(10));
+            assertEquals(offset, entries.get(3).getNextOffset());
+        }
+    }
+
+    @Test
+    public void compactionDeletesAcknowledgedSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (EventJournal journal = new EventJournal(directory, 64)) {
+            for (int i = 0; i < 20; i++) {
+                journal.append(record(i));
+            }
+            int segments = journal.getSegmentCount();
+
+            journal.acknowledge(journal.getEndOffset());
+            journal.compact();
+
+            assertEquals(1, journal.getSegmentCount());
+            assertEquals(1, countSegmentFiles(directory));
+            assertTrue(segments > 1);
+            assertEquals(0, journal.getPendingBytes());
+        }
+    }
+
+    @Test
+    public void dropsTornRecordOnRecovery() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        long end;
+        try (EventJournal journal = new EventJournal(directory, 1024)) {
+            journal.append(record(0));
+            journal.append(record(1));
+            end = journal.getEndOffset();
+        }
+
+        Path segment;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*")) {
+            segment = files.iterator().next();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(end);
+            file.writeInt(7);
+            file.writeInt(12345);
+            file.write("garbage".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (EventJournal journal = new EventJournal(directory, 1024)) {
+            assertEquals(end, journal.getEndOffset());
+            assertEquals(2, journal.read(0, 100, Long.MAX_VALUE).size());
+        }
+    }
+
+    private static int countSegmentFiles(Path directory) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*")) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,166 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class FocusTrackerTest {
+
+    private long now;
+    private ScheduledExecutorService timer;
+    private List<FocusTracker.FocusSummary> summaries;
+    private FocusTracker tracker;
+
+    @Before
+    public void setUp() {
+        now = 1000000;
+        timer = Executors.newSingleThreadScheduledExecutor();
+        summaries = new CopyOnWriteArrayList<>();
+        tracker = new FocusTracker(summaries::add, timer, () -> now, 1000, 60 * 60 * 1000);
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private void awaitSummaries(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (summaries.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void focus(String file, long dwell) {
+        tracker.focus(file);
+        now += dwell;
+    }
+
+    @Test
+    public void recordsDwellTimePerFile() {
+        focus("A.java", 5000);
+        focus("B.java", 3000);
+        focus("A.java", 2000);
+        tracker.flush();
+
+        assertEquals(1, summaries.size());
+        FocusTracker.FocusSummary summary = summaries.get(0);
+        assertEquals(3, summary.getIntervals().size());
+        assertEquals(Long.valueOf(7000), summary.getDwellByFile().get("A.java"));
+        assertEquals(Long.valueOf(3000), summary.getDwellByFile().get("B.java"));
+        assertEquals(2, summary.getSwitchCount());
+        assertEquals(1000000, summary.getStartedAt());
+        assertEquals(1010000, summary.getEndedAt());
+    }
+
+    @Test
+    public void countsTabCyclingAsSkippedSwitches() {
+        focus("A.java", 5000);
+        for (int i = 0; i < 30; i++) {
+            focus("Tab" + i + ".java", 50);
+        }
+        focus("B.java", 4000);
+        tracker.flush();
+
+        FocusTracker.FocusSummary summary = summaries.get(0);
+        assertEquals(2, summary.getIntervals().size());
+        assertEquals("B.java", summary.getIntervals().get(1).getFile());
+        assertEquals(31, summary.getSwitchCount());
+        assertEquals(30, summary.getSkippedCount());
+    }
+
+    @Test
+    public void extendsIntervalWhenReturningAfterShortVisits() {
+        focus("A.java", 5000);
+        focus("B.java", 100);
+        focus("A.java", 5000);
+        tracker.flush();
+
+        List<FocusTracker.FocusInterval> intervals = summaries.get(0).getIntervals();
+        assertEquals(1, intervals.size());
+        assertEquals(10000, intervals.get(0).getDwell());
+    }
+
+    @Test
+    public void continuesFocusedFileInNextSummary() {
+        focus("A.java", 5000);
+        tracker.flush();
+        now += 3000;
+        focus("B.java", 2000);
+        tracker.flush();
+
+        assertEquals(2, summaries.size());
+        assertEquals(5000, summaries.get(0).getIntervals().get(0).getDwell());
+        FocusTracker.FocusInterval continued = summaries.get(1).getIntervals().get(0);
+        assertEquals("A.java", continued.getFile());
+        assertEquals(3000, continued.getDwell());
+    }
+
+    @Test
+    public void sendsNothingWithoutFocus() {
+        tracker.flush();
+        focus("A.java", 500);
+        tracker.flush();
+
+        assertTrue(summaries.isEmpty());
+    }
+
+    @Test
+    public void sendsSummaryWhenFull() throws Exception {
+        for (int i = 0; i <= FocusTracker.MAX_INTERVALS; i++) {
+            focus("File" + i + ".java", 2000);
+        }
+        awaitSummaries(1);
+
+        assertEquals(1, summaries.size());
+        assertEquals(FocusTracker.MAX_INTERVALS, summaries.get(0).getIntervals().size());
+    }
+
+    @Test
+    public void sendsSummaryAfterInterval() throws Exception {
+        tracker = new FocusTracker(summaries::add, timer, () -> now, 1000, 50);
+        focus("A.java", 5000);
+        focus("B.java", 0);
+        Thread.sleep(500);
+
+        assertEquals(1, summaries.size());
+    }
+
+    @Test
+    public void sendsDwellOfFileKeptInFocus() throws Exception {
+        tracker = new FocusTracker(summaries::add, timer, () -> now, 1000, 50);
+        focus("A.java", 5000);
+        awaitSummaries(1);
+
+        assertEquals(Long.valueOf(5000), summaries.get(0).getDwellByFile().get("A.java"));
+        assertEquals(0, summaries.get(0).getSwitchCount());
+    }
+
+    @Test
+    public void callsSinkWithoutLock() {
+        List<Boolean> locked = new CopyOnWriteArrayList<>();
+        FocusTracker[] holder = new FocusTracker[1];
+        holder[0] =
+                new FocusTracker(
+                        summary -> locked.add(Thread.holdsLock(holder[0])),
+                        timer,
+                        () -> now,
+                        1000,
+                        60 * 60 * 1000);
+        holder[0].focus("A.java");
+        now += 5000;
+        holder[0].flush();
+
+        assertEquals(1, locked.size());
+        assertFalse(locked.get(0));
+    }
+}
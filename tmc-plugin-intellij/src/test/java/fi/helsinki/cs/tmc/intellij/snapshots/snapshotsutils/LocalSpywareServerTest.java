@@ -0,0 +1,135 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+public class LocalSpywareServerTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalSpywareServer server;
+    private URI url;
+    private List<JsonObject> received;
+
+    @Before
+    public void setUp() throws Exception {
+        server =
+                new LocalSpywareServer(
+                        new BlobStore(folder.newFolder("blobs").toPath()),
+                        EventBatchCodecs.getNames());
+        url = server.start();
+        received = new CopyOnWriteArrayList<>();
+        server.setEventListener(received::add);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static JsonObject event(String type, byte[] data) {
+        JsonObject event = new JsonObject();
+        event.addProperty("eventType", type);
+        event.addProperty("happenedAt", 1234L);
+        event.addProperty("data", Base64.getEncoder().encodeToString(data));
+        return event;
+    }
+
+    private int post(JsonArray events) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(body)) {
+            out.write(events.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        HttpURLConnection connection = (HttpURLConnection) url.toURL().openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.toByteArray());
+        }
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void answersAcceptedCodecs() throws Exception {
+        HttpURLConnection connection =
+                (HttpURLConnection) URI.create(url + "/codecs").toURL().openConnection();
+
+        String body = IOUtils.toString(connection.getInputStream(), StandardCharsets.UTF_8);
+
+        assertEquals(EventBatchCodecs.getNames(), Arrays.asList(body.split(",")));
+    }
+
+    @Test
+    public void receivesPlainEvents() throws Exception {
+        JsonArray events = new JsonArray();
+        events.add(event("text_insert", "{}".getBytes(StandardCharsets.UTF_8)));
+        events.add(event("window_focus", "{}".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(200, post(events));
+        assertEquals(2, received.size());
+        assertEquals(Long.valueOf(1), server.getEventCounts().get("window_focus"));
+    }
+
+    @Test
+    public void decodesEventBatches() throws Exception {
+        List<JsonObject> batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch.add(event("text_insert", ("{\"i\":" + i + "}").getBytes(StandardCharsets.UTF_8)));
+        }
+        JsonArray events = new JsonArray();
+        events.add(
+                event(
+                        EventBatchCodecs.BATCH_EVENT_TYPE,
+                        new BinaryEventBatchCodec(true).encode(batch)));
+
+        assertEquals(200, post(events));
+        assertEquals(50, server.getEventCount());
+        assertEquals(1234L, received.get(49).get("happenedAt").getAsLong());
+    }
+
+    @Test
+    public void rejectsMalformedBatches() throws Exception {
+        JsonArray events = new JsonArray();
+        events.add(event(EventBatchCodecs.BATCH_EVENT_TYPE, new byte[] {1, 2, 3}));
+
+        assertEquals(400, post(events));
+        assertEquals(1, server.getRejectedRequestCount());
+    }
+
+    @Test
+    public void failsUploadsOnPurpose() throws Exception {
+        server.setFailureRate(1);
+        JsonArray events = new JsonArray();
+        events.add(event("text_insert", new byte[0]));
+
+        assertEquals(500, post(events));
+        assertEquals(1, server.getFailedRequestCount());
+        assertEquals(0, server.getEventCount());
+    }
+}
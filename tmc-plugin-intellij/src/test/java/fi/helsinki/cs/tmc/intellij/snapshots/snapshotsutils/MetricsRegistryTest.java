@@ -0,0 +1,79 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MetricsRegistryTest {
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+
+    @Test
+    public void countsByName() {
+        registry.counter("events.added.text_insert").increment();
+        registry.counter("events.added.text_insert").add(2);
+        registry.counter("send.failures").increment();
+
+        assertEquals(Long.valueOf(3), registry.getCounters().get("events.added.text_insert"));
+        assertEquals(Long.valueOf(1), registry.getCounters().get("send.failures"));
+    }
+
+    @Test
+    public void readsGaugesWhenReported() {
+        AtomicLong depth = new AtomicLong(5);
+        registry.gauge("pipeline.queue_depth", depth::get);
+        depth.set(7);
+
+        assertEquals(Long.valueOf(7), registry.getGauges().get("pipeline.queue_depth"));
+    }
+
+    @Test
+    public void estimatesPercentilesWithinAQuarter() {
+        MetricsRegistry.Histogram histogram = registry.histogram("snapshot.zip_ms");
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(1000, histogram.getMax());
+        assertWithinQuarter(500, histogram.getPercentile(50));
+        assertWithinQuarter(990, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    private static void assertWithinQuarter(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected * 1.25);
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        long[] values = {0, 1, 3, 4, 5, 7, 8, 1023, 1024, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = MetricsRegistry.Histogram.indexOf(value);
+            assertTrue(value + "", value <= MetricsRegistry.Histogram.upperBoundOf(index));
+            if (index > 0) {
+                assertTrue(value + "", value > MetricsRegistry.Histogram.upperBoundOf(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void writesJson() {
+        registry.counter("send.batches").increment();
+        registry.histogram("send.duration_ms").record(12);
+
+        JsonObject json = registry.toJson();
+
+        assertEquals(1, json.getAsJsonObject("counters").get("send.batches").getAsLong());
+        JsonObject histogram =
+                json.getAsJsonObject("histograms").getAsJsonObject("send.duration_ms");
+        assertEquals(1, histogram.get("count").getAsLong());
+        assertEquals(12, histogram.get("max").getAsLong());
+    }
+}
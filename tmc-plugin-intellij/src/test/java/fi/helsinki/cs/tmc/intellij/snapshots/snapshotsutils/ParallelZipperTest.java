@@ -0,0 +1,143 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.hash.HashCode;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class ParallelZipperTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File project;
+
+    @Before
+    public void setUp() throws Exception {
+        project = folder.newFolder("viikko1-Viikko1_001.Nimi");
+        for (int i = 0; i < 50; i++) {
+            write("src/pkg" + (i % 5) + "/File" + i + ".java", "class File" + i + " {}");
+        }
+        write("nbproject/private/private.xml", "<private/>");
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(project, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Set<String> entryNames(byte[] zip) throws IOException {
+        Set<String> names = new TreeSet<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void containsSameEntriesAsRecursiveZipper() throws Exception {
+        RecursiveZipper.ZippingDecider decider = zipPath -> !zipPath.contains("/private/");
+
+        byte[] serial = new RecursiveZipper(project, decider).zipProjectSources();
+        byte[] parallel = new ParallelZipper(project, decider).zipProjectSources();
+
+        assertEquals(entryNames(serial), entryNames(parallel));
+        assertTrue(entryNames(parallel).contains("viikko1-Viikko1_001.Nimi/nbproject/"));
+        assertFalse(entryNames(parallel).contains("viikko1-Viikko1_001.Nimi/nbproject/private/"));
+    }
+
+    @Test
+    public void outputIsDeterministic() throws Exception {
+        byte[] first =
+                new ParallelZipper(project, RecursiveZipper.ZIP_ALL_THE_THINGS)
+                        .zipProjectSources();
+        byte[] second =
+                new ParallelZipper(project, RecursiveZipper.ZIP_ALL_THE_THINGS)
+                        .zipProjectSources();
+
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void zipsIntoFile() throws Exception {
+        File target = folder.newFile("snapshot.zip");
+        ParallelZipper zipper = new ParallelZipper(project, RecursiveZipper.ZIP_ALL_THE_THINGS);
+
+        long size = zipper.zipProjectSources(target.toPath());
+
+        assertEquals(target.length(), size);
+        assertArrayEquals(zipper.zipProjectSources(), Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void skipsArchiveWhenFingerprintIsUnchanged() throws Exception {
+        File target = folder.newFile("snapshot.zip");
+        ParallelZipper zipper = new ParallelZipper(project, RecursiveZipper.ZIP_ALL_THE_THINGS);
+
+        HashCode first = zipper.zipProjectSourcesIfChanged(target.toPath(), null);
+        assertTrue(target.length() > 0);
+        Files.write(target.toPath(), new byte[0]);
+        new File(project, "src/pkg0/File0.java").setLastModified(12345000L);
+
+        assertEquals(first, zipper.zipProjectSourcesIfChanged(target.toPath(), first));
+        assertEquals(0, target.length());
+
+        write("src/pkg0/File0.java", "class File0 { int x; }");
+        HashCode edited = zipper.zipProjectSourcesIfChanged(target.toPath(), first);
+        assertNotEquals(first, edited);
+        assertTrue(target.length() > 0);
+
+        File renamed = new File(project, "src/pkg0/Renamed.java");
+        assertTrue(new File(project, "src/pkg0/File0.java").renameTo(renamed));
+        assertNotEquals(edited, zipper.zipProjectSourcesIfChanged(target.toPath(), edited));
+    }
+
+    @Test
+    public void onlyChangedFilesAreCompressedAgain() throws Exception {
+        ZipEntryCache cache = new ZipEntryCache();
+        ParallelZipper zipper =
+                new ParallelZipper(project, RecursiveZipper.ZIP_ALL_THE_THINGS, cache);
+        zipper.zipProjectSources();
+        assertEquals(51, cache.getMissCount());
+
+        write("src/pkg0/File0.java", "class File0 { int changed; }");
+        zipper.zipProjectSources();
+
+        assertEquals(52, cache.getMissCount());
+        assertEquals(50, cache.getHitCount());
+    }
+
+    @Test
+    public void removedFilesAreDroppedFromCache() throws Exception {
+        ZipEntryCache cache = new ZipEntryCache();
+        ParallelZipper zipper =
+                new ParallelZipper(project, RecursiveZipper.ZIP_ALL_THE_THINGS, cache);
+        zipper.zipProjectSources();
+
+        assertTrue(new File(project, "nbproject/private/private.xml").delete());
+        zipper.zipProjectSources();
+
+        assertEquals(50, cache.size());
+    }
+}
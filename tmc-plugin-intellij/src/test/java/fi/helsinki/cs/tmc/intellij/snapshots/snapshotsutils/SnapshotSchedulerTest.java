@@ -0,0 +1,88 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.utilities.JsonMaker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SnapshotSchedulerTest {
+
+    private AtomicInteger snapshots;
+    private CountDownLatch done;
+    private SnapshotScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        snapshots = new AtomicInteger();
+        done = new CountDownLatch(1);
+        scheduler =
+                new SnapshotScheduler(
+                        (exercise, metadata) -> {
+                            snapshots.incrementAndGet();
+                            done.countDown();
+                        });
+        scheduler.setCoalesceWindow(50);
+    }
+
+    @Test
+    public void burstOfEventsIsMergedIntoOneSnapshot() throws Exception {
+        Exercise exercise = new Exercise("viikko1-Viikko1_001.Nimi");
+        for (int i = 0; i < 40; i++) {
+            scheduler.request(exercise, "file_change", "src/File" + i + ".java", JsonMaker.create());
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+
+        assertEquals(1, snapshots.get());
+        assertEquals(40, scheduler.getRequestedCount());
+        assertEquals(39, scheduler.getMergedCount());
+        assertEquals(0, scheduler.getDroppedCount());
+        assertEquals(0, scheduler.getPendingCauses());
+    }
+
+    @Test
+    public void closeTakesPendingSnapshotAndDropsLaterRequests() throws Exception {
+        Exercise exercise = new Exercise("viikko1-Viikko1_001.Nimi");
+        scheduler.setCoalesceWindow(TimeUnit.MINUTES.toMillis(1));
+        scheduler.request(exercise, "file_create", "src/Main.java", JsonMaker.create());
+
+        scheduler.close();
+        scheduler.request(exercise, "file_change", "src/Main.java", JsonMaker.create());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, snapshots.get());
+        assertEquals(1, scheduler.getDroppedCount());
+    }
+
+    @Test
+    public void rejectedSnapshotIsRetriedWithItsCauses() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        SnapshotScheduler rejecting =
+                new SnapshotScheduler(
+                        (exercise, metadata) -> done.countDown(),
+                        command -> {
+                            if (attempts.incrementAndGet() == 1) {
+                                throw new RejectedExecutionException();
+                            }
+                            command.run();
+                        });
+        rejecting.setCoalesceWindow(50);
+        Exercise exercise = new Exercise("viikko1-Viikko1_001.Nimi");
+        rejecting.request(exercise, "file_change", "src/A.java", JsonMaker.create());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals(1, rejecting.getRetriedCount());
+        assertEquals(0, rejecting.getDroppedCount());
+    }
+}
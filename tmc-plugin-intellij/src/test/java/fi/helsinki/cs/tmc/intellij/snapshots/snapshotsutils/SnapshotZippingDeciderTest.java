@@ -0,0 +1,87 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class SnapshotZippingDeciderTest {
+
+    private static final String ROOT = "viikko1-Viikko1_001.Nimi/";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File project;
+
+    @Before
+    public void setUp() throws Exception {
+        project = folder.newFolder("viikko1-Viikko1_001.Nimi");
+        write("src/Main.java", "class Main {}");
+        write("lib/library.jar", "jar");
+        write("web/app.min.js", "min");
+        write("data/big.txt", new String(new char[200 * 1024]));
+        write("generated/Gen.java", "class Gen {}");
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(project, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void leavesOutBinariesAndBigFiles() {
+        SnapshotZippingDecider decider = new SnapshotZippingDecider(project.toPath());
+
+        assertTrue(decider.shouldZip(ROOT + "src/Main.java"));
+        assertFalse(decider.shouldZip(ROOT + "lib/library.jar"));
+        assertFalse(decider.shouldZip(ROOT + "web/app.min.js"));
+        assertFalse(decider.shouldZip(ROOT + "data/big.txt"));
+        assertTrue(decider.shouldZip(ROOT + "src/"));
+    }
+
+    @Test
+    public void noSnapshotMarkerIsCachedUntilInvalidated() throws Exception {
+        SnapshotZippingDecider decider = new SnapshotZippingDecider(project.toPath());
+        assertTrue(decider.shouldZip(ROOT + "src/"));
+
+        write("src/" + SnapshotZippingDecider.NO_SNAPSHOT_MARKER, "");
+        assertTrue(decider.shouldZip(ROOT + "src/"));
+
+        decider.invalidate(project.toPath().resolve("src"));
+        assertFalse(decider.shouldZip(ROOT + "src/"));
+    }
+
+    @Test
+    public void appliesIncludeAndExcludePatterns() {
+        SnapshotZippingDecider decider =
+                new SnapshotZippingDecider(
+                        project.toPath(),
+                        Arrays.asList("lib/*.jar", "generated/Gen.java"),
+                        Collections.singletonList("generated/**"));
+
+        assertTrue(decider.shouldZip(ROOT + "lib/library.jar"));
+        assertFalse(decider.shouldZip(ROOT + "generated/Gen.java"));
+    }
+
+    @Test
+    public void readsPatternsFromProject() throws Exception {
+        write(
+                SnapshotZippingDecider.PATTERN_FILE,
+                "# comment\n!data/big.txt\nsrc/**\n");
+        SnapshotZippingDecider decider = SnapshotZippingDecider.forProject(project.toPath());
+
+        assertTrue(decider.shouldZip(ROOT + "data/big.txt"));
+        assertFalse(decider.shouldZip(ROOT + "src/Main.java"));
+    }
+}
@@ -0,0 +1,149 @@
+package fi.helsinki.cs.tmc.intellij.snapshots.snapshotsutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class TextChangeCoalescerTest {
+
+    private final Object document = new Object();
+
+    private ScheduledExecutorService timer;
+    private List<TextChangeCoalescer.CoalescedEdit<String>> flushed;
+    private TextChangeCoalescer<String> coalescer;
+    private StringBuilder text;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        flushed = new ArrayList<>();
+        coalescer = new TextChangeCoalescer<>(flushed::add, timer, Runnable::run, 60 * 1000, 1024);
+        text = new StringBuilder("public class Main {\n}\n");
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private void edit(String type, int offset, int oldLength, String newFragment) {
+        String oldFragment = text.substring(offset, offset + oldLength);
+        text.replace(offset, offset + oldLength, newFragment);
+        coalescer.add(document, "Main.java", type, text, offset, oldFragment, newFragment);
+    }
+
+    private static String replay(String before, TextChangeCoalescer.CoalescedEdit<?> edit) {
+        int offset = edit.getOffset();
+        assertEquals(
+                edit.getOriginal(),
+                before.substring(offset, offset + edit.getOriginal().length()));
+        return before.substring(0, offset)
+                + edit.getModified()
+                + before.substring(offset + edit.getOriginal().length());
+    }
+
+    @Test
+    public void mergesTypingIntoOneEdit() {
+        String before = text.toString();
+        int offset = 20;
+        for (char c : "int x = 1;".toCharArray()) {
+            edit("text_insert", offset++, 0, String.valueOf(c));
+        }
+        assertTrue(flushed.isEmpty());
+
+        coalescer.flush();
+
+        assertEquals(1, flushed.size());
+        assertEquals(10, flushed.get(0).getEditCount());
+        assertEquals(text.toString(), replay(before, flushed.get(0)));
+        assertFalse(coalescer.hasPending());
+    }
+
+    @Test
+    public void flushesOnTypeChangeAndDistantEdits() {
+        text.append(new String(new char[500]).replace('\0', ' '));
+        String before = text.toString();
+
+        edit("text_insert", 20, 0, "a");
+        edit("text_remove", 20, 1, "");
+        edit("text_remove", 400, 5, "");
+        coalescer.flush();
+
+        assertEquals(3, flushed.size());
+        String replayed = before;
+        for (TextChangeCoalescer.CoalescedEdit<String> edit : flushed) {
+            replayed = replay(replayed, edit);
+        }
+        assertEquals(text.toString(), replayed);
+    }
+
+    @Test
+    public void sinkRunsOnSinkExecutorWithoutLock() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<Boolean> locked = new ArrayList<>();
+        TextChangeCoalescer<String> deferred =
+                new TextChangeCoalescer<>(
+                        edit -> locked.add(Thread.holdsLock(coalescer)),
+                        timer,
+                        tasks::add,
+                        60000,
+                        100);
+        coalescer = deferred;
+
+        edit("text_insert", 20, 0, "a");
+        edit("text_insert", 21, 0, new String(new char[80]).replace('\0', 'x'));
+
+        assertTrue(locked.isEmpty());
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(1, locked.size());
+        assertFalse(locked.get(0));
+    }
+
+    @Test
+    public void flushesWhenRegionGrowsOverCap() {
+        for (int i = 0; i < 20; i++) {
+            edit("text_insert", text.length(), 0, new String(new char[50]).replace('\0', 'x'));
+        }
+
+        assertFalse(flushed.isEmpty());
+    }
+
+    @Test
+    public void replaysRandomEdits() {
+        Random random = new Random(42);
+        String before = text.toString();
+        for (int i = 0; i < 2000; i++) {
+            int offset = random.nextInt(text.length() + 1);
+            int oldLength = random.nextInt(Math.min(3, text.length() - offset) + 1);
+            String newFragment = random.nextBoolean() ? "" : "ab\n".substring(random.nextInt(3));
+            edit("text_insert", offset, oldLength, newFragment);
+        }
+        coalescer.flush();
+
+        String replayed = before;
+        for (TextChangeCoalescer.CoalescedEdit<String> edit : flushed) {
+            replayed = replay(replayed, edit);
+        }
+        assertEquals(text.toString(), replayed);
+    }
+
+    @Test
+    public void marksEditsOfEmptyDocumentAsFullDocument() {
+        text.setLength(0);
+        edit("text_paste", 0, 0, "class A {}");
+        coalescer.flush();
+
+        assertTrue(flushed.get(0).isFullDocument());
+    }
+}